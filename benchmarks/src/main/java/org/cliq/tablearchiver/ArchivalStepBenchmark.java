@@ -0,0 +1,175 @@
+package org.cliq.tablearchiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each step of {@link PartitionArchiver#archivePartition(String)} on partition p202502 holding
+ * {@code rowsPerPartition} generated messages.
+ * <p>
+ * Read-only steps are averaged over many calls. Steps that change the schema run once per invocation, with the
+ * partition and archive table put back in shape by an untimed per-invocation setup.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArchivalStepBenchmark {
+
+	static final String PARTITION = "p202502";
+	// Keeps a copy of the generated rows, to refill the partition after it is dropped
+	static final String ROWS_TABLE = "bench_partition_rows";
+
+	@Param({"10000", "100000", "1000000"})
+	long rowsPerPartition;
+
+	DataSource dataSource;
+	PartitionArchiver archiver;
+	String archiveTableName;
+	Connection conn;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dataSource = BenchmarkDatabase.recreate();
+		ArchiverConfig config = BenchmarkDatabase.config();
+		archiver = new PartitionArchiver(dataSource, config);
+		archiveTableName = config.getArchiveTableNameSupplier().apply(PARTITION);
+		SyntheticDataGenerator.builder(dataSource)
+			.users(1_000)
+			.chats(500)
+			.messages(rowsPerPartition)
+			.dateRange(LocalDate.of(2025, 2, 1), LocalDate.of(2025, 3, 1))
+			.build()
+			.generate();
+		conn = dataSource.getConnection();
+		BenchmarkDatabase.execute(conn,
+			"CREATE TABLE " + ROWS_TABLE + " LIKE messages",
+			"ALTER TABLE " + ROWS_TABLE + " REMOVE PARTITIONING",
+			"INSERT INTO " + ROWS_TABLE + " SELECT * FROM messages PARTITION (" + PARTITION + ")",
+			"ANALYZE TABLE messages");
+		archiver.createArchiveTable(conn, archiveTableName);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public boolean partitionExists() throws SQLException {
+		return archiver.partitionExists(conn, PARTITION);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public ArchivedPartitionMetadata capturePartitionMetadata() throws SQLException {
+		return archiver.capturePartitionMetadata(conn, PARTITION, archiveTableName);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 10)
+	public void createArchiveTable(FreshArchiveTable table) throws SQLException {
+		archiver.createArchiveTable(conn, FreshArchiveTable.NAME);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 10)
+	public void exchangePartition(FullPartition partition) throws SQLException {
+		archiver.exchangePartition(conn, PARTITION, archiveTableName);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	public void dropPartition(RefilledPartition partition) throws SQLException {
+		archiver.dropPartition(conn, PARTITION);
+	}
+
+	/**
+	 * Removes the table created by the previous createArchiveTable invocation.
+	 */
+	@State(Scope.Benchmark)
+	public static class FreshArchiveTable {
+		static final String NAME = "messages_archive_BENCH";
+
+		@Setup(Level.Invocation)
+		public void dropTable(ArchivalStepBenchmark bench) throws SQLException {
+			BenchmarkDatabase.execute(bench.conn, "DROP TABLE IF EXISTS " + NAME);
+		}
+	}
+
+	/**
+	 * Moves the rows back from the archive table, so every exchange archives a full partition into an empty table.
+	 */
+	@State(Scope.Benchmark)
+	public static class FullPartition {
+
+		@Setup(Level.Invocation)
+		public void refill(ArchivalStepBenchmark bench) throws SQLException {
+			if (bench.rowsIn(bench.archiveTableName) > 0) {
+				bench.archiver.exchangePartition(bench.conn, PARTITION, bench.archiveTableName);
+			}
+		}
+	}
+
+	/**
+	 * Recreates the dropped partition and fills it from the saved copy of its rows.
+	 */
+	@State(Scope.Benchmark)
+	public static class RefilledPartition {
+		static final String STAGING_TABLE = "bench_partition_staging";
+
+		@Setup(Level.Invocation)
+		public void refill(ArchivalStepBenchmark bench) throws SQLException {
+			if (!bench.archiver.partitionExists(bench.conn, PARTITION)) {
+				// p202503 took over February when p202502 was dropped; split it again
+				BenchmarkDatabase.execute(bench.conn, "ALTER TABLE messages REORGANIZE PARTITION p202503 INTO (" +
+					"PARTITION " + PARTITION + " VALUES LESS THAN (TO_DAYS('2025-03-01')), " +
+					"PARTITION p202503 VALUES LESS THAN (TO_DAYS('2025-04-01')))");
+			}
+			if (bench.rowsIn("messages PARTITION (" + PARTITION + ")") == 0) {
+				BenchmarkDatabase.execute(bench.conn,
+					"DROP TABLE IF EXISTS " + STAGING_TABLE,
+					"CREATE TABLE " + STAGING_TABLE + " LIKE " + ROWS_TABLE,
+					"INSERT INTO " + STAGING_TABLE + " SELECT * FROM " + ROWS_TABLE,
+					"ALTER TABLE messages EXCHANGE PARTITION " + PARTITION + " WITH TABLE " + STAGING_TABLE + " WITHOUT VALIDATION",
+					"DROP TABLE " + STAGING_TABLE);
+			}
+		}
+	}
+
+	private long rowsIn(String table) throws SQLException {
+		try (var stmt = conn.createStatement();
+			 var rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.cliq.tablearchiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Times chat-history and time-range reads over the live messages table plus {@code archiveTables} archive tables.
+ * <p>
+ * The trial setup creates monthly partitions up to the current month, fills them with bench.read.messages generated
+ * messages (default 2,000,000) and archives the oldest {@code archiveTables} partitions, so the same rows are read
+ * whatever the number of archives.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArchiveReadBenchmark {
+
+	private static final LocalDate DATA_FROM = LocalDate.of(2025, 1, 1);
+
+	@Param({"0", "4", "12"})
+	int archiveTables;
+
+	ArchiveRegistryCache registryCache;
+	ChatHistoryService historyService;
+	MessageSearchService searchService;
+	long busiestChatId;
+	LocalDateTime dataTo;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		DataSource dataSource = BenchmarkDatabase.recreate();
+		ArchiverConfig config = BenchmarkDatabase.config();
+		new PartitionManager(dataSource, config).ensureFuturePartitions();
+
+		LocalDate to = LocalDate.now().withDayOfMonth(1);
+		dataTo = to.atStartOfDay();
+		SyntheticDataGenerator.builder(dataSource)
+			.users(10_000)
+			.chats(5_000)
+			.messages(Long.getLong("bench.read.messages", 2_000_000L))
+			.dateRange(DATA_FROM, to)
+			.build()
+			.generate();
+
+		registryCache = new ArchiveRegistryCache(dataSource, config);
+		PartitionArchiver archiver = new PartitionArchiver(dataSource, config, registryCache);
+		try (Connection conn = dataSource.getConnection()) {
+			List<DataSourceConfig.PartitionDetails> partitions = PartitionManager.readPartitions(conn, config.getMessagesTable());
+			if (partitions.size() <= archiveTables) {
+				throw new IllegalStateException("Only " + partitions.size() + " partitions to archive " + archiveTables + " from.");
+			}
+			for (int i = 0; i < archiveTables; i++) {
+				archiver.archivePartition(partitions.get(i).getPartitionName());
+			}
+			busiestChatId = busiestChat(conn);
+		}
+		registryCache.refresh();
+		historyService = new ChatHistoryService(dataSource, config, registryCache);
+		searchService = new MessageSearchService(dataSource, config, registryCache, 8);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		searchService.close();
+		historyService.close();
+		registryCache.close();
+	}
+
+	@Benchmark
+	public ChatHistoryService.Page historyFirstPage() throws SQLException {
+		return historyService.fetchPage(busiestChatId, null, 50);
+	}
+
+	// Scrolls back far enough to cross from the live table into the archives
+	@Benchmark
+	public void historyScrollBack(Blackhole blackhole) throws SQLException {
+		ChatHistoryService.Cursor cursor = historyService.openCursor(busiestChatId, null, 200);
+		for (int page = 0; page < 20 && cursor.hasNext(); page++) {
+			blackhole.consume(cursor.next());
+		}
+	}
+
+	@Benchmark
+	public void timeRangeLastMonth(Blackhole blackhole) throws SQLException {
+		search(MessageSearchCriteria.builder()
+			.timeRange(dataTo.minusMonths(1), dataTo)
+			.limit(100)
+			.build(), blackhole);
+	}
+
+	@Benchmark
+	public void chatTimeRangeAllHistory(Blackhole blackhole) throws SQLException {
+		search(MessageSearchCriteria.builder()
+			.chatId(busiestChatId)
+			.timeRange(DATA_FROM.atStartOfDay(), dataTo)
+			.limit(500)
+			.build(), blackhole);
+	}
+
+	private void search(MessageSearchCriteria criteria, Blackhole blackhole) throws SQLException {
+		try (Stream<ChatMessage> results = searchService.search(criteria)) {
+			results.forEach(blackhole::consume);
+		}
+	}
+
+	// The chat with the most messages, so every history read has pages to scroll through
+	private static long busiestChat(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT chat_id FROM messages GROUP BY chat_id ORDER BY COUNT(*) DESC LIMIT 1")) {
+			if (!rs.next()) {
+				throw new SQLException("No messages were generated.");
+			}
+			return rs.getLong(1);
+		}
+	}
+}
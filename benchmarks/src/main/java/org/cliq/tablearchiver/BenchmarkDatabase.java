@@ -0,0 +1,56 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * The MySQL instance the benchmarks run against, configured with bench.* system properties. Every trial rebuilds the
+ * bench.db.name database (default cliq_bench) from the schema script, so never point it at a real database.
+ */
+final class BenchmarkDatabase {
+
+	private BenchmarkDatabase() {
+	}
+
+	/**
+	 * Drops and recreates the benchmark database from the schema script.
+	 *
+	 * @return A data source for the fresh database, with local infile allowed for {@link SyntheticDataGenerator}.
+	 */
+	static DataSource recreate() {
+		Properties properties = new Properties();
+		properties.setProperty("db.server", System.getProperty("bench.db.server", "localhost"));
+		properties.setProperty("db.port", System.getProperty("bench.db.port", "3306"));
+		properties.setProperty("db.name", System.getProperty("bench.db.name", "cliq_bench"));
+		properties.setProperty("db.user", System.getProperty("bench.db.user", "root"));
+		properties.setProperty("db.password", System.getProperty("bench.db.password", ""));
+		properties.setProperty("db.bootstrap", "recreate");
+		properties.setProperty("db.allowLocalInfile", "true");
+		properties.setProperty("db.migrations.dir", System.getProperty("bench.migrations.dir", "../src/main/resources/db/migration"));
+		return DataSourceConfig.createMySQLDataSource(properties,
+			System.getProperty("bench.schemaScript", "../src/main/resources/schema_and_dummy_data_script.sql"));
+	}
+
+	/**
+	 * @return The archiver configuration used by Main, against the benchmark database.
+	 */
+	static ArchiverConfig config() {
+		return ArchiverConfig.builder()
+			.messagesTable("messages")
+			.archivedMetadataTable("archived_message_partitions")
+			.archiveTableNameFunction(partitionName -> "messages_archive_" + partitionName.substring(1).toUpperCase())
+			.build();
+	}
+
+	static void execute(Connection conn, String... statements) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			for (String sql : statements) {
+				stmt.execute(sql);
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.cliq.tablearchiver;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the benchmarks and writes the results as JSON to bench.resultDir (default target/jmh-results), one file per run
+ * named after its start time, so runs before and after a change can be compared. Accepts the usual JMH command line
+ * options, e.g. a benchmark name pattern or {@code -p archiveTables=4}.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		File resultDir = new File(System.getProperty("bench.resultDir", "target/jmh-results"));
+		if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+			throw new IllegalStateException("Unable to create " + resultDir);
+		}
+		File result = new File(resultDir, LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty()) {
+			builder.include(ArchivalStepBenchmark.class.getSimpleName()).include(ArchiveReadBenchmark.class.getSimpleName());
+		}
+		Options options = builder
+			.resultFormat(ResultFormatType.JSON)
+			.result(result.getPath())
+			.build();
+		new Runner(options).run();
+		System.out.println("Results written to " + result);
+	}
+}
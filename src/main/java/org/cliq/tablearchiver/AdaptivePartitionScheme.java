@@ -0,0 +1,196 @@
+package org.cliq.tablearchiver;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sizes new partitions so they hold about a target number of rows or bytes.
+ * <p>
+ * The daily volume is measured from the most recent partitions that have begun: their TABLE_ROWS and DATA_LENGTH
+ * from INFORMATION_SCHEMA.PARTITIONS, divided by the days they have covered so far (the partition covering today
+ * counts up to today). Each new partition spans as many whole days as that volume needs to reach the target, within
+ * the configured minimum and maximum span; with no measurement yet, partitions span the maximum. Partitions are
+ * planned until the configured number of them lie past today. A quiet month thus becomes one partition and a busy one
+ * several, so every exchange, drop and archive table has a similar size. Partitions are named pYYYYMMDD after their
+ * first day, and a restored archive gets a partition covering exactly the days it spans.
+ */
+public class AdaptivePartitionScheme implements PartitionScheme {
+
+	private final long targetRows;
+	private final long targetBytes;
+	private final int minDays;
+	private final int maxDays;
+	private final int sampledPartitions;
+
+	// Private constructor to enforce usage of the Builder
+	private AdaptivePartitionScheme(Builder builder) {
+		this.targetRows = builder.targetRows;
+		this.targetBytes = builder.targetBytes;
+		this.minDays = builder.minDays;
+		this.maxDays = builder.maxDays;
+		this.sampledPartitions = builder.sampledPartitions;
+	}
+
+	@Override
+	public List<LocalDate> plan(List<DataSourceConfig.PartitionDetails> partitions, LocalDate lastBound, LocalDate today, int futurePartitions) {
+		int span = spanDays(partitions, today);
+		List<LocalDate> bounds = new ArrayList<>();
+		LocalDate upper = lastBound;
+		// Enough partitions for the one covering today and futurePartitions after it
+		LocalDate horizon = today.plusDays((long) span * (futurePartitions + 1));
+		while (upper.isBefore(horizon)) {
+			upper = upper.plusDays(span);
+			bounds.add(upper);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Measures the daily volume of the latest partitions and converts the target size into a span.
+	 *
+	 * @param partitions The current partitions, in partition order.
+	 * @param today The current date.
+	 * @return The number of days a new partition should span.
+	 */
+	int spanDays(List<DataSourceConfig.PartitionDetails> partitions, LocalDate today) {
+		long rows = 0;
+		long bytes = 0;
+		long days = 0;
+		int sampled = 0;
+		LocalDate lower = null;
+		List<long[]> measured = new ArrayList<>();
+		for (DataSourceConfig.PartitionDetails partition : partitions) {
+			LocalDate upper = PartitionManager.upperBound(partition);
+			if (lower != null && lower.isBefore(today)) {
+				LocalDate end = upper == null || upper.isAfter(today) ? today : upper;
+				measured.add(new long[]{partition.getRows(), partition.getDataLength(), ChronoUnit.DAYS.between(lower, end)});
+			}
+			lower = upper;
+			if (upper == null) {
+				break;
+			}
+		}
+		for (int i = measured.size() - 1; i >= 0 && sampled < sampledPartitions; i--, sampled++) {
+			rows += measured.get(i)[0];
+			bytes += measured.get(i)[1];
+			days += measured.get(i)[2];
+		}
+		if (days == 0 || (rows == 0 && bytes == 0)) {
+			return maxDays;
+		}
+		double span = maxDays;
+		if (targetRows > 0 && rows > 0) {
+			span = Math.min(span, targetRows / ((double) rows / days));
+		}
+		if (targetBytes > 0 && bytes > 0) {
+			span = Math.min(span, targetBytes / ((double) bytes / days));
+		}
+		return (int) Math.max(minDays, Math.min(maxDays, Math.round(span)));
+	}
+
+	/**
+	 * Day granularity: a restored archive gets a partition from its first to its last day.
+	 */
+	@Override
+	public LocalDate floor(LocalDate date) {
+		return date;
+	}
+
+	@Override
+	public LocalDate next(LocalDate boundary) {
+		return boundary.plusDays(1);
+	}
+
+	@Override
+	public String partitionName(LocalDate lowerBound) {
+		return PartitionGranularity.DAY.partitionName(lowerBound);
+	}
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptivePartitionScheme{" +
+			"targetRows=" + targetRows +
+			", targetBytes=" + targetBytes +
+			", minDays=" + minDays +
+			", maxDays=" + maxDays +
+			", sampledPartitions=" + sampledPartitions +
+			'}';
+	}
+
+	/**
+	 * Builder class for AdaptivePartitionScheme.
+	 */
+	public static class Builder {
+		private long targetRows;
+		private long targetBytes = 8L * 1024 * 1024 * 1024;
+		private int minDays = 1;
+		private int maxDays = 31;
+		private int sampledPartitions = 3;
+
+		private Builder() {
+		}
+
+		/**
+		 * Set the size a partition should reach. A partition ends as soon as either target would be reached; 0 leaves
+		 * a target out. Defaults are no row target and 8 GiB of data.
+		 * @param targetRows The rows per partition, or 0.
+		 * @param targetBytes The DATA_LENGTH per partition in bytes, or 0.
+		 * @return The Builder instance.
+		 */
+		public Builder target(long targetRows, long targetBytes) {
+			this.targetRows = targetRows;
+			this.targetBytes = targetBytes;
+			return this;
+		}
+
+		/**
+		 * Set the shortest and longest span of a partition. Defaults are 1 and 31 days.
+		 * @param minDays The minimum number of days per partition.
+		 * @param maxDays The maximum number of days per partition, also used while nothing has been measured.
+		 * @return The Builder instance.
+		 */
+		public Builder spanDays(int minDays, int maxDays) {
+			this.minDays = minDays;
+			this.maxDays = maxDays;
+			return this;
+		}
+
+		/**
+		 * Set how many of the latest partitions the daily volume is measured over. Default is 3.
+		 * @param sampledPartitions The number of partitions.
+		 * @return The Builder instance.
+		 */
+		public Builder sampledPartitions(int sampledPartitions) {
+			this.sampledPartitions = sampledPartitions;
+			return this;
+		}
+
+		/**
+		 * Build the AdaptivePartitionScheme instance.
+		 * @return The built AdaptivePartitionScheme.
+		 * @throws IllegalArgumentException if no target is set or the spans are out of order.
+		 */
+		public AdaptivePartitionScheme build() {
+			if (targetRows <= 0 && targetBytes <= 0) {
+				throw new IllegalArgumentException("At least one of targetRows and targetBytes must be positive.");
+			}
+			if (minDays < 1 || maxDays < minDays) {
+				throw new IllegalArgumentException("Invalid partition span: " + minDays + " to " + maxDays + " days.");
+			}
+			if (sampledPartitions < 1) {
+				throw new IllegalArgumentException("sampledPartitions must be positive: " + sampledPartitions);
+			}
+			return new AdaptivePartitionScheme(this);
+		}
+	}
+}
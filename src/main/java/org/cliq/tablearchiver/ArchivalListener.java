@@ -0,0 +1,29 @@
+package org.cliq.tablearchiver;
+
+/**
+ * Callback run by {@link PartitionArchiver} after an archival has committed, and by {@link ArchiveCompactor} after a
+ * merged archive replaced its sources, e.g. to build derived structures such as the {@link ArchiveTextIndexer} index. Register it with {@link ArchiverConfig.Builder#archivalListener(ArchivalListener)}.
+ * Archives that go away again, restored by {@link PartitionArchiver#restorePartition(String)} or merged by the
+ * compactor, are reported to {@link #removed(ArchivedPartitionMetadata)} so such structures can be dropped.
+ */
+@FunctionalInterface
+public interface ArchivalListener {
+
+	/**
+	 * Called on the archiving thread once a new archive table and its registry row are committed. Exceptions are
+	 * logged and do not fail the archival; long work should be handed to another thread.
+	 *
+	 * @param metadata The registry row of the new archive.
+	 */
+	void archived(ArchivedPartitionMetadata metadata);
+
+	/**
+	 * Called once an archive's registry row is deleted, because its rows went back into the messages table or into a
+	 * merged archive. A later archive may reuse the table name; it has a different archived_at. Exceptions are logged
+	 * and do not fail the restore or compaction.
+	 *
+	 * @param metadata The registry row of the archive as it was before the removal.
+	 */
+	default void removed(ArchivedPartitionMetadata metadata) {
+	}
+}
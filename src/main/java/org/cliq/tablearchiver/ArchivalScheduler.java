@@ -0,0 +1,233 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unattended archival: applies the retention policy of {@link ArchiverConfig} on a schedule.
+ * <p>
+ * Each run lists the partitions whose range ended before the retention cut-off, oldest first, and archives them one
+ * after another while the server stays quiet. Before every {@link PartitionArchiver#archivePartition(String)} call it
+ * samples Threads_running, the InnoDB history list length and the lag of the given replicas; as soon as one of them is
+ * above its threshold the rest of the work is deferred to a later run.
+ */
+public class ArchivalScheduler implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchivalScheduler.class);
+
+	// ER_PARSE_ERROR, returned by servers older than 8.0.22 for SHOW REPLICA STATUS
+	private static final int ER_PARSE_ERROR = 1064;
+
+	private final DataSource dataSource;
+	private final List<DataSource> replicas;
+	private final ArchiverConfig config;
+	private final PartitionArchiver archiver;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param dataSource The primary holding the messages table.
+	 * @param replicas The replicas whose lag is checked before archiving; may be empty.
+	 * @param config The archiver configuration with the retention policy and load thresholds.
+	 * @param archiver The archiver to run.
+	 */
+	public ArchivalScheduler(DataSource dataSource, List<DataSource> replicas, ArchiverConfig config, PartitionArchiver archiver) {
+		this.dataSource = dataSource;
+		this.replicas = List.copyOf(replicas);
+		this.config = config;
+		this.archiver = archiver;
+	}
+
+	/**
+	 * Starts running {@link #runOnce()} every {@link ArchiverConfig#getArchivalCheckInterval()}.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "archival-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = config.getArchivalCheckInterval().toMillis();
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				runOnce();
+			} catch (SQLException e) {
+				log.error("archival.scheduledRunFailed", e);
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Archives eligible partitions, oldest first, until the run limit is reached, nothing is left, or the server
+	 * becomes busy.
+	 *
+	 * @return The partitions archived by this run.
+	 * @throws SQLException If listing partitions, sampling load or archiving fails.
+	 */
+	public List<String> runOnce() throws SQLException {
+		List<String> eligible = eligiblePartitions();
+		List<String> archived = new ArrayList<>();
+		if (eligible.isEmpty()) {
+			return archived;
+		}
+		log.info("archival.eligiblePartitions", "partitions", eligible);
+		for (String partitionName : eligible) {
+			if (archived.size() >= config.getMaxPartitionsPerRun()) {
+				break;
+			}
+			LoadSample load = sampleLoad();
+			if (load.isBusy(config)) {
+				log.info("archival.deferred", "partition", partitionName, "threadsRunning", load.getThreadsRunning(),
+					"historyListLength", load.getHistoryListLength(), "replicaLagSeconds", load.getReplicaLagSeconds());
+				break;
+			}
+			archiver.archivePartition(partitionName);
+			archived.add(partitionName);
+		}
+		return archived;
+	}
+
+	/**
+	 * Lists the partitions whose whole range is older than the retention period, oldest first. Empty partitions are
+	 * left out: there is nothing to archive in them, and {@link PartitionArchiver#archivePartition(String)} rejects
+	 * them, which would otherwise hold up every newer partition.
+	 *
+	 * @return The eligible partition names.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<String> eligiblePartitions() throws SQLException {
+		LocalDate cutoff = LocalDate.now().minus(config.getRetentionPeriod());
+		List<String> eligible = new ArrayList<>();
+		try (Connection conn = dataSource.getConnection()) {
+			for (DataSourceConfig.PartitionDetails partition : PartitionManager.readPartitions(conn, config.getMessagesTable())) {
+				LocalDate upperBound = PartitionManager.upperBound(partition);
+				if (upperBound == null || upperBound.isAfter(cutoff)) {
+					continue;
+				}
+				if (isEmpty(conn, partition.getPartitionName())) {
+					log.debug("archival.emptyPartitionSkipped", "partition", partition.getPartitionName());
+					continue;
+				}
+				eligible.add(partition.getPartitionName());
+			}
+		}
+		return eligible;
+	}
+
+	// TABLE_ROWS is only an estimate, so ask the partition itself
+	private boolean isEmpty(Connection conn, String partitionName) throws SQLException {
+		String sql = "SELECT 1 FROM " + config.getMessagesTable() + " PARTITION (" + partitionName + ") LIMIT 1";
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			return !rs.next();
+		}
+	}
+
+	/**
+	 * Samples the current server load.
+	 *
+	 * @return The load sample.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public LoadSample sampleLoad() throws SQLException {
+		long threadsRunning;
+		long historyListLength;
+		try (Connection conn = dataSource.getConnection();
+			 Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery("SHOW GLOBAL STATUS LIKE 'Threads_running'")) {
+				threadsRunning = rs.next() ? rs.getLong(2) : 0;
+			}
+			try (ResultSet rs = stmt.executeQuery("SELECT `COUNT` FROM information_schema.INNODB_METRICS WHERE NAME = 'trx_rseg_history_len'")) {
+				historyListLength = rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+		long replicaLag = 0;
+		for (DataSource replica : replicas) {
+			replicaLag = Math.max(replicaLag, replicaLagSeconds(replica));
+		}
+		return new LoadSample(threadsRunning, historyListLength, replicaLag);
+	}
+
+	// Seconds_Behind_Source of a replica; a stopped replication thread (NULL) counts as infinitely behind.
+	static long replicaLagSeconds(DataSource replica) throws SQLException {
+		try (Connection conn = replica.getConnection();
+			 Statement stmt = conn.createStatement()) {
+			try {
+				return readLag(stmt, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+			} catch (SQLException e) {
+				if (e.getErrorCode() != ER_PARSE_ERROR) {
+					throw e;
+				}
+				return readLag(stmt, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+			}
+		}
+	}
+
+	private static long readLag(Statement stmt, String sql, String lagColumn) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery(sql)) {
+			if (!rs.next()) {
+				return Long.MAX_VALUE; // not configured as a replica
+			}
+			long lag = rs.getLong(lagColumn);
+			return rs.wasNull() ? Long.MAX_VALUE : lag;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Server load indicators sampled before each archival.
+	 */
+	public static class LoadSample {
+		private final long threadsRunning;
+		private final long historyListLength;
+		private final long replicaLagSeconds;
+
+		public LoadSample(long threadsRunning, long historyListLength, long replicaLagSeconds) {
+			this.threadsRunning = threadsRunning;
+			this.historyListLength = historyListLength;
+			this.replicaLagSeconds = replicaLagSeconds;
+		}
+
+		public long getThreadsRunning() { return threadsRunning; }
+		public long getHistoryListLength() { return historyListLength; }
+		public long getReplicaLagSeconds() { return replicaLagSeconds; }
+
+		/**
+		 * @param config The configuration holding the load thresholds.
+		 * @return True if any indicator is above its threshold.
+		 */
+		public boolean isBusy(ArchiverConfig config) {
+			return threadsRunning > config.getMaxThreadsRunning()
+				|| historyListLength > config.getMaxHistoryListLength()
+				|| replicaLagSeconds > config.getMaxReplicaLagSeconds();
+		}
+
+		@Override
+		public String toString() {
+			return "LoadSample{" +
+				"threadsRunning=" + threadsRunning +
+				", historyListLength=" + historyListLength +
+				", replicaLagSeconds=" + (replicaLagSeconds == Long.MAX_VALUE ? "unknown" : replicaLagSeconds) +
+				'}';
+		}
+	}
+}
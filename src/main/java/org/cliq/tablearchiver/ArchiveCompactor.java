@@ -0,0 +1,364 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges adjacent archive tables into one larger, compressed archive table.
+ * <p>
+ * Every archival adds a table, so the registry, the table cache and the fan-out of every archive search grow by one
+ * each month, and each small table wastes a partly filled extent. The compactor creates the merged table with
+ * {@link ArchiverConfig#getCompactionTableOptions()} (ROW_FORMAT=COMPRESSED by default) and copies the sources into
+ * it in message_id order, {@link ArchiverConfig#getCompactionChunkRows()} rows per statement with a pause after each
+ * chunk, and waits while the server is busy. A copy that was interrupted resumes after the highest message_id already
+ * in the merged table. The merged table's row count and message_id range are then checked against every source, the
+ * registry rows of the sources are replaced by the merged one in one transaction, and only then are the sources
+ * dropped.
+ */
+public class ArchiveCompactor {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiveCompactor.class);
+
+	private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+	private static final Duration BUSY_BACKOFF = Duration.ofSeconds(1);
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final ArchivalScheduler loadMonitor;
+
+	/**
+	 * @param dataSource The data source holding the archive and registry tables.
+	 * @param config The archiver configuration naming those tables and setting the compaction options.
+	 * @param registryCache A registry cache to publish each compaction to, or null.
+	 * @param loadMonitor The scheduler whose load sample and thresholds pause the copy while the server is busy, or
+	 *                    null to copy at the configured pace regardless of load.
+	 */
+	public ArchiveCompactor(DataSource dataSource, ArchiverConfig config, ArchiveRegistryCache registryCache, ArchivalScheduler loadMonitor) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.loadMonitor = loadMonitor;
+	}
+
+	/**
+	 * Groups the archives still in MySQL into runs of adjacent archives that fall into the same calendar period of
+	 * {@code monthsPerTable} months, e.g. 3 for quarterly or 12 for yearly tables. An archive offloaded to the cold
+	 * tier, moved to an archive server or spanning two periods breaks a run. Earlier merged tables take part like any other archive, so a quarter
+	 * compacted before its last month was archived is merged again once it is.
+	 *
+	 * @param monthsPerTable The number of months one merged table covers; must divide 12.
+	 * @return The groups of at least two archive tables, oldest first, each a valid argument to {@link #compact(List)}.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<List<String>> plan(int monthsPerTable) throws SQLException {
+		if (monthsPerTable <= 0 || 12 % monthsPerTable != 0) {
+			throw new IllegalArgumentException("monthsPerTable must divide 12: " + monthsPerTable);
+		}
+		List<ArchivedPartitionMetadata> archives;
+		try (Connection conn = dataSource.getConnection()) {
+			archives = registry.findAll(conn);
+		}
+		archives.sort(Comparator.comparingLong(ArchivedPartitionMetadata::getMinMessageId));
+
+		List<List<String>> groups = new ArrayList<>();
+		List<String> run = new ArrayList<>();
+		long runPeriod = Long.MIN_VALUE;
+		for (ArchivedPartitionMetadata archive : archives) {
+			long period = period(archive.getStartTimestamp(), monthsPerTable);
+			boolean eligible = !archive.isOffloaded() && !archive.isRemote() && period(archive.getEndTimestamp(), monthsPerTable) == period;
+			if (!eligible || period != runPeriod) {
+				if (run.size() > 1) {
+					groups.add(run);
+				}
+				run = new ArrayList<>();
+				runPeriod = eligible ? period : Long.MIN_VALUE;
+			}
+			if (eligible) {
+				run.add(archive.getArchiveTableName());
+			}
+		}
+		if (run.size() > 1) {
+			groups.add(run);
+		}
+		return groups;
+	}
+
+	private static long period(LocalDateTime time, int monthsPerTable) {
+		return (time.getYear() * 12L + time.getMonthValue() - 1) / monthsPerTable;
+	}
+
+	/**
+	 * Merges archive tables with adjacent message_id ranges into one new archive table, named after the first and
+	 * last month it covers, e.g. messages_archive_202501_202503.
+	 *
+	 * @param archiveTableNames The archive tables to merge; at least two, none offloaded, and no other archive may
+	 *                          lie between them.
+	 * @return The registry row of the merged table.
+	 * @throws SQLException If the sources are not mergeable, the merged table does not match them, or a database
+	 *                      error occurs. The sources are only dropped after the registry points at the merged table.
+	 */
+	public ArchivedPartitionMetadata compact(List<String> archiveTableNames) throws SQLException {
+		if (archiveTableNames.size() < 2) {
+			throw new IllegalArgumentException("Compaction needs at least two archive tables: " + archiveTableNames);
+		}
+		long started = System.nanoTime();
+		try (Connection conn = dataSource.getConnection()) {
+			List<ArchivedPartitionMetadata> sources = loadSources(conn, archiveTableNames);
+			ArchivedPartitionMetadata first = sources.get(0);
+			ArchivedPartitionMetadata last = sources.get(sources.size() - 1);
+			String target = config.getMessagesTable() + "_archive_" + MONTH.format(first.getStartTimestamp()) + "_" + MONTH.format(last.getEndTimestamp());
+			if (registry.find(conn, target) != null) {
+				throw new SQLException("Archive table '" + target + "' is already registered");
+			}
+			log.info("compaction.started", "target", target, "sources", archiveTableNames);
+
+			long resumeAfter = createTarget(conn, target, first.getArchiveTableName());
+			long copied = 0;
+			for (ArchivedPartitionMetadata source : sources) {
+				if (source.getMaxMessageId() > resumeAfter) {
+					copied += copy(conn, source.getArchiveTableName(), target, Math.max(resumeAfter, source.getMinMessageId() - 1));
+				}
+			}
+
+			long rowCount = verify(conn, target, sources);
+			LocalDateTime start = first.getStartTimestamp();
+			LocalDateTime end = first.getEndTimestamp();
+			for (ArchivedPartitionMetadata source : sources) {
+				start = source.getStartTimestamp().isBefore(start) ? source.getStartTimestamp() : start;
+				end = source.getEndTimestamp().isAfter(end) ? source.getEndTimestamp() : end;
+			}
+			long[] sizes = tableSizes(conn, target);
+			// The merged table was created LIKE the first source, so it has that source's indexes
+			ArchivedPartitionMetadata merged = new ArchivedPartitionMetadata(target, start, end, first.getMinMessageId(),
+				last.getMaxMessageId(), LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS), rowCount, sizes[0], sizes[1], null, first.getIndexProfile());
+			ArchiveRegistry.PresenceFilters filters = config.getPresenceFilterTable() == null
+				? null
+				: registry.buildPresenceFilters(conn, target);
+
+			registry.replaceArchives(conn, archiveTableNames, merged, filters);
+			if (registryCache != null) {
+				registryCache.replace(archiveTableNames, merged, filters);
+			}
+			if (config.getChatsTable() != null) {
+				new ChatSummaryRepair(config).repoint(conn, archiveTableNames, target);
+			}
+			try (Statement stmt = conn.createStatement()) {
+				for (String source : archiveTableNames) {
+					stmt.execute("DROP TABLE IF EXISTS " + source);
+				}
+			}
+			long sourceBytes = 0;
+			for (ArchivedPartitionMetadata source : sources) {
+				sourceBytes += source.getDataLength() + source.getIndexLength();
+			}
+			log.info("compaction.completed", "target", target, "rows", rowCount, "copiedRows", copied,
+				"sourceBytes", sourceBytes, "targetBytes", sizes[0] + sizes[1], "durationMs", (System.nanoTime() - started) / 1_000_000);
+
+			for (ArchivalListener listener : config.getArchivalListeners()) {
+				try {
+					for (ArchivedPartitionMetadata source : sources) {
+						listener.removed(source);
+					}
+					listener.archived(merged);
+				} catch (RuntimeException listenerErr) {
+					log.error("compaction.listenerFailed", listenerErr, "target", target, "listener", listener.getClass().getName());
+				}
+			}
+			return merged;
+		} catch (SQLException e) {
+			log.error("compaction.failed", e, "sources", archiveTableNames);
+			throw e;
+		}
+	}
+
+	// The registry rows of the sources in message_id order, after checking that they can be merged
+	private List<ArchivedPartitionMetadata> loadSources(Connection conn, List<String> archiveTableNames) throws SQLException {
+		Set<String> names = new HashSet<>(archiveTableNames);
+		if (names.size() != archiveTableNames.size()) {
+			throw new IllegalArgumentException("Duplicate archive tables: " + archiveTableNames);
+		}
+		List<ArchivedPartitionMetadata> sources = new ArrayList<>();
+		List<ArchivedPartitionMetadata> others = new ArrayList<>();
+		for (ArchivedPartitionMetadata archive : registry.findAll(conn)) {
+			(names.contains(archive.getArchiveTableName()) ? sources : others).add(archive);
+		}
+		if (sources.size() != names.size()) {
+			throw new SQLException("Not every archive table of " + archiveTableNames + " is registered in " + config.getArchivedMetadataTable());
+		}
+		sources.sort(Comparator.comparingLong(ArchivedPartitionMetadata::getMinMessageId));
+		for (ArchivedPartitionMetadata source : sources) {
+			if (source.isOffloaded()) {
+				throw new SQLException("Archive table '" + source.getArchiveTableName() + "' is offloaded to " + source.getOffloadLocation());
+			}
+			if (source.isRemote()) {
+				throw new SQLException("Archive table '" + source.getArchiveTableName() + "' was moved to archive server " + source.getArchiveServer());
+			}
+		}
+		long minId = sources.get(0).getMinMessageId();
+		long maxId = sources.get(sources.size() - 1).getMaxMessageId();
+		for (ArchivedPartitionMetadata other : others) {
+			if (other.getMinMessageId() <= maxId && other.getMaxMessageId() >= minId) {
+				throw new SQLException("Archive tables " + archiveTableNames + " are not adjacent: '" + other.getArchiveTableName() + "' lies between them");
+			}
+		}
+		return sources;
+	}
+
+	// Creates the merged table, or finds the one an interrupted run left behind. Returns the id to resume after.
+	private long createTarget(Connection conn, String target, String likeTable) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery("SHOW TABLES LIKE '" + target + "'")) {
+				if (rs.next()) {
+					try (ResultSet max = stmt.executeQuery("SELECT MAX(message_id) FROM " + target)) {
+						max.next();
+						long resumeAfter = max.getLong(1);
+						resumeAfter = max.wasNull() ? Long.MIN_VALUE : resumeAfter;
+						log.info("compaction.resumed", "target", target, "resumeAfter", resumeAfter);
+						return resumeAfter;
+					}
+				}
+			}
+			stmt.execute("CREATE TABLE " + target + " LIKE " + likeTable);
+			// Rebuilding the empty table is instant, and every row is then written compressed once
+			stmt.execute("ALTER TABLE " + target + " " + config.getCompactionTableOptions());
+		}
+		return Long.MIN_VALUE;
+	}
+
+	// Copies the rows of one source with message_id > after, one keyset-bounded chunk per autocommitted statement
+	private long copy(Connection conn, String source, String target, long after) throws SQLException {
+		int chunkRows = config.getCompactionChunkRows();
+		String boundSql = "SELECT message_id FROM " + source + " WHERE message_id > ? ORDER BY message_id LIMIT 1 OFFSET ?";
+		String chunkSql = "INSERT INTO " + target + " SELECT * FROM " + source + " WHERE message_id > ? AND message_id <= ?";
+		String tailSql = "INSERT INTO " + target + " SELECT * FROM " + source + " WHERE message_id > ?";
+		long copied = 0;
+		try (PreparedStatement bound = conn.prepareStatement(boundSql);
+			 PreparedStatement chunk = conn.prepareStatement(chunkSql);
+			 PreparedStatement tail = conn.prepareStatement(tailSql)) {
+			while (true) {
+				throttle();
+				bound.setLong(1, after);
+				bound.setInt(2, chunkRows - 1);
+				Long upTo = null;
+				try (ResultSet rs = bound.executeQuery()) {
+					if (rs.next()) {
+						upTo = rs.getLong(1);
+					}
+				}
+				if (upTo == null) {
+					tail.setLong(1, after);
+					copied += tail.executeUpdate();
+					log.info("compaction.sourceCopied", "source", source, "target", target, "rows", copied);
+					return copied;
+				}
+				chunk.setLong(1, after);
+				chunk.setLong(2, upTo);
+				copied += chunk.executeUpdate();
+				after = upTo;
+			}
+		}
+	}
+
+	private void throttle() throws SQLException {
+		sleep(config.getCompactionChunkPause());
+		if (loadMonitor == null) {
+			return;
+		}
+		ArchivalScheduler.LoadSample load = loadMonitor.sampleLoad();
+		if (load.isBusy(config)) {
+			log.info("compaction.paused", "load", load);
+			while (load.isBusy(config)) {
+				sleep(BUSY_BACKOFF);
+				load = loadMonitor.sampleLoad();
+			}
+		}
+	}
+
+	private static void sleep(Duration delay) throws SQLException {
+		if (delay.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while throttling archive compaction", e);
+		}
+	}
+
+	// Checks every source's rows arrived in its message_id range; drops the merged table if not so a rerun starts over
+	private long verify(Connection conn, String target, List<ArchivedPartitionMetadata> sources) throws SQLException {
+		long expected = 0;
+		try (Statement stmt = conn.createStatement();
+			 PreparedStatement targetCount = conn.prepareStatement("SELECT COUNT(*) FROM " + target + " WHERE message_id BETWEEN ? AND ?")) {
+			for (ArchivedPartitionMetadata source : sources) {
+				long count;
+				long minId;
+				long maxId;
+				try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MIN(message_id), MAX(message_id) FROM " + source.getArchiveTableName())) {
+					rs.next();
+					count = rs.getLong(1);
+					minId = rs.getLong(2);
+					maxId = rs.getLong(3);
+				}
+				targetCount.setLong(1, minId);
+				targetCount.setLong(2, maxId);
+				long copied;
+				try (ResultSet rs = targetCount.executeQuery()) {
+					rs.next();
+					copied = rs.getLong(1);
+				}
+				if (copied != count) {
+					stmt.execute("DROP TABLE " + target);
+					throw new SQLException("Compacted table '" + target + "' holds " + copied + " rows of '" + source.getArchiveTableName() +
+						"' (message_id " + minId + ".." + maxId + "), expected " + count);
+				}
+				expected += count;
+			}
+			try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + target)) {
+				rs.next();
+				long total = rs.getLong(1);
+				if (total != expected) {
+					stmt.execute("DROP TABLE " + target);
+					throw new SQLException("Compacted table '" + target + "' holds " + total + " rows, expected " + expected);
+				}
+			}
+		}
+		return expected;
+	}
+
+	// Clustered and secondary index bytes of the merged table, with fresh statistics
+	private static long[] tableSizes(Connection conn, String table) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("ANALYZE TABLE " + table);
+		}
+		String sql = "SELECT /*+ SET_VAR(information_schema_stats_expiry = 0) */ DATA_LENGTH, INDEX_LENGTH " +
+			"FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("Could not read statistics of table '" + table + "'.");
+				}
+				return new long[] { rs.getLong(1), rs.getLong(2) };
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package org.cliq.tablearchiver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The secondary indexes an archive table should have.
+ * <p>
+ * EXCHANGE PARTITION needs the archive table to match the messages table exactly, so every archive starts out with
+ * the indexes of the live table, which serve writes and queries the archives never see. After the exchange
+ * {@link PartitionArchiver} rebuilds the archive's secondary indexes to match the configured profile: indexes the
+ * profile does not name are dropped, missing ones are added, and an index whose columns differ is recreated, all in
+ * one in-place ALTER TABLE. The primary key is never touched. The profile name is recorded in the registry, and
+ * {@link IndexProfileBackfill} applies a profile to the archives recorded with another one; give a profile a new name
+ * whenever its indexes change.
+ */
+public class ArchiveIndexProfile {
+
+	private final String name;
+	private final Map<String, String> indexes;
+
+	// Private constructor to enforce usage of the Builder
+	private ArchiveIndexProfile(Builder builder) {
+		this.name = builder.name;
+		this.indexes = Collections.unmodifiableMap(new LinkedHashMap<>(builder.indexes));
+	}
+
+	/**
+	 * The indexes the archive read paths use: chat history pages and chat-scoped searches walk idx_chat_created_at,
+	 * sender-scoped searches walk (sender_id, created_at), and the presence filters are built from the leading
+	 * columns of both. idx_created_at, idx_sender_id and idx_message_type are dropped; a search with neither a chat
+	 * nor a sender then scans each archive it visits, so keep idx_created_at in a custom profile if such searches
+	 * matter.
+	 *
+	 * @return The profile named "archive_reads_v1".
+	 */
+	public static ArchiveIndexProfile archiveReads() {
+		return builder("archive_reads_v1")
+			.index("idx_chat_created_at", "chat_id, created_at DESC")
+			.index("idx_sender_created_at", "sender_id, created_at")
+			.build();
+	}
+
+	/**
+	 * The secondary indexes a table has now, e.g. to rebuild an archive back to the indexes of the messages table.
+	 *
+	 * @param conn The database connection.
+	 * @param name The profile name.
+	 * @param table The table to read the indexes of.
+	 * @return A profile with the table's secondary indexes.
+	 * @throws SQLException If a database error occurs.
+	 */
+	static ArchiveIndexProfile ofTable(Connection conn, String name, String table) throws SQLException {
+		Builder builder = builder(name);
+		readIndexes(conn, table).forEach(builder::index);
+		return builder.build();
+	}
+
+	/**
+	 * @return The name recorded in the registry for the archives the profile was applied to.
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * @return The secondary indexes of the profile: index name to column list.
+	 */
+	public Map<String, String> getIndexes() { return indexes; }
+
+	/**
+	 * Rebuilds the secondary indexes of a table to match the profile. An ALTER TABLE is an implicit commit.
+	 *
+	 * @param conn The database connection.
+	 * @param table The archive table.
+	 * @return The ALTER TABLE statement that was run, or null if the table already matched.
+	 * @throws SQLException If a database error occurs.
+	 */
+	String apply(Connection conn, String table) throws SQLException {
+		Map<String, String> existing = readIndexes(conn, table);
+		List<String> changes = new ArrayList<>();
+		for (Map.Entry<String, String> index : existing.entrySet()) {
+			String wanted = indexes.get(index.getKey());
+			if (wanted == null || !normalize(wanted).equals(index.getValue())) {
+				changes.add("DROP INDEX " + index.getKey());
+			}
+		}
+		for (Map.Entry<String, String> index : indexes.entrySet()) {
+			String current = existing.get(index.getKey());
+			if (current == null || !current.equals(normalize(index.getValue()))) {
+				changes.add("ADD INDEX " + index.getKey() + " (" + index.getValue() + ")");
+			}
+		}
+		if (changes.isEmpty()) {
+			return null;
+		}
+		String sql = "ALTER TABLE " + table + " " + String.join(", ", changes) + ", ALGORITHM=INPLACE, LOCK=NONE";
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute(sql);
+		}
+		return sql;
+	}
+
+	/**
+	 * Reads the current secondary index size of a table, bypassing the cached INFORMATION_SCHEMA statistics.
+	 *
+	 * @param conn The database connection.
+	 * @param table The table.
+	 * @return The INDEX_LENGTH of the table, in bytes.
+	 * @throws SQLException If the table does not exist or a database error occurs.
+	 */
+	static long indexLength(Connection conn, String table) throws SQLException {
+		String sql = "SELECT /*+ SET_VAR(information_schema_stats_expiry = 0) */ INDEX_LENGTH " +
+			"FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("Could not read statistics of table '" + table + "'.");
+				}
+				return rs.getLong(1);
+			}
+		}
+	}
+
+	// Secondary index name to normalized column list, read from INFORMATION_SCHEMA.STATISTICS
+	private static Map<String, String> readIndexes(Connection conn, String table) throws SQLException {
+		String sql = "SELECT INDEX_NAME, COLUMN_NAME, COLLATION FROM INFORMATION_SCHEMA.STATISTICS " +
+			"WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME <> 'PRIMARY' ORDER BY INDEX_NAME, SEQ_IN_INDEX";
+		Map<String, List<String>> columns = new LinkedHashMap<>();
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					String column = rs.getString(2).toLowerCase(Locale.ROOT);
+					columns.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add("D".equals(rs.getString(3)) ? column + " desc" : column);
+				}
+			}
+		}
+		Map<String, String> indexes = new LinkedHashMap<>();
+		columns.forEach((index, list) -> indexes.put(index, String.join(",", list)));
+		return indexes;
+	}
+
+	// "chat_id, created_at ASC" -> "chat_id,created_at", the form readIndexes produces
+	private static String normalize(String columnList) {
+		List<String> columns = new ArrayList<>();
+		for (String column : columnList.split(",")) {
+			String normalized = column.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+			columns.add(normalized.endsWith(" asc") ? normalized.substring(0, normalized.length() - 4) : normalized);
+		}
+		return String.join(",", columns);
+	}
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @param name The profile name recorded in the registry.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder(String name) {
+		return new Builder(name);
+	}
+
+	@Override
+	public String toString() {
+		return "ArchiveIndexProfile{" +
+			"name='" + name + '\'' +
+			", indexes=" + indexes +
+			'}';
+	}
+
+	/**
+	 * Builder class for ArchiveIndexProfile.
+	 */
+	public static class Builder {
+		private final String name;
+		private final Map<String, String> indexes = new LinkedHashMap<>();
+
+		private Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Add a secondary index.
+		 * @param indexName The index name.
+		 * @param columns The column list, e.g. "sender_id, created_at".
+		 * @return The Builder instance.
+		 */
+		public Builder index(String indexName, String columns) {
+			indexes.put(Objects.requireNonNull(indexName, "indexName cannot be null"), Objects.requireNonNull(columns, "columns cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Build the ArchiveIndexProfile instance.
+		 * @return The built ArchiveIndexProfile.
+		 * @throws IllegalArgumentException if the name is empty or longer than the registry column.
+		 */
+		public ArchiveIndexProfile build() {
+			if (name == null || name.isEmpty() || name.length() > 64) {
+				throw new IllegalArgumentException("Index profile name must have 1 to 64 characters: " + name);
+			}
+			return new ArchiveIndexProfile(this);
+		}
+	}
+}
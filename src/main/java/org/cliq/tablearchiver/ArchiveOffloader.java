@@ -0,0 +1,160 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves archive tables out of MySQL into compressed columnar cold tier files on local disk.
+ * <p>
+ * The archive table is streamed in message_id order into a file of {@link ColdTierFormat#DEFAULT_BLOCK_ROWS}-row
+ * blocks: message_type is dictionary encoded, ids and timestamps are delta encoded varints, and the text columns are
+ * deflated. Each block records min/max zone maps of message_id, chat_id, sender_id and created_at, which is what lets
+ * {@link ColdTierReader} skip blocks. The file is written under a temporary name, forced to disk, moved into place and
+ * read back before the registry row is pointed at it; only then is the archive table dropped. The read services
+ * route queries for offloaded archives to the file.
+ */
+public class ArchiveOffloader {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiveOffloader.class);
+
+	/**
+	 * Extension of the cold tier files.
+	 */
+	public static final String FILE_EXTENSION = ".clq";
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final Path directory;
+
+	/**
+	 * @param dataSource The data source holding the archive and registry tables.
+	 * @param config The archiver configuration naming those tables.
+	 * @param directory The directory the cold tier files are written to.
+	 * @param registryCache A registry cache to publish each offload to, or null.
+	 */
+	public ArchiveOffloader(DataSource dataSource, ArchiverConfig config, Path directory, ArchiveRegistryCache registryCache) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.directory = directory;
+	}
+
+	/**
+	 * Lists the archives still on the primary whose newest message is older than the given age, oldest first.
+	 *
+	 * @param age How old an archive's newest message must be.
+	 * @return The archive table names.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<String> eligibleArchives(Period age) throws SQLException {
+		LocalDateTime cutoff = LocalDateTime.now().minus(age);
+		List<String> eligible = new ArrayList<>();
+		try (Connection conn = dataSource.getConnection()) {
+			for (ArchivedPartitionMetadata archive : registry.findAll(conn)) {
+				if (!archive.isOffloaded() && !archive.isRemote() && archive.getEndTimestamp().isBefore(cutoff)) {
+					eligible.add(0, archive.getArchiveTableName()); // findAll is newest first
+				}
+			}
+		}
+		return eligible;
+	}
+
+	/**
+	 * Offloads one archive table to a cold tier file and drops it from MySQL.
+	 *
+	 * @param archiveTableName The archive table.
+	 * @return The registry row, pointing at the file.
+	 * @throws SQLException If the archive is not registered, is already offloaded or on an archive server, or a database error occurs.
+	 * @throws IOException If the file cannot be written or does not read back the same number of rows.
+	 */
+	public ArchivedPartitionMetadata offload(String archiveTableName) throws SQLException, IOException {
+		long started = System.nanoTime();
+		try (Connection conn = dataSource.getConnection()) {
+			ArchivedPartitionMetadata metadata = registry.find(conn, archiveTableName);
+			if (metadata == null) {
+				throw new SQLException("Archive table '" + archiveTableName + "' is not registered in " + config.getArchivedMetadataTable());
+			}
+			if (metadata.isOffloaded()) {
+				throw new SQLException("Archive table '" + archiveTableName + "' is already offloaded to " + metadata.getOffloadLocation());
+			}
+			if (metadata.isRemote()) {
+				throw new SQLException("Archive table '" + archiveTableName + "' was moved to archive server " + metadata.getArchiveServer());
+			}
+			log.info("offload.started", "archiveTable", archiveTableName, "directory", directory);
+
+			Files.createDirectories(directory);
+			Path target = directory.resolve(archiveTableName + FILE_EXTENSION).toAbsolutePath();
+			Path temp = directory.resolve(archiveTableName + FILE_EXTENSION + ".tmp");
+			Files.deleteIfExists(temp);
+			long rows;
+			try {
+				rows = writeFile(conn, archiveTableName, temp);
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+
+			try (ColdTierReader reader = ColdTierReader.open(target)) {
+				if (reader.getRowCount() != rows) {
+					throw new IOException("Cold tier file " + target + " holds " + reader.getRowCount() + " rows, expected " + rows);
+				}
+			}
+
+			// Point the registry at the file before the table goes away, so readers never find neither
+			String location = target.toString();
+			String sql = "UPDATE " + config.getArchivedMetadataTable() +
+				" SET storage_tier = 'cold', offload_location = ? WHERE archive_table_name = ?";
+			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+				stmt.setString(1, location);
+				stmt.setString(2, archiveTableName);
+				stmt.executeUpdate();
+			}
+			ArchivedPartitionMetadata offloaded = metadata.withOffloadLocation(location);
+			if (registryCache != null) {
+				registryCache.publish(offloaded);
+			}
+
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("DROP TABLE " + archiveTableName);
+			}
+			log.info("offload.completed", "archiveTable", archiveTableName, "location", location, "rows", rows,
+				"bytes", Files.size(target), "durationMs", (System.nanoTime() - started) / 1_000_000);
+			return offloaded;
+		} catch (SQLException | IOException e) {
+			log.error("offload.failed", e, "archiveTable", archiveTableName);
+			throw e;
+		}
+	}
+
+	// Streams the table row by row (Connector/J streams only with a forward-only cursor and fetch size MIN_VALUE)
+	private static long writeFile(Connection conn, String archiveTableName, Path file) throws SQLException, IOException {
+		String sql = "SELECT " + ColdTierFormat.SELECT_COLUMNS + " FROM " + archiveTableName + " ORDER BY message_id";
+		try (ColdTierWriter writer = new ColdTierWriter(file, archiveTableName, ColdTierFormat.DEFAULT_BLOCK_ROWS);
+			 Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			stmt.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				while (rs.next()) {
+					writer.append(rs);
+				}
+			}
+			writer.finish();
+			return writer.getTotalRows();
+		}
+	}
+}
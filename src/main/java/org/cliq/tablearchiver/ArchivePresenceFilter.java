@@ -0,0 +1,150 @@
+package org.cliq.tablearchiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A Bloom filter over the distinct values of one id column of an archive table, e.g. its chat_ids.
+ * <p>
+ * {@link #mightContain(long)} never answers false for a value that is in the archive, and answers true for a value
+ * that is not with about the false positive rate the filter was sized for. At 1% that costs under 10 bits per
+ * distinct value, so the filters of every archive fit in memory next to the registry.
+ */
+public final class ArchivePresenceFilter {
+
+	private static final byte FORMAT_VERSION = 1;
+
+	private final long[] bits;
+	private final int numHashes;
+	private final long itemCount;
+
+	private ArchivePresenceFilter(long[] bits, int numHashes, long itemCount) {
+		this.bits = bits;
+		this.numHashes = numHashes;
+		this.itemCount = itemCount;
+	}
+
+	/**
+	 * Builds a filter holding the given values.
+	 *
+	 * @param values The distinct values to add; duplicates only make the filter larger than needed.
+	 * @param count The number of values to read from the array.
+	 * @param falsePositiveRate The target false positive rate, e.g. 0.01.
+	 * @return The filter.
+	 */
+	public static ArchivePresenceFilter of(long[] values, int count, double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+		}
+		long n = Math.max(1, count);
+		long numBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.min(Integer.MAX_VALUE - 8, (numBits + 63) / 64);
+		int numHashes = Math.max(1, (int) Math.round((double) words * 64 / n * Math.log(2)));
+
+		ArchivePresenceFilter filter = new ArchivePresenceFilter(new long[words], numHashes, count);
+		for (int i = 0; i < count; i++) {
+			filter.add(values[i]);
+		}
+		return filter;
+	}
+
+	/**
+	 * @param value The value to look up.
+	 * @return False if the value is certainly not in the archive, true if it may be.
+	 */
+	public boolean mightContain(long value) {
+		long numBits = (long) bits.length * 64;
+		long hash1 = mix(value);
+		long hash2 = mix(hash1) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = Math.floorMod(hash1 + i * hash2, numBits);
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of values the filter was built from.
+	 */
+	public long getItemCount() { return itemCount; }
+
+	public int getNumHashes() { return numHashes; }
+	public long getSizeInBytes() { return (long) bits.length * Long.BYTES; }
+
+	private void add(long value) {
+		long numBits = (long) bits.length * 64;
+		long hash1 = mix(value);
+		long hash2 = mix(hash1) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = Math.floorMod(hash1 + i * hash2, numBits);
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	// The MurmurHash3 finalizer, so consecutive ids spread over the whole bit array
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	/**
+	 * @return The serialized filter, as stored in the archive_presence_filters table.
+	 */
+	byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(bits.length * Long.BYTES + 17);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(FORMAT_VERSION);
+			out.writeInt(numHashes);
+			out.writeLong(itemCount);
+			out.writeInt(bits.length);
+			for (long word : bits) {
+				out.writeLong(word);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // not thrown by in-memory streams
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes A filter serialized with {@link #toBytes()}.
+	 * @return The filter.
+	 * @throws IllegalArgumentException If the bytes are not a serialized filter.
+	 */
+	static ArchivePresenceFilter fromBytes(byte[] bytes) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			byte version = in.readByte();
+			if (version != FORMAT_VERSION) {
+				throw new IllegalArgumentException("Unsupported presence filter version: " + version);
+			}
+			int numHashes = in.readInt();
+			long itemCount = in.readLong();
+			long[] bits = new long[in.readInt()];
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			return new ArchivePresenceFilter(bits, numHashes, itemCount);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Truncated presence filter", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ArchivePresenceFilter{" +
+			"itemCount=" + itemCount +
+			", numHashes=" + numHashes +
+			", sizeInBytes=" + getSizeInBytes() +
+			'}';
+	}
+}
@@ -0,0 +1,389 @@
+package org.cliq.tablearchiver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the archived partition registry written by {@link PartitionArchiver} and {@link ArchiveCompactor}.
+ */
+public class ArchiveRegistry {
+
+	private static final String COLUMNS =
+		"archive_table_name, start_timestamp, end_timestamp, min_message_id, max_message_id, archived_at, " +
+		"row_count, data_length, index_length, offload_location, index_profile, archive_server";
+	private static final int FILTER_COLUMN = 13;
+
+	private final ArchiverConfig config;
+
+	public ArchiveRegistry(ArchiverConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * Loads every registry row.
+	 *
+	 * @param conn The database connection.
+	 * @return All archived partitions, newest first.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<ArchivedPartitionMetadata> findAll(Connection conn) throws SQLException {
+		String sql = "SELECT " + COLUMNS + " FROM " + config.getArchivedMetadataTable() +
+			" ORDER BY end_timestamp DESC";
+		try (PreparedStatement stmt = conn.prepareStatement(sql);
+			 ResultSet rs = stmt.executeQuery()) {
+			return readAll(rs);
+		}
+	}
+
+	/**
+	 * Finds the archive tables whose time range overlaps [from, to). The lookup is served by idx_date_range.
+	 *
+	 * @param conn The database connection.
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The overlapping archived partitions, newest first.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlapping(Connection conn, LocalDateTime from, LocalDateTime to) throws SQLException {
+		return findOverlapping(conn, from, to, null, 0);
+	}
+
+	/**
+	 * Finds the archive tables whose time range overlaps [from, to) and whose chat presence filter says they may
+	 * hold the chat. Archives without a filter are always returned. Every overlapping filter is read from the
+	 * database, so callers that look up often should use {@link ArchiveRegistryCache#findOverlappingChat}.
+	 *
+	 * @param conn The database connection.
+	 * @param chatId The chat.
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The archived partitions that may hold the chat, newest first.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlappingChat(Connection conn, long chatId, LocalDateTime from, LocalDateTime to) throws SQLException {
+		return findOverlapping(conn, from, to, "chat_filter", chatId);
+	}
+
+	/**
+	 * Same as {@link #findOverlappingChat(Connection, long, LocalDateTime, LocalDateTime)} for a sender.
+	 *
+	 * @param conn The database connection.
+	 * @param senderId The sender.
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The archived partitions that may hold messages of the sender, newest first.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlappingSender(Connection conn, long senderId, LocalDateTime from, LocalDateTime to) throws SQLException {
+		return findOverlapping(conn, from, to, "sender_filter", senderId);
+	}
+
+	private List<ArchivedPartitionMetadata> findOverlapping(Connection conn, LocalDateTime from, LocalDateTime to, String filterColumn, long id) throws SQLException {
+		boolean filtered = filterColumn != null && config.getPresenceFilterTable() != null;
+		StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS);
+		if (filtered) {
+			sql.append(", ").append(filterColumn)
+				.append(" FROM ").append(config.getArchivedMetadataTable())
+				.append(" LEFT JOIN ").append(config.getPresenceFilterTable()).append(" USING (archive_table_name)");
+		} else {
+			sql.append(" FROM ").append(config.getArchivedMetadataTable());
+		}
+		sql.append(" WHERE 1 = 1");
+		if (to != null) {
+			sql.append(" AND start_timestamp <= ?");
+		}
+		if (from != null) {
+			sql.append(" AND end_timestamp >= ?");
+		}
+		sql.append(" ORDER BY end_timestamp DESC");
+
+		try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+			int i = 1;
+			if (to != null) {
+				stmt.setTimestamp(i++, Timestamp.valueOf(ceilToMillis(to)));
+			}
+			if (from != null) {
+				stmt.setTimestamp(i, Timestamp.valueOf(from.truncatedTo(ChronoUnit.MILLIS)));
+			}
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!filtered) {
+					return readAll(rs);
+				}
+				List<ArchivedPartitionMetadata> partitions = new ArrayList<>();
+				while (rs.next()) {
+					byte[] filter = rs.getBytes(FILTER_COLUMN);
+					if (filter == null || ArchivePresenceFilter.fromBytes(filter).mightContain(id)) {
+						partitions.add(read(rs));
+					}
+				}
+				return partitions;
+			}
+		}
+	}
+
+	/**
+	 * Loads the registry row of one archive table.
+	 *
+	 * @param conn The database connection.
+	 * @param archiveTableName The archive table.
+	 * @return Its registry row, or null if it is not registered.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public ArchivedPartitionMetadata find(Connection conn, String archiveTableName) throws SQLException {
+		String sql = "SELECT " + COLUMNS + " FROM " + config.getArchivedMetadataTable() + " WHERE archive_table_name = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, archiveTableName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				List<ArchivedPartitionMetadata> rows = readAll(rs);
+				return rows.isEmpty() ? null : rows.get(0);
+			}
+		}
+	}
+
+	// The registry stores DATETIME(3) while created_at is DATETIME(6), so the stored bounds may be rounded
+	// by up to half a millisecond. Widen the probe to whole milliseconds so no archive is pruned by rounding.
+	static LocalDateTime ceilToMillis(LocalDateTime time) {
+		return time.truncatedTo(ChronoUnit.MILLIS).plus(1, ChronoUnit.MILLIS);
+	}
+
+	/**
+	 * Loads the presence filters of every archive that has them.
+	 *
+	 * @param conn The database connection.
+	 * @return The filters, by archive table name; empty if presence filters are disabled.
+	 * @throws SQLException If a database error occurs.
+	 */
+	Map<String, PresenceFilters> findAllPresenceFilters(Connection conn) throws SQLException {
+		Map<String, PresenceFilters> filters = new HashMap<>();
+		if (config.getPresenceFilterTable() == null) {
+			return filters;
+		}
+		String sql = "SELECT archive_table_name, chat_filter, sender_filter FROM " + config.getPresenceFilterTable();
+		try (PreparedStatement stmt = conn.prepareStatement(sql);
+			 ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				filters.put(rs.getString(1), new PresenceFilters(
+					ArchivePresenceFilter.fromBytes(rs.getBytes(2)),
+					ArchivePresenceFilter.fromBytes(rs.getBytes(3))));
+			}
+		}
+		return filters;
+	}
+
+	/**
+	 * Stores the presence filters of an archive, replacing any earlier ones.
+	 *
+	 * @param conn The database connection.
+	 * @param archiveTableName The archive table.
+	 * @param filters Its chat and sender filters.
+	 * @throws SQLException If a database error occurs.
+	 */
+	void savePresenceFilters(Connection conn, String archiveTableName, PresenceFilters filters) throws SQLException {
+		String sql = "REPLACE INTO " + config.getPresenceFilterTable() +
+			" (archive_table_name, chat_filter, sender_filter) VALUES (?, ?, ?)";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, archiveTableName);
+			stmt.setBytes(2, filters.chats.toBytes());
+			stmt.setBytes(3, filters.senders.toBytes());
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Builds Bloom filters of the distinct chat_ids and sender_ids of an archive table. Both are read with
+	 * SELECT DISTINCT on the leading column of idx_chat_created_at and idx_sender_id, which MySQL answers with a
+	 * loose index scan, so the cost follows the number of distinct ids rather than the number of rows.
+	 *
+	 * @param conn The database connection.
+	 * @param archiveTableName The archive table.
+	 * @return The chat and sender filters.
+	 * @throws SQLException If a database error occurs.
+	 */
+	PresenceFilters buildPresenceFilters(Connection conn, String archiveTableName) throws SQLException {
+		double falsePositiveRate = config.getPresenceFilterFalsePositiveRate();
+		return new PresenceFilters(
+			distinctIdFilter(conn, "SELECT DISTINCT chat_id FROM " + archiveTableName, falsePositiveRate),
+			distinctIdFilter(conn, "SELECT DISTINCT sender_id FROM " + archiveTableName, falsePositiveRate));
+	}
+
+	private static ArchivePresenceFilter distinctIdFilter(Connection conn, String sql, double falsePositiveRate) throws SQLException {
+		long[] ids = new long[1024];
+		int count = 0;
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+				}
+				ids[count++] = rs.getLong(1);
+			}
+		}
+		return ArchivePresenceFilter.of(ids, count, falsePositiveRate);
+	}
+
+	/**
+	 * Records the index profile an archive table's indexes were rebuilt to.
+	 *
+	 * @param conn The database connection.
+	 * @param archiveTableName The archive table.
+	 * @param indexProfile The profile name.
+	 * @param indexLength The secondary index bytes after the rebuild.
+	 * @throws SQLException If a database error occurs.
+	 */
+	void recordIndexProfile(Connection conn, String archiveTableName, String indexProfile, long indexLength) throws SQLException {
+		String sql = "UPDATE " + config.getArchivedMetadataTable() + " SET index_profile = ?, index_length = ? WHERE archive_table_name = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, indexProfile);
+			stmt.setLong(2, indexLength);
+			stmt.setString(3, archiveTableName);
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Replaces the registry rows and presence filters of several archives with the row of the one archive that now
+	 * holds their messages, in one transaction, so a reader of the registry sees either the old archives or the new
+	 * one but never both or neither.
+	 *
+	 * @param conn The database connection; must not be in a transaction.
+	 * @param replacedTables The archive tables whose rows are deleted.
+	 * @param metadata The registry row of the archive replacing them.
+	 * @param filters Its presence filters, or null if presence filters are disabled.
+	 * @throws SQLException If a database error occurs; nothing is changed then.
+	 */
+	void replaceArchives(Connection conn, List<String> replacedTables, ArchivedPartitionMetadata metadata, PresenceFilters filters) throws SQLException {
+		String placeholders = String.join(", ", Collections.nCopies(replacedTables.size(), "?"));
+		conn.setAutoCommit(false);
+		try {
+			try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + config.getArchivedMetadataTable() +
+				" WHERE archive_table_name IN (" + placeholders + ")")) {
+				for (int i = 0; i < replacedTables.size(); i++) {
+					stmt.setString(i + 1, replacedTables.get(i));
+				}
+				int deleted = stmt.executeUpdate();
+				if (deleted != replacedTables.size()) {
+					throw new SQLException("Expected to replace " + replacedTables.size() + " registry rows, found " + deleted +
+						"; the registry changed concurrently");
+				}
+			}
+			String insertSql = "INSERT INTO " + config.getArchivedMetadataTable() +
+				" (archive_table_name, start_timestamp, end_timestamp, min_message_id, max_message_id, archived_at, " +
+				"row_count, data_length, index_length, index_profile) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+			try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+				stmt.setString(1, metadata.getArchiveTableName());
+				stmt.setTimestamp(2, Timestamp.valueOf(metadata.getStartTimestamp()));
+				stmt.setTimestamp(3, Timestamp.valueOf(metadata.getEndTimestamp()));
+				stmt.setLong(4, metadata.getMinMessageId());
+				stmt.setLong(5, metadata.getMaxMessageId());
+				stmt.setTimestamp(6, Timestamp.valueOf(metadata.getArchivedAt()));
+				stmt.setLong(7, metadata.getRowCount());
+				stmt.setLong(8, metadata.getDataLength());
+				stmt.setLong(9, metadata.getIndexLength());
+				stmt.setString(10, metadata.getIndexProfile());
+				stmt.executeUpdate();
+			}
+			if (config.getPresenceFilterTable() != null) {
+				try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + config.getPresenceFilterTable() +
+					" WHERE archive_table_name IN (" + placeholders + ")")) {
+					for (int i = 0; i < replacedTables.size(); i++) {
+						stmt.setString(i + 1, replacedTables.get(i));
+					}
+					stmt.executeUpdate();
+				}
+				if (filters != null) {
+					savePresenceFilters(conn, metadata.getArchiveTableName(), filters);
+				}
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Deletes the registry row and presence filters of an archive whose rows are back in the messages table, in one
+	 * transaction.
+	 *
+	 * @param conn The database connection; must not be in a transaction.
+	 * @param archiveTableName The archive table.
+	 * @throws SQLException If the archive is not registered or a database error occurs; nothing is changed then.
+	 */
+	void deleteArchive(Connection conn, String archiveTableName) throws SQLException {
+		conn.setAutoCommit(false);
+		try {
+			try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + config.getArchivedMetadataTable() +
+				" WHERE archive_table_name = ?")) {
+				stmt.setString(1, archiveTableName);
+				if (stmt.executeUpdate() != 1) {
+					throw new SQLException("Archive '" + archiveTableName + "' is not registered; the registry changed concurrently");
+				}
+			}
+			if (config.getPresenceFilterTable() != null) {
+				try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + config.getPresenceFilterTable() +
+					" WHERE archive_table_name = ?")) {
+					stmt.setString(1, archiveTableName);
+					stmt.executeUpdate();
+				}
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private static List<ArchivedPartitionMetadata> readAll(ResultSet rs) throws SQLException {
+		List<ArchivedPartitionMetadata> partitions = new ArrayList<>();
+		while (rs.next()) {
+			partitions.add(read(rs));
+		}
+		return partitions;
+	}
+
+	private static ArchivedPartitionMetadata read(ResultSet rs) throws SQLException {
+		return new ArchivedPartitionMetadata(
+			rs.getString(1),
+			rs.getTimestamp(2).toLocalDateTime(),
+			rs.getTimestamp(3).toLocalDateTime(),
+			rs.getLong(4),
+			rs.getLong(5),
+			rs.getTimestamp(6).toLocalDateTime(),
+			rs.getLong(7),
+			rs.getLong(8),
+			rs.getLong(9),
+			rs.getString(10),
+			rs.getString(11),
+			rs.getString(12)
+		);
+	}
+
+	/**
+	 * The chat and sender presence filters of one archive.
+	 */
+	static final class PresenceFilters {
+		final ArchivePresenceFilter chats;
+		final ArchivePresenceFilter senders;
+
+		PresenceFilters(ArchivePresenceFilter chats, ArchivePresenceFilter senders) {
+			this.chats = chats;
+			this.senders = senders;
+		}
+	}
+}
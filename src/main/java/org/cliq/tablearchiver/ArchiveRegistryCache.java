@@ -0,0 +1,391 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process copy of the archived partition registry, so routing a query to an archive does not cost a round-trip.
+ * <p>
+ * The registry is held in an immutable {@link Snapshot} with two interval indexes, one over the time range and one over
+ * the message id range of every archive table, plus the chat and sender presence filters of each archive so chat- or
+ * sender-scoped lookups skip archives that cannot hold the id. Readers never lock: they read the current snapshot and binary search it.
+ * Writers build a new snapshot and swap it in. {@link PartitionArchiver} publishes each archive it creates, and
+ * {@link #start(Duration)} polls the registry's row count, {@code MAX(archived_at)} and number of offloaded and moved archives to
+ * pick up other writers.
+ */
+public class ArchiveRegistryCache implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiveRegistryCache.class);
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+	private ScheduledExecutorService poller;
+
+	public ArchiveRegistryCache(DataSource dataSource, ArchiverConfig config) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+	}
+
+	/**
+	 * Reloads every registry row and swaps in a new snapshot.
+	 *
+	 * @throws SQLException If a database error occurs.
+	 */
+	public void refresh() throws SQLException {
+		try (Connection conn = dataSource.getConnection()) {
+			snapshot.set(Snapshot.of(registry.findAll(conn), registry.findAllPresenceFilters(conn)));
+		}
+	}
+
+	/**
+	 * Reloads the registry only if its row count, latest archived_at or number of offloaded or moved archives differs from
+	 * the cached snapshot.
+	 *
+	 * @return True if the snapshot was reloaded.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public boolean refreshIfChanged() throws SQLException {
+		String sql = "SELECT COUNT(*), MAX(archived_at), COUNT(offload_location), COUNT(archive_server) FROM " + config.getArchivedMetadataTable();
+		try (Connection conn = dataSource.getConnection();
+			 PreparedStatement stmt = conn.prepareStatement(sql);
+			 ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			int count = rs.getInt(1);
+			Timestamp maxArchivedAt = rs.getTimestamp(2);
+			int offloaded = rs.getInt(3);
+			int remote = rs.getInt(4);
+			Snapshot current = snapshot.get();
+			if (count == current.size() && offloaded == current.offloaded && remote == current.remote && Objects.equals(maxArchivedAt == null ? null : maxArchivedAt.toLocalDateTime(), current.maxArchivedAt)) {
+				return false;
+			}
+			snapshot.set(Snapshot.of(registry.findAll(conn), registry.findAllPresenceFilters(conn)));
+			return true;
+		}
+	}
+
+	/**
+	 * Starts polling the registry for changes made by other writers.
+	 *
+	 * @param interval The time between two checks.
+	 */
+	public synchronized void start(Duration interval) {
+		if (poller != null) {
+			return;
+		}
+		poller = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "archive-registry-cache");
+			thread.setDaemon(true);
+			return thread;
+		});
+		poller.scheduleWithFixedDelay(() -> {
+			try {
+				refreshIfChanged();
+			} catch (SQLException e) {
+				log.error("registryCache.refreshFailed", e);
+			}
+		}, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds (or replaces) one archive in the cached registry without reloading it.
+	 *
+	 * @param metadata The registry row that was just committed.
+	 */
+	public void publish(ArchivedPartitionMetadata metadata) {
+		publish(metadata, null);
+	}
+
+	/**
+	 * Adds (or replaces) one archive and its presence filters in the cached registry without reloading it.
+	 *
+	 * @param metadata The registry row that was just committed.
+	 * @param filters Its presence filters, or null to keep the cached ones.
+	 */
+	void publish(ArchivedPartitionMetadata metadata, ArchiveRegistry.PresenceFilters filters) {
+		snapshot.updateAndGet(current -> {
+			List<ArchivedPartitionMetadata> rows = new ArrayList<>(current.size() + 1);
+			for (ArchivedPartitionMetadata row : current.byStart) {
+				if (!row.getArchiveTableName().equals(metadata.getArchiveTableName())) {
+					rows.add(row);
+				}
+			}
+			rows.add(metadata);
+			Map<String, ArchiveRegistry.PresenceFilters> presenceFilters = current.filters;
+			if (filters != null) {
+				presenceFilters = new HashMap<>(presenceFilters);
+				presenceFilters.put(metadata.getArchiveTableName(), filters);
+			}
+			return Snapshot.of(rows, presenceFilters);
+		});
+	}
+
+	/**
+	 * Replaces several archives with the one archive that now holds their messages, in one snapshot swap, so a
+	 * lookup sees either the old archives or the new one.
+	 *
+	 * @param replacedTables The archive tables whose registry rows were deleted.
+	 * @param metadata The registry row that replaced them.
+	 * @param filters Its presence filters, or null if it has none.
+	 */
+	void replace(List<String> replacedTables, ArchivedPartitionMetadata metadata, ArchiveRegistry.PresenceFilters filters) {
+		snapshot.updateAndGet(current -> {
+			List<ArchivedPartitionMetadata> rows = new ArrayList<>(current.size());
+			for (ArchivedPartitionMetadata row : current.byStart) {
+				if (!replacedTables.contains(row.getArchiveTableName()) && !row.getArchiveTableName().equals(metadata.getArchiveTableName())) {
+					rows.add(row);
+				}
+			}
+			rows.add(metadata);
+			Map<String, ArchiveRegistry.PresenceFilters> presenceFilters = new HashMap<>(current.filters);
+			presenceFilters.keySet().removeAll(replacedTables);
+			if (filters != null) {
+				presenceFilters.put(metadata.getArchiveTableName(), filters);
+			}
+			return Snapshot.of(rows, presenceFilters);
+		});
+	}
+
+	/**
+	 * Removes one archive from the cached registry without reloading it.
+	 *
+	 * @param archiveTableName The archive table whose registry row was deleted.
+	 */
+	public void remove(String archiveTableName) {
+		snapshot.updateAndGet(current -> {
+			List<ArchivedPartitionMetadata> rows = new ArrayList<>(current.size());
+			for (ArchivedPartitionMetadata row : current.byStart) {
+				if (!row.getArchiveTableName().equals(archiveTableName)) {
+					rows.add(row);
+				}
+			}
+			if (rows.size() == current.size()) {
+				return current;
+			}
+			Map<String, ArchiveRegistry.PresenceFilters> presenceFilters = new HashMap<>(current.filters);
+			presenceFilters.remove(archiveTableName);
+			return Snapshot.of(rows, presenceFilters);
+		});
+	}
+
+	/**
+	 * Finds the archive tables whose time range overlaps [from, to). Same semantics as
+	 * {@link ArchiveRegistry#findOverlapping(Connection, LocalDateTime, LocalDateTime)}.
+	 *
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The overlapping archived partitions, newest first.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlapping(LocalDateTime from, LocalDateTime to) {
+		return snapshot.get().findOverlapping(from, to);
+	}
+
+	/**
+	 * Finds the archive tables whose time range overlaps [from, to) and that may hold the chat according to their
+	 * presence filter. Archives without a filter are always returned.
+	 *
+	 * @param chatId The chat.
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The archived partitions that may hold the chat, newest first.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlappingChat(long chatId, LocalDateTime from, LocalDateTime to) {
+		Snapshot current = snapshot.get();
+		return current.mayContain(current.findOverlapping(from, to), chatId, true);
+	}
+
+	/**
+	 * Same as {@link #findOverlappingChat(long, LocalDateTime, LocalDateTime)} for a sender.
+	 *
+	 * @param senderId The sender.
+	 * @param from Inclusive lower bound, or null for no lower bound.
+	 * @param to Exclusive upper bound, or null for no upper bound.
+	 * @return The archived partitions that may hold messages of the sender, newest first.
+	 */
+	public List<ArchivedPartitionMetadata> findOverlappingSender(long senderId, LocalDateTime from, LocalDateTime to) {
+		Snapshot current = snapshot.get();
+		return current.mayContain(current.findOverlapping(from, to), senderId, false);
+	}
+
+	/**
+	 * Finds the archive table holding a message id.
+	 *
+	 * @param messageId The message id.
+	 * @return The archived partition whose id range contains the id, or null if no archive holds it.
+	 */
+	public ArchivedPartitionMetadata findByMessageId(long messageId) {
+		return snapshot.get().findByMessageId(messageId);
+	}
+
+	/**
+	 * @return Every cached archive, newest first.
+	 */
+	public List<ArchivedPartitionMetadata> findAll() {
+		return snapshot.get().findOverlapping(null, null);
+	}
+
+	/**
+	 * @return The latest archived_at in the cached registry, or null if it is empty.
+	 */
+	public LocalDateTime getMaxArchivedAt() {
+		return snapshot.get().maxArchivedAt;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
+	}
+
+	// Micros since the epoch, so lookups compare primitives rather than LocalDateTime instances.
+	private static long toMicros(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+	}
+
+	/**
+	 * Immutable registry snapshot with two interval indexes.
+	 * <p>
+	 * The time index sorts archives by start and keeps a running maximum of their ends, so an overlap query is a
+	 * binary search followed by a backward scan that stops as soon as no earlier archive can reach the range.
+	 * The id index sorts archives by min_message_id; id ranges never overlap, so a point lookup is one binary search.
+	 */
+	private static final class Snapshot {
+		static final Snapshot EMPTY = of(Collections.emptyList(), Collections.emptyMap());
+
+		private final ArchivedPartitionMetadata[] byStart;
+		private final long[] starts;
+		private final long[] maxEndUpTo;
+		private final long[] ends;
+
+		private final ArchivedPartitionMetadata[] byMinId;
+		private final long[] minIds;
+		private final long[] maxIds;
+
+		private final Map<String, ArchiveRegistry.PresenceFilters> filters;
+		private final LocalDateTime maxArchivedAt;
+		private final int offloaded;
+		private final int remote;
+
+		private Snapshot(ArchivedPartitionMetadata[] byStart, ArchivedPartitionMetadata[] byMinId, Map<String, ArchiveRegistry.PresenceFilters> filters) {
+			int n = byStart.length;
+			this.byStart = byStart;
+			this.starts = new long[n];
+			this.ends = new long[n];
+			this.maxEndUpTo = new long[n];
+			LocalDateTime latest = null;
+			int offloadedCount = 0;
+			int remoteCount = 0;
+			for (int i = 0; i < n; i++) {
+				if (byStart[i].isOffloaded()) {
+					offloadedCount++;
+				}
+				if (byStart[i].isRemote()) {
+					remoteCount++;
+				}
+				starts[i] = toMicros(byStart[i].getStartTimestamp());
+				ends[i] = toMicros(byStart[i].getEndTimestamp());
+				maxEndUpTo[i] = i == 0 ? ends[i] : Math.max(maxEndUpTo[i - 1], ends[i]);
+				if (latest == null || byStart[i].getArchivedAt().isAfter(latest)) {
+					latest = byStart[i].getArchivedAt();
+				}
+			}
+			this.byMinId = byMinId;
+			this.minIds = new long[n];
+			this.maxIds = new long[n];
+			for (int i = 0; i < n; i++) {
+				minIds[i] = byMinId[i].getMinMessageId();
+				maxIds[i] = byMinId[i].getMaxMessageId();
+			}
+			this.filters = filters;
+			this.maxArchivedAt = latest;
+			this.offloaded = offloadedCount;
+			this.remote = remoteCount;
+		}
+
+		static Snapshot of(List<ArchivedPartitionMetadata> rows, Map<String, ArchiveRegistry.PresenceFilters> filters) {
+			ArchivedPartitionMetadata[] byStart = rows.toArray(new ArchivedPartitionMetadata[0]);
+			Arrays.sort(byStart, Comparator.comparing(ArchivedPartitionMetadata::getStartTimestamp));
+			ArchivedPartitionMetadata[] byMinId = rows.toArray(new ArchivedPartitionMetadata[0]);
+			Arrays.sort(byMinId, Comparator.comparingLong(ArchivedPartitionMetadata::getMinMessageId));
+			return new Snapshot(byStart, byMinId, filters);
+		}
+
+		int size() {
+			return byStart.length;
+		}
+
+		List<ArchivedPartitionMetadata> findOverlapping(LocalDateTime from, LocalDateTime to) {
+			// Widened to whole milliseconds for the same reason as ArchiveRegistry.ceilToMillis.
+			long lo = from == null ? Long.MIN_VALUE : toMicros(from.truncatedTo(ChronoUnit.MILLIS));
+			long hi = to == null ? Long.MAX_VALUE : toMicros(ArchiveRegistry.ceilToMillis(to));
+
+			int last = lastIndexAtMost(starts, hi);
+			List<ArchivedPartitionMetadata> result = new ArrayList<>();
+			for (int i = last; i >= 0 && maxEndUpTo[i] >= lo; i--) {
+				if (ends[i] >= lo) {
+					result.add(byStart[i]);
+				}
+			}
+			if (result.size() > 1) {
+				result.sort(Comparator.comparing(ArchivedPartitionMetadata::getEndTimestamp).reversed());
+			}
+			return result;
+		}
+
+		List<ArchivedPartitionMetadata> mayContain(List<ArchivedPartitionMetadata> archives, long id, boolean chat) {
+			List<ArchivedPartitionMetadata> result = new ArrayList<>(archives.size());
+			for (ArchivedPartitionMetadata archive : archives) {
+				ArchiveRegistry.PresenceFilters presence = filters.get(archive.getArchiveTableName());
+				if (presence == null || (chat ? presence.chats : presence.senders).mightContain(id)) {
+					result.add(archive);
+				}
+			}
+			return result;
+		}
+
+		ArchivedPartitionMetadata findByMessageId(long messageId) {
+			int i = lastIndexAtMost(minIds, messageId);
+			return i >= 0 && maxIds[i] >= messageId ? byMinId[i] : null;
+		}
+
+		// Index of the last element <= key, or -1 if every element is greater.
+		private static int lastIndexAtMost(long[] sorted, long key) {
+			int low = 0;
+			int high = sorted.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (sorted[mid] <= key) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return high;
+		}
+	}
+}
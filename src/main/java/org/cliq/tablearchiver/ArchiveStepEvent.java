@@ -0,0 +1,47 @@
+package org.cliq.tablearchiver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event emitted for every step of {@link PartitionArchiver#archivePartition(String)}. Record with
+ * {@code -XX:StartFlightRecording} (the event is enabled by default) and look for it under Cliq / Archiver.
+ */
+@Name("org.cliq.tablearchiver.ArchiveStep")
+@Label("Archive Step")
+@Category({"Cliq", "Archiver"})
+@Description("One step of archiving a messages partition")
+@StackTrace(false)
+class ArchiveStepEvent extends Event {
+
+	@Label("Step")
+	String step;
+
+	@Label("Partition")
+	String partitionName;
+
+	@Label("Archive Table")
+	String archiveTable;
+
+	@Label("Row Count")
+	@Description("Rows in the partition, once captured; 0 for the steps before")
+	long rowCount;
+
+	@Label("Data Length")
+	@DataAmount
+	long dataLength;
+
+	@Label("Lock Wait")
+	@Description("Time spent on timed-out metadata lock attempts, backoff and long-running lock holders")
+	@Timespan
+	long lockWaitNanos;
+
+	@Label("Success")
+	boolean success;
+}
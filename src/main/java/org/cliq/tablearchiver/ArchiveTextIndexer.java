@@ -0,0 +1,295 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Builds the inverted index of an archive table's content, for {@link ArchiveTextSearchService}.
+ * <p>
+ * The archive is read in one streaming pass in message_id order. Each message's content is split into lower-cased
+ * runs of letters and digits, and every distinct token adds the message_id to the token's posting list. Whenever
+ * {@code maxPostingsPerSegment} postings have accumulated they are written out as a {@link TextIndexSegment}, so
+ * memory stays bounded however large the archive is. Segments are written into a temporary directory that is renamed
+ * to {@code <directory>/<archive table>} once complete; archived content never changes, so an index is built once and
+ * never updated. The directory also records the archive's archived_at: a table restored and archived again under the
+ * same name gets a new one, so the index of its earlier content is replaced rather than reused.
+ * <p>
+ * Registered as an {@link ArchivalListener}, the indexer builds the index of every new archive on its own thread and
+ * deletes the index of every archive restored or merged away.
+ */
+public class ArchiveTextIndexer implements ArchivalListener, AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiveTextIndexer.class);
+
+	/**
+	 * Tokens longer than this are cut, so a pasted blob does not bloat the dictionary.
+	 */
+	static final int MAX_TOKEN_LENGTH = 64;
+
+	// Holds the archived_at of the archive an index directory was built from
+	private static final String ARCHIVED_AT_FILE = "archived_at";
+
+	private final DataSource dataSource;
+	private final Path directory;
+	private final int maxPostingsPerSegment;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "archive-text-indexer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param dataSource The data source holding the archive tables.
+	 * @param directory The directory holding one index directory per archive table.
+	 */
+	public ArchiveTextIndexer(DataSource dataSource, Path directory) {
+		this(dataSource, directory, 8_000_000);
+	}
+
+	/**
+	 * @param dataSource The data source holding the archive tables.
+	 * @param directory The directory holding one index directory per archive table.
+	 * @param maxPostingsPerSegment The number of postings buffered in memory before a segment is written.
+	 */
+	public ArchiveTextIndexer(DataSource dataSource, Path directory, int maxPostingsPerSegment) {
+		if (maxPostingsPerSegment <= 0) {
+			throw new IllegalArgumentException("maxPostingsPerSegment must be positive: " + maxPostingsPerSegment);
+		}
+		this.dataSource = dataSource;
+		this.directory = directory;
+		this.maxPostingsPerSegment = maxPostingsPerSegment;
+	}
+
+	/**
+	 * Queues the new archive for indexing.
+	 */
+	@Override
+	public void archived(ArchivedPartitionMetadata metadata) {
+		executor.execute(() -> {
+			try {
+				index(metadata);
+			} catch (SQLException | IOException e) {
+				log.error("textIndex.failed", e, "archiveTable", metadata.getArchiveTableName());
+			}
+		});
+	}
+
+	/**
+	 * Queues the deletion of the archive's index, after any index build queued before.
+	 */
+	@Override
+	public void removed(ArchivedPartitionMetadata metadata) {
+		String archiveTableName = metadata.getArchiveTableName();
+		executor.execute(() -> {
+			try {
+				deleteRecursively(indexDirectory(directory, archiveTableName));
+				log.info("textIndex.deleted", "archiveTable", archiveTableName, "archivedAt", metadata.getArchivedAt());
+			} catch (IOException e) {
+				log.error("textIndex.deleteFailed", e, "archiveTable", archiveTableName);
+			}
+		});
+	}
+
+	/**
+	 * Builds the index of one archive, unless it already exists. An index built from an earlier archive of the same
+	 * table name is replaced.
+	 *
+	 * @param archive The registry row of the archive, as {@link ArchiveRegistry#findAll} lists it.
+	 * @return The number of segments written; 0 if the archive was already indexed.
+	 * @throws SQLException If the archive table cannot be read.
+	 * @throws IOException If the segments cannot be written.
+	 */
+	public int index(ArchivedPartitionMetadata archive) throws SQLException, IOException {
+		String archiveTableName = archive.getArchiveTableName();
+		Path target = indexDirectory(directory, archiveTableName);
+		if (archive.getArchivedAt().equals(indexedAt(target))) {
+			return 0;
+		}
+		long started = System.nanoTime();
+		Path temp = directory.resolve(archiveTableName + ".tmp");
+		deleteRecursively(temp);
+		Files.createDirectories(temp);
+
+		SegmentBuffer buffer = new SegmentBuffer(temp);
+		long messages = 0;
+		// Connector/J streams the rows only with a forward-only cursor and fetch size MIN_VALUE
+		String sql = "SELECT message_id, content FROM " + archiveTableName + " ORDER BY message_id";
+		try (Connection conn = dataSource.getConnection();
+			 Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			stmt.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				while (rs.next()) {
+					buffer.add(rs.getLong(1), tokenize(rs.getString(2)));
+					messages++;
+					if (buffer.postings >= maxPostingsPerSegment) {
+						buffer.flush();
+					}
+				}
+			}
+			buffer.flush();
+			Files.writeString(temp.resolve(ARCHIVED_AT_FILE), archive.getArchivedAt().toString());
+		} catch (SQLException | IOException e) {
+			deleteRecursively(temp);
+			throw e;
+		}
+
+		deleteRecursively(target); // an earlier archive's index, searches fall back to LIKE until the move
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+		log.info("textIndex.built", "archiveTable", archiveTableName, "messages", messages, "segments", buffer.segments,
+			"durationMs", (System.nanoTime() - started) / 1_000_000);
+		return buffer.segments;
+	}
+
+	/**
+	 * @param archive The registry row of the archive.
+	 * @return True if the archive's index has been built.
+	 * @throws IOException If the index directory cannot be read.
+	 */
+	public boolean isIndexed(ArchivedPartitionMetadata archive) throws IOException {
+		return archive.getArchivedAt().equals(indexedAt(indexDirectory(directory, archive.getArchiveTableName())));
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	static Path indexDirectory(Path directory, String archiveTableName) {
+		return directory.resolve(archiveTableName);
+	}
+
+	/**
+	 * @param archiveDirectory The index directory of one archive table.
+	 * @return The archived_at of the archive the index was built from, or null if there is no complete index.
+	 * @throws IOException If the directory cannot be read.
+	 */
+	static LocalDateTime indexedAt(Path archiveDirectory) throws IOException {
+		Path file = archiveDirectory.resolve(ARCHIVED_AT_FILE);
+		if (!Files.exists(file)) {
+			return null; // none, or built before archived_at was recorded, which then counts as stale
+		}
+		try {
+			return LocalDateTime.parse(Files.readString(file).trim());
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Splits text into its distinct lower-cased runs of letters and digits, in order of first appearance.
+	 *
+	 * @param text The text, may be null.
+	 * @return The tokens.
+	 */
+	static Set<String> tokenize(String text) {
+		Set<String> tokens = new LinkedHashSet<>();
+		if (text == null) {
+			return tokens;
+		}
+		int start = -1;
+		for (int i = 0; i <= text.length(); ) {
+			int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+			boolean wordChar = Character.isLetterOrDigit(codePoint);
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				tokens.add(truncate(text.substring(start, i).toLowerCase(Locale.ROOT)));
+				start = -1;
+			}
+			i += i < text.length() ? Character.charCount(codePoint) : 1;
+		}
+		return tokens;
+	}
+
+	private static String truncate(String token) {
+		if (token.length() <= MAX_TOKEN_LENGTH) {
+			return token;
+		}
+		int end = Character.isHighSurrogate(token.charAt(MAX_TOKEN_LENGTH - 1)) ? MAX_TOKEN_LENGTH - 1 : MAX_TOKEN_LENGTH;
+		return token.substring(0, end);
+	}
+
+	/**
+	 * @param archiveDirectory The index directory of one archive.
+	 * @return Its segment files, in the order they were written.
+	 * @throws IOException If the directory cannot be listed.
+	 */
+	static List<Path> segmentFiles(Path archiveDirectory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> list = Files.list(archiveDirectory)) {
+			list.filter(p -> p.getFileName().toString().endsWith(TextIndexSegment.FILE_EXTENSION)).sorted().forEach(files::add);
+		}
+		return files;
+	}
+
+	private static void deleteRecursively(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (Stream<Path> walk = Files.walk(path)) {
+			for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	// Postings accumulated since the last segment was written
+	private static class SegmentBuffer {
+		private final Path directory;
+		private Map<String, TextIndexSegment.PostingList> postingLists = new HashMap<>();
+		private long postings;
+		private int docCount;
+		private long minMessageId;
+		private long maxMessageId;
+		private int segments;
+
+		SegmentBuffer(Path directory) {
+			this.directory = directory;
+		}
+
+		void add(long messageId, Set<String> tokens) {
+			if (docCount == 0) {
+				minMessageId = messageId;
+			}
+			maxMessageId = messageId;
+			docCount++;
+			for (String token : tokens) {
+				postingLists.computeIfAbsent(token, t -> new TextIndexSegment.PostingList()).add(messageId);
+			}
+			postings += tokens.size();
+		}
+
+		void flush() throws IOException {
+			if (docCount == 0) {
+				return;
+			}
+			Path file = directory.resolve(String.format("segment-%05d%s", segments, TextIndexSegment.FILE_EXTENSION));
+			TextIndexSegment.write(file, postingLists, docCount, minMessageId, maxMessageId);
+			segments++;
+			postingLists = new HashMap<>();
+			postings = 0;
+			docCount = 0;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keyword search over the archive tables, served by the inverted indexes {@link ArchiveTextIndexer} builds.
+ * <p>
+ * The text of {@code contentContains} is split into words the same way the content was indexed, and a message matches
+ * when its content contains every word. For each archive the postings of the words are intersected in every segment,
+ * rarest word first, and only the matching rows are fetched by primary key (or, for an offloaded archive, from the
+ * blocks of its cold tier file that hold the ids). Archives are visited newest first and the search stops as soon as
+ * no remaining archive can hold a newer match. An archive whose index is not built yet is searched with
+ * {@code content LIKE} and the result checked word by word, so the answer does not depend on indexing progress.
+ * Archives moved by {@link TablespaceMover} are fetched from, or scanned on, their archive server, and a
+ * {@link ReadRoutingDataSource} moves the registry and archive reads to replicas that are current enough.
+ */
+public class ArchiveTextSearchService implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiveTextSearchService.class);
+
+	private static final int FETCH_BATCH_SIZE = 1_000;
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final Path directory;
+	private final Map<String, IndexedArchive> segments = new ConcurrentHashMap<>();
+	private final ColdTierReaders coldTierReaders = new ColdTierReaders();
+
+	/**
+	 * @param dataSource The data source holding the archive and registry tables.
+	 * @param config The archiver configuration naming those tables.
+	 * @param directory The index directory the {@link ArchiveTextIndexer} writes to.
+	 * @param registryCache A registry cache to list archives from instead of querying the registry, or null.
+	 */
+	public ArchiveTextSearchService(DataSource dataSource, ArchiverConfig config, Path directory, ArchiveRegistryCache registryCache) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.directory = directory;
+	}
+
+	/**
+	 * Finds the newest archived messages containing every word of {@code criteria.getContentContains()} and matching
+	 * the other criteria. Words are compared case-insensitively and as whole words: "invoice" does not match
+	 * "invoices". The live messages table is not searched.
+	 *
+	 * @param criteria The search criteria; contentContains is required.
+	 * @return At most {@code criteria.getLimit()} messages, newest first.
+	 * @throws SQLException If a database error occurs.
+	 * @throws IOException If an index segment or cold tier file cannot be read.
+	 * @throws IllegalArgumentException If the criteria have no contentContains.
+	 */
+	public List<ChatMessage> search(MessageSearchCriteria criteria) throws SQLException, IOException {
+		if (criteria.getContentContains() == null) {
+			throw new IllegalArgumentException("A text search needs contentContains");
+		}
+		String[] terms = ArchiveTextIndexer.tokenize(criteria.getContentContains()).toArray(new String[0]);
+		if (terms.length == 0) {
+			return Collections.emptyList();
+		}
+		int limit = criteria.getLimit();
+		// Oldest of the best rows so far on top, so it is the one evicted by a newer match
+		PriorityQueue<ChatMessage> best = new PriorityQueue<>(limit + 1, ChatMessage.NEWEST_FIRST.reversed());
+		DataSource registrySource = ReadRoutingDataSource.registrySource(dataSource);
+		try (Connection conn = registrySource.getConnection()) {
+			for (ArchivedPartitionMetadata archive : findArchives(conn, criteria)) {
+				if (best.size() == limit && ArchiveRegistry.ceilToMillis(archive.getEndTimestamp()).isBefore(best.peek().getCreatedAt())) {
+					break; // archives come newest first, no later one can hold a newer match
+				}
+				DataSource source = archive.isOffloaded() ? registrySource : ReadRoutingDataSource.archiveSource(dataSource, config, archive);
+				List<ChatMessage> found;
+				if (source == registrySource) {
+					found = searchArchive(conn, archive, terms, criteria);
+				} else {
+					try (Connection archiveConn = source.getConnection()) {
+						found = searchArchive(archiveConn, archive, terms, criteria);
+					}
+				}
+				for (ChatMessage message : found) {
+					best.add(message);
+					if (best.size() > limit) {
+						best.poll();
+					}
+				}
+			}
+		}
+		List<ChatMessage> messages = new ArrayList<>(best);
+		messages.sort(ChatMessage.NEWEST_FIRST);
+		return messages;
+	}
+
+	@Override
+	public void close() {
+		coldTierReaders.close();
+	}
+
+	// Chat- and sender-scoped searches also skip the archives whose presence filter rules the id out.
+	private List<ArchivedPartitionMetadata> findArchives(Connection conn, MessageSearchCriteria criteria) throws SQLException {
+		LocalDateTime from = criteria.getFrom();
+		LocalDateTime to = criteria.getTo();
+		if (registryCache != null) {
+			if (criteria.getChatId() != null) {
+				return registryCache.findOverlappingChat(criteria.getChatId(), from, to);
+			}
+			return criteria.getSenderId() != null
+				? registryCache.findOverlappingSender(criteria.getSenderId(), from, to)
+				: registryCache.findOverlapping(from, to);
+		}
+		if (criteria.getChatId() != null) {
+			return registry.findOverlappingChat(conn, criteria.getChatId(), from, to);
+		}
+		return criteria.getSenderId() != null
+			? registry.findOverlappingSender(conn, criteria.getSenderId(), from, to)
+			: registry.findOverlapping(conn, from, to);
+	}
+
+	private List<ChatMessage> searchArchive(Connection conn, ArchivedPartitionMetadata archive, String[] terms, MessageSearchCriteria criteria) throws SQLException, IOException {
+		String table = archive.getArchiveTableName();
+		List<TextIndexSegment> archiveSegments = segments(archive);
+		if (archiveSegments == null) {
+			if (archive.isOffloaded()) {
+				log.warn("textSearch.skippedUnindexedArchive", "archiveTable", table, "location", archive.getOffloadLocation());
+				return Collections.emptyList();
+			}
+			return scanArchive(conn, table, terms, criteria);
+		}
+
+		// Segments cover ascending, disjoint id ranges, so their matches concatenate into one sorted array
+		long[] ids = new long[0];
+		for (TextIndexSegment segment : archiveSegments) {
+			long[] matches = segment.intersect(terms);
+			if (matches.length > 0) {
+				long[] merged = Arrays.copyOf(ids, ids.length + matches.length);
+				System.arraycopy(matches, 0, merged, ids.length, matches.length);
+				ids = merged;
+			}
+		}
+		if (ids.length == 0) {
+			return Collections.emptyList();
+		}
+		if (archive.isOffloaded()) {
+			List<ChatMessage> messages = new ArrayList<>();
+			for (ChatMessage message : coldTierReaders.get(archive).findByIds(ids, table)) {
+				if (matches(criteria, message)) {
+					messages.add(message);
+				}
+			}
+			return messages;
+		}
+		return fetchByIds(conn, table, ids, criteria);
+	}
+
+	// The index segments of an archive, or null while its index is not built. A table name can come back after a
+	// restore with other content, so the segments are only used for the archived_at they were built from.
+	private List<TextIndexSegment> segments(ArchivedPartitionMetadata archive) throws IOException {
+		String table = archive.getArchiveTableName();
+		IndexedArchive cached = segments.get(table);
+		if (cached != null && cached.archivedAt.equals(archive.getArchivedAt())) {
+			return cached.segments;
+		}
+		Path archiveDirectory = ArchiveTextIndexer.indexDirectory(directory, table);
+		if (!archive.getArchivedAt().equals(ArchiveTextIndexer.indexedAt(archiveDirectory))) {
+			segments.remove(table); // the segments of an earlier archive of that name, if any
+			return null;
+		}
+		List<TextIndexSegment> opened = new ArrayList<>();
+		for (Path file : ArchiveTextIndexer.segmentFiles(archiveDirectory)) {
+			opened.add(TextIndexSegment.open(file));
+		}
+		segments.put(table, new IndexedArchive(archive.getArchivedAt(), opened));
+		return opened;
+	}
+
+	private List<ChatMessage> fetchByIds(Connection conn, String table, long[] ids, MessageSearchCriteria criteria) throws SQLException {
+		List<ChatMessage> messages = new ArrayList<>();
+		// Newest ids first, in batches the primary key answers with range lookups
+		for (int end = ids.length; end > 0; end -= FETCH_BATCH_SIZE) {
+			int start = Math.max(0, end - FETCH_BATCH_SIZE);
+			StringBuilder sql = new StringBuilder("SELECT ").append(ChatMessage.COLUMNS)
+				.append(" FROM ").append(table)
+				.append(" WHERE message_id IN (");
+			for (int i = start; i < end; i++) {
+				sql.append(i == start ? "?" : ", ?");
+			}
+			sql.append(")");
+			List<Object> params = new ArrayList<>();
+			for (int i = start; i < end; i++) {
+				params.add(ids[i]);
+			}
+			appendFilters(sql, params, criteria);
+			try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+				for (int i = 0; i < params.size(); i++) {
+					stmt.setObject(i + 1, params.get(i));
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						messages.add(ChatMessage.fromResultSet(rs, table));
+					}
+				}
+			}
+		}
+		return messages;
+	}
+
+	// An archive without an index: LIKE narrows the rows, the word check gives them the index semantics.
+	private List<ChatMessage> scanArchive(Connection conn, String table, String[] terms, MessageSearchCriteria criteria) throws SQLException {
+		List<ChatMessage> messages = new ArrayList<>();
+		ChatMessage last = null;
+		while (messages.size() < criteria.getLimit()) {
+			StringBuilder sql = new StringBuilder("SELECT ").append(ChatMessage.COLUMNS)
+				.append(" FROM ").append(table)
+				.append(" WHERE 1 = 1");
+			List<Object> params = new ArrayList<>();
+			for (String term : terms) {
+				sql.append(" AND content LIKE ?");
+				params.add("%" + term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+			}
+			appendFilters(sql, params, criteria);
+			if (last != null) {
+				sql.append(" AND (created_at < ? OR (created_at = ? AND message_id < ?))");
+				params.add(Timestamp.valueOf(last.getCreatedAt()));
+				params.add(Timestamp.valueOf(last.getCreatedAt()));
+				params.add(last.getMessageId());
+			}
+			sql.append(" ORDER BY created_at DESC, message_id DESC LIMIT ?");
+			params.add(criteria.getLimit());
+
+			int read = 0;
+			try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+				for (int i = 0; i < params.size(); i++) {
+					stmt.setObject(i + 1, params.get(i));
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						read++;
+						last = ChatMessage.fromResultSet(rs, table);
+						if (ArchiveTextIndexer.tokenize(last.getContent()).containsAll(Set.of(terms)) && messages.size() < criteria.getLimit()) {
+							messages.add(last);
+						}
+					}
+				}
+			}
+			if (read < criteria.getLimit()) {
+				break;
+			}
+		}
+		return messages;
+	}
+
+	private static void appendFilters(StringBuilder sql, List<Object> params, MessageSearchCriteria criteria) {
+		if (criteria.getChatId() != null) {
+			sql.append(" AND chat_id = ?");
+			params.add(criteria.getChatId());
+		}
+		if (criteria.getSenderId() != null) {
+			sql.append(" AND sender_id = ?");
+			params.add(criteria.getSenderId());
+		}
+		if (criteria.getFrom() != null) {
+			sql.append(" AND created_at >= ?");
+			params.add(Timestamp.valueOf(criteria.getFrom()));
+		}
+		if (criteria.getTo() != null) {
+			sql.append(" AND created_at < ?");
+			params.add(Timestamp.valueOf(criteria.getTo()));
+		}
+		if (criteria.getMessageType() != null) {
+			sql.append(" AND message_type = ?");
+			params.add(criteria.getMessageType());
+		}
+	}
+
+	private static boolean matches(MessageSearchCriteria criteria, ChatMessage message) {
+		return (criteria.getChatId() == null || message.getChatId() == criteria.getChatId())
+			&& (criteria.getSenderId() == null || message.getSenderId() == criteria.getSenderId())
+			&& (criteria.getFrom() == null || !message.getCreatedAt().isBefore(criteria.getFrom()))
+			&& (criteria.getTo() == null || message.getCreatedAt().isBefore(criteria.getTo()))
+			&& (criteria.getMessageType() == null || criteria.getMessageType().equals(message.getMessageType()));
+	}
+
+	private static final class IndexedArchive {
+		private final LocalDateTime archivedAt;
+		private final List<TextIndexSegment> segments;
+
+		IndexedArchive(LocalDateTime archivedAt, List<TextIndexSegment> segments) {
+			this.archivedAt = archivedAt;
+			this.segments = segments;
+		}
+	}
+}
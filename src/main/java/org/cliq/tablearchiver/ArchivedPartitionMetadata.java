@@ -0,0 +1,127 @@
+package org.cliq.tablearchiver;
+
+import java.time.LocalDateTime;
+
+/**
+ * A row of the archived partition registry: which archive table holds which range of messages, and whether the
+ * table is still on the primary, has moved to an archive server, or has been offloaded to a cold tier file.
+ */
+public class ArchivedPartitionMetadata {
+	private final String archiveTableName;
+	private final LocalDateTime startTimestamp;
+	private final LocalDateTime endTimestamp;
+	private final long minMessageId;
+	private final long maxMessageId;
+	private final LocalDateTime archivedAt;
+	private final long rowCount;
+	private final long dataLength;
+	private final long indexLength;
+	private final String offloadLocation;
+	private final String indexProfile;
+	private final String archiveServer;
+
+	public ArchivedPartitionMetadata(String archiveTableName, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long minMessageId, long maxMessageId, LocalDateTime archivedAt, long rowCount, long dataLength, long indexLength) {
+		this(archiveTableName, startTimestamp, endTimestamp, minMessageId, maxMessageId, archivedAt, rowCount, dataLength, indexLength, null, null);
+	}
+
+	public ArchivedPartitionMetadata(String archiveTableName, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long minMessageId, long maxMessageId, LocalDateTime archivedAt, long rowCount, long dataLength, long indexLength, String offloadLocation, String indexProfile) {
+		this(archiveTableName, startTimestamp, endTimestamp, minMessageId, maxMessageId, archivedAt, rowCount, dataLength, indexLength, offloadLocation, indexProfile, null);
+	}
+
+	public ArchivedPartitionMetadata(String archiveTableName, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long minMessageId, long maxMessageId, LocalDateTime archivedAt, long rowCount, long dataLength, long indexLength, String offloadLocation, String indexProfile, String archiveServer) {
+		this.archiveTableName = archiveTableName;
+		this.startTimestamp = startTimestamp;
+		this.endTimestamp = endTimestamp;
+		this.minMessageId = minMessageId;
+		this.maxMessageId = maxMessageId;
+		this.archivedAt = archivedAt;
+		this.rowCount = rowCount;
+		this.dataLength = dataLength;
+		this.indexLength = indexLength;
+		this.offloadLocation = offloadLocation;
+		this.indexProfile = indexProfile;
+		this.archiveServer = archiveServer;
+	}
+
+	public String getArchiveTableName() { return archiveTableName; }
+	public LocalDateTime getStartTimestamp() { return startTimestamp; }
+	public LocalDateTime getEndTimestamp() { return endTimestamp; }
+	public long getMinMessageId() { return minMessageId; }
+	public long getMaxMessageId() { return maxMessageId; }
+	public LocalDateTime getArchivedAt() { return archivedAt; }
+	public long getRowCount() { return rowCount; }
+	public long getDataLength() { return dataLength; }
+	public long getIndexLength() { return indexLength; }
+
+	/**
+	 * @return The cold tier file holding the archive's rows, or null while they are in the MySQL archive table.
+	 */
+	public String getOffloadLocation() { return offloadLocation; }
+
+	/**
+	 * @return True if the archive table was offloaded to a cold tier file and dropped from MySQL.
+	 */
+	public boolean isOffloaded() { return offloadLocation != null; }
+
+	/**
+	 * @return The name of the {@link ArchiveIndexProfile} the archive table's indexes were rebuilt to, or null if it
+	 *         kept the indexes of the messages table.
+	 */
+	public String getIndexProfile() { return indexProfile; }
+
+	/**
+	 * @return The name of the archive server the archive table was moved to, or null while it is on the primary.
+	 */
+	public String getArchiveServer() { return archiveServer; }
+
+	/**
+	 * @return True if the archive table lives on an archive server rather than on the primary.
+	 */
+	public boolean isRemote() { return archiveServer != null; }
+
+	/**
+	 * @param offloadLocation The cold tier file the archive was offloaded to.
+	 * @return A copy of this registry row pointing at the file.
+	 */
+	ArchivedPartitionMetadata withOffloadLocation(String offloadLocation) {
+		return new ArchivedPartitionMetadata(archiveTableName, startTimestamp, endTimestamp, minMessageId, maxMessageId,
+			archivedAt, rowCount, dataLength, indexLength, offloadLocation, indexProfile, archiveServer);
+	}
+
+	/**
+	 * @param indexProfile The index profile the archive table's indexes were rebuilt to.
+	 * @param indexLength The secondary index bytes after the rebuild.
+	 * @return A copy of this registry row recording the profile.
+	 */
+	ArchivedPartitionMetadata withIndexProfile(String indexProfile, long indexLength) {
+		return new ArchivedPartitionMetadata(archiveTableName, startTimestamp, endTimestamp, minMessageId, maxMessageId,
+			archivedAt, rowCount, dataLength, indexLength, offloadLocation, indexProfile, archiveServer);
+	}
+
+	/**
+	 * @param archiveServer The archive server the archive table was moved to.
+	 * @return A copy of this registry row pointing at the server.
+	 */
+	ArchivedPartitionMetadata withArchiveServer(String archiveServer) {
+		return new ArchivedPartitionMetadata(archiveTableName, startTimestamp, endTimestamp, minMessageId, maxMessageId,
+			archivedAt, rowCount, dataLength, indexLength, offloadLocation, indexProfile, archiveServer);
+	}
+
+	@Override
+	public String toString() {
+		return "ArchivedPartitionMetadata{" +
+			"archiveTableName='" + archiveTableName + '\'' +
+			", startTimestamp=" + startTimestamp +
+			", endTimestamp=" + endTimestamp +
+			", minMessageId=" + minMessageId +
+			", maxMessageId=" + maxMessageId +
+			", archivedAt=" + archivedAt +
+			", rowCount=" + rowCount +
+			", dataLength=" + dataLength +
+			", indexLength=" + indexLength +
+			", offloadLocation=" + (offloadLocation == null ? null : "'" + offloadLocation + "'") +
+			", indexProfile=" + (indexProfile == null ? null : "'" + indexProfile + "'") +
+			", archiveServer=" + (archiveServer == null ? null : "'" + archiveServer + "'") +
+			'}';
+	}
+}
@@ -1,22 +1,77 @@
 package org.cliq.tablearchiver;
 
+import javax.sql.DataSource;
+
+import java.time.Duration;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 /**
  * Configuration for the PartitionArchiver tool.
  */
 public class ArchiverConfig {
 
+	private static final StructuredLogger log = StructuredLogger.getLogger(ArchiverConfig.class);
+
 	private final String messagesTable;
 	private final String archivedMetadataTable;
 	private final Function<String,String> archiveTableNameSupplier;
+	private final LockWaitPolicy lockWaitPolicy;
+	private final boolean exactRowCount;
+	private final PartitionScheme partitionScheme;
+	private final int futurePartitions;
+	private final LongConsumer maxValuePartitionAlert;
+	private final Period retentionPeriod;
+	private final Duration archivalCheckInterval;
+	private final int maxPartitionsPerRun;
+	private final long maxThreadsRunning;
+	private final long maxHistoryListLength;
+	private final long maxReplicaLagSeconds;
+	private final ArchiverMetrics metrics;
+	private final String presenceFilterTable;
+	private final double presenceFilterFalsePositiveRate;
+	private final List<ArchivalListener> archivalListeners;
+	private final String compactionTableOptions;
+	private final int compactionChunkRows;
+	private final Duration compactionChunkPause;
+	private final ArchiveIndexProfile indexProfile;
+	private final String chatsTable;
+	private final int chatRepairChunkRows;
+	private final Map<String, DataSource> archiveServers;
 
 	// Private constructor to enforce usage of the Builder
 	private ArchiverConfig(Builder builder) {
 		this.messagesTable = builder.messagesTable;
 		this.archivedMetadataTable = builder.archivedMetadataTable;
 		this.archiveTableNameSupplier = builder.archiveTableNameSupplier;
+		this.lockWaitPolicy = builder.lockWaitPolicy;
+		this.exactRowCount = builder.exactRowCount;
+		this.partitionScheme = builder.partitionScheme;
+		this.futurePartitions = builder.futurePartitions;
+		this.maxValuePartitionAlert = builder.maxValuePartitionAlert;
+		this.retentionPeriod = builder.retentionPeriod;
+		this.archivalCheckInterval = builder.archivalCheckInterval;
+		this.maxPartitionsPerRun = builder.maxPartitionsPerRun;
+		this.maxThreadsRunning = builder.maxThreadsRunning;
+		this.maxHistoryListLength = builder.maxHistoryListLength;
+		this.maxReplicaLagSeconds = builder.maxReplicaLagSeconds;
+		this.metrics = builder.metrics;
+		this.presenceFilterTable = builder.presenceFilterTable;
+		this.presenceFilterFalsePositiveRate = builder.presenceFilterFalsePositiveRate;
+		this.archivalListeners = List.copyOf(builder.archivalListeners);
+		this.compactionTableOptions = builder.compactionTableOptions;
+		this.compactionChunkRows = builder.compactionChunkRows;
+		this.compactionChunkPause = builder.compactionChunkPause;
+		this.indexProfile = builder.indexProfile;
+		this.chatsTable = builder.chatsTable;
+		this.chatRepairChunkRows = builder.chatRepairChunkRows;
+		this.archiveServers = Map.copyOf(builder.archiveServers);
 	}
 
 	/**
@@ -44,7 +99,218 @@ public class ArchiverConfig {
 		return archiveTableNameSupplier;
 	}
 
+	/**
+	 * Get the lock-aware archival policy.
+	 * @return The policy bounding metadata lock waits of the archival DDL, or null to wait without limit.
+	 */
+	public LockWaitPolicy getLockWaitPolicy()
+	{
+		return lockWaitPolicy;
+	}
+
+	/**
+	 * Whether the archiver counts the rows of a partition exactly instead of using the InnoDB estimate.
+	 * @return True for an exact COUNT(*), which scans the partition.
+	 */
+	public boolean isExactRowCount()
+	{
+		return exactRowCount;
+	}
+
+	/**
+	 * Get the scheme deciding the bounds and names of the partitions the partition manager creates.
+	 * @return The partition scheme.
+	 */
+	public PartitionScheme getPartitionScheme()
+	{
+		return partitionScheme;
+	}
+
+	/**
+	 * Get the number of partitions the partition manager keeps ahead of the current one.
+	 * @return The number of future partitions.
+	 */
+	public int getFuturePartitions()
+	{
+		return futurePartitions;
+	}
 
+	/**
+	 * Get the callback invoked with the (estimated) row count when rows have reached the MAXVALUE partition.
+	 * @return The alert callback.
+	 */
+	public LongConsumer getMaxValuePartitionAlert()
+	{
+		return maxValuePartitionAlert;
+	}
+
+	/**
+	 * Get the retention policy of the archival scheduler: partitions whose range ended longer ago are archived.
+	 * @return The retention period.
+	 */
+	public Period getRetentionPeriod()
+	{
+		return retentionPeriod;
+	}
+
+	/**
+	 * Get the time between two runs of the archival scheduler.
+	 * @return The check interval.
+	 */
+	public Duration getArchivalCheckInterval()
+	{
+		return archivalCheckInterval;
+	}
+
+	/**
+	 * Get the maximum number of partitions the archival scheduler archives back to back in one quiet window.
+	 * @return The maximum partitions per run.
+	 */
+	public int getMaxPartitionsPerRun()
+	{
+		return maxPartitionsPerRun;
+	}
+
+	/**
+	 * Get the Threads_running level above which the archival scheduler defers work.
+	 * @return The threshold.
+	 */
+	public long getMaxThreadsRunning()
+	{
+		return maxThreadsRunning;
+	}
+
+	/**
+	 * Get the InnoDB history list length above which the archival scheduler defers work.
+	 * @return The threshold.
+	 */
+	public long getMaxHistoryListLength()
+	{
+		return maxHistoryListLength;
+	}
+
+	/**
+	 * Get the replica lag, in seconds, above which the archival scheduler defers work.
+	 * @return The threshold.
+	 */
+	public long getMaxReplicaLagSeconds()
+	{
+		return maxReplicaLagSeconds;
+	}
+
+	/**
+	 * Get the metrics sink receiving archival step timings, lock waits and outcomes.
+	 * @return The metrics sink; {@link ArchiverMetrics#NOOP} unless one was set.
+	 */
+	public ArchiverMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Get the table holding the chat and sender presence filters of each archive.
+	 * @return The presence filter table name, or null if presence filters are disabled.
+	 */
+	public String getPresenceFilterTable()
+	{
+		return presenceFilterTable;
+	}
+
+	/**
+	 * Get the false positive rate the presence filters are sized for.
+	 * @return The target false positive rate.
+	 */
+	public double getPresenceFilterFalsePositiveRate()
+	{
+		return presenceFilterFalsePositiveRate;
+	}
+
+	/**
+	 * Get the callbacks run after each committed archival.
+	 * @return The archival listeners, in registration order.
+	 */
+	public List<ArchivalListener> getArchivalListeners()
+	{
+		return archivalListeners;
+	}
+
+	/**
+	 * Get the table options the archive compactor creates merged archive tables with.
+	 * @return The table options, e.g. ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8.
+	 */
+	public String getCompactionTableOptions()
+	{
+		return compactionTableOptions;
+	}
+
+	/**
+	 * Get the number of rows the archive compactor copies per statement.
+	 * @return The chunk size.
+	 */
+	public int getCompactionChunkRows()
+	{
+		return compactionChunkRows;
+	}
+
+	/**
+	 * Get the pause the archive compactor takes after each copied chunk.
+	 * @return The pause between chunks.
+	 */
+	public Duration getCompactionChunkPause()
+	{
+		return compactionChunkPause;
+	}
+
+	/**
+	 * Get the secondary indexes archive tables are rebuilt to after the exchange.
+	 * @return The index profile, or null to keep the indexes of the messages table.
+	 */
+	public ArchiveIndexProfile getIndexProfile()
+	{
+		return indexProfile;
+	}
+
+	/**
+	 * Get the chats table whose denormalized last_message_* fields are repaired after each archival.
+	 * @return The chats table name, or null if the repair is disabled.
+	 */
+	public String getChatsTable()
+	{
+		return chatsTable;
+	}
+
+	/**
+	 * Get the number of chats the last-message repair updates per statement.
+	 * @return The chunk size.
+	 */
+	public int getChatRepairChunkRows()
+	{
+		return chatRepairChunkRows;
+	}
+
+	/**
+	 * Get the archive servers archive tables can be moved to, by name.
+	 * @return The archive servers; empty if none are configured.
+	 */
+	public Map<String, DataSource> getArchiveServers()
+	{
+		return archiveServers;
+	}
+
+	/**
+	 * Get the data source of the archive server an archive table was moved to.
+	 * @param name The server name recorded in the registry.
+	 * @return The data source.
+	 * @throws IllegalStateException if no archive server of that name is configured.
+	 */
+	public DataSource getArchiveServer(String name)
+	{
+		DataSource dataSource = archiveServers.get(name);
+		if (dataSource == null) {
+			throw new IllegalStateException("No archive server named '" + name + "' is configured");
+		}
+		return dataSource;
+	}
 
 	/**
 	 * Static method to get a new instance of the Builder.
@@ -61,6 +327,30 @@ public class ArchiverConfig {
 		private String messagesTable;
 		private String archivedMetadataTable;
 		private Function<String,String> archiveTableNameSupplier; // Consider Function<String, String>
+		private LockWaitPolicy lockWaitPolicy;
+		private boolean exactRowCount;
+		private PartitionScheme partitionScheme = PartitionGranularity.MONTH;
+		private int futurePartitions = 3;
+		// The MAXVALUE partition can no longer be split without copying its rows
+		private LongConsumer maxValuePartitionAlert = rows ->
+			log.error("partitions.maxValuePartitionFilled", null, "rows", rows);
+		private Period retentionPeriod = Period.ofMonths(6);
+		private Duration archivalCheckInterval = Duration.ofMinutes(15);
+		private int maxPartitionsPerRun = 3;
+		private long maxThreadsRunning = 32;
+		private long maxHistoryListLength = 1_000_000;
+		private long maxReplicaLagSeconds = 30;
+		private ArchiverMetrics metrics = ArchiverMetrics.NOOP;
+		private String presenceFilterTable = "archive_presence_filters";
+		private double presenceFilterFalsePositiveRate = 0.01;
+		private final List<ArchivalListener> archivalListeners = new ArrayList<>();
+		private String compactionTableOptions = "ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8";
+		private int compactionChunkRows = 10_000;
+		private Duration compactionChunkPause = Duration.ofMillis(50);
+		private ArchiveIndexProfile indexProfile;
+		private String chatsTable = "chats";
+		private int chatRepairChunkRows = 1_000;
+		private final Map<String, DataSource> archiveServers = new LinkedHashMap<>();
 
 		// Private constructor
 		private Builder() {}
@@ -100,6 +390,221 @@ public class ArchiverConfig {
 			return this;
 		}
 
+		/**
+		 * Enable lock-aware archival: bounded metadata lock waits with jittered retries.
+		 * @param lockWaitPolicy The policy, or null to let the DDL wait for its locks without limit.
+		 * @return The Builder instance.
+		 */
+		public Builder lockWaitPolicy(LockWaitPolicy lockWaitPolicy)
+		{
+			this.lockWaitPolicy = lockWaitPolicy;
+			return this;
+		}
+
+		/**
+		 * Record an exact row count for each archive. The count scans the partition, so the metadata step is no
+		 * longer constant-time; by default the InnoDB estimate from INFORMATION_SCHEMA.PARTITIONS is recorded.
+		 * @param exactRowCount True to count rows exactly.
+		 * @return The Builder instance.
+		 */
+		public Builder exactRowCount(boolean exactRowCount)
+		{
+			this.exactRowCount = exactRowCount;
+			return this;
+		}
+
+		/**
+		 * Set the span of the partitions the partition manager creates. Default is MONTH.
+		 * @param partitionGranularity The partition granularity.
+		 * @return The Builder instance.
+		 */
+		public Builder partitionGranularity(PartitionGranularity partitionGranularity)
+		{
+			return partitionScheme(partitionGranularity);
+		}
+
+		/**
+		 * Set the scheme deciding the bounds and names of the partitions the partition manager creates, e.g. an
+		 * {@link AdaptivePartitionScheme} sizing them from the measured volume.
+		 * @param partitionScheme The partition scheme.
+		 * @return The Builder instance.
+		 */
+		public Builder partitionScheme(PartitionScheme partitionScheme)
+		{
+			this.partitionScheme = partitionScheme;
+			return this;
+		}
+
+		/**
+		 * Set how many partitions the partition manager keeps ahead of the one covering today.
+		 * @param futurePartitions The number of future partitions.
+		 * @return The Builder instance.
+		 */
+		public Builder futurePartitions(int futurePartitions)
+		{
+			this.futurePartitions = futurePartitions;
+			return this;
+		}
+
+		/**
+		 * Set the callback invoked when rows have reached the MAXVALUE partition.
+		 * @param maxValuePartitionAlert Receives the estimated number of rows in the MAXVALUE partition.
+		 * @return The Builder instance.
+		 */
+		public Builder maxValuePartitionAlert(LongConsumer maxValuePartitionAlert)
+		{
+			this.maxValuePartitionAlert = maxValuePartitionAlert;
+			return this;
+		}
+
+		/**
+		 * Set the retention policy of the archival scheduler, e.g. {@code Period.ofMonths(6)} to archive
+		 * partitions older than 6 months.
+		 * @param retentionPeriod The retention period.
+		 * @return The Builder instance.
+		 */
+		public Builder retentionPeriod(Period retentionPeriod)
+		{
+			this.retentionPeriod = retentionPeriod;
+			return this;
+		}
+
+		/**
+		 * Set how often the archival scheduler looks for eligible partitions and a quiet window.
+		 * @param archivalCheckInterval The check interval.
+		 * @return The Builder instance.
+		 */
+		public Builder archivalCheckInterval(Duration archivalCheckInterval)
+		{
+			this.archivalCheckInterval = archivalCheckInterval;
+			return this;
+		}
+
+		/**
+		 * Set how many partitions the archival scheduler may archive back to back in one quiet window.
+		 * @param maxPartitionsPerRun The maximum partitions per run.
+		 * @return The Builder instance.
+		 */
+		public Builder maxPartitionsPerRun(int maxPartitionsPerRun)
+		{
+			this.maxPartitionsPerRun = maxPartitionsPerRun;
+			return this;
+		}
+
+		/**
+		 * Set the server load above which the archival scheduler defers work.
+		 * @param maxThreadsRunning The Threads_running threshold.
+		 * @param maxHistoryListLength The InnoDB history list length threshold.
+		 * @param maxReplicaLagSeconds The replica lag threshold, in seconds.
+		 * @return The Builder instance.
+		 */
+		public Builder loadThresholds(long maxThreadsRunning, long maxHistoryListLength, long maxReplicaLagSeconds)
+		{
+			this.maxThreadsRunning = maxThreadsRunning;
+			this.maxHistoryListLength = maxHistoryListLength;
+			this.maxReplicaLagSeconds = maxReplicaLagSeconds;
+			return this;
+		}
+
+		/**
+		 * Set the metrics sink receiving archival step timings, lock waits and outcomes, e.g. a
+		 * {@link SimpleArchiverMetrics} or an adapter to the application's metrics library.
+		 * @param metrics The metrics sink.
+		 * @return The Builder instance.
+		 */
+		public Builder metrics(ArchiverMetrics metrics)
+		{
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Set where the archiver stores the chat and sender presence filters it builds for each archive, and how
+		 * precise they are. A lower false positive rate skips more archives at about 4.8 more bits per distinct id for
+		 * every tenfold reduction.
+		 * @param presenceFilterTable The presence filter table, or null to build no filters.
+		 * @param falsePositiveRate The target false positive rate, e.g. 0.01.
+		 * @return The Builder instance.
+		 */
+		public Builder presenceFilters(String presenceFilterTable, double falsePositiveRate)
+		{
+			this.presenceFilterTable = presenceFilterTable;
+			this.presenceFilterFalsePositiveRate = falsePositiveRate;
+			return this;
+		}
+
+		/**
+		 * Add a callback run after each committed archival, e.g. an {@link ArchiveTextIndexer}. May be called more
+		 * than once; listeners run in the order they were added.
+		 * @param archivalListener The listener.
+		 * @return The Builder instance.
+		 */
+		public Builder archivalListener(ArchivalListener archivalListener)
+		{
+			this.archivalListeners.add(Objects.requireNonNull(archivalListener, "archivalListener cannot be null"));
+			return this;
+		}
+
+		/**
+		 * Set how the archive compactor builds merged archive tables. The default table options give an 8K-page
+		 * compressed table; "COMPRESSION='zlib'" selects page compression instead, where the file system supports
+		 * hole punching. Smaller chunks and longer pauses copy more slowly but hold locks and grow the history list
+		 * less.
+		 * @param tableOptions The table options of the merged tables.
+		 * @param chunkRows The number of rows copied per statement.
+		 * @param chunkPause The pause after each copied chunk.
+		 * @return The Builder instance.
+		 */
+		public Builder compaction(String tableOptions, int chunkRows, Duration chunkPause)
+		{
+			this.compactionTableOptions = tableOptions;
+			this.compactionChunkRows = chunkRows;
+			this.compactionChunkPause = chunkPause;
+			return this;
+		}
+
+		/**
+		 * Set the secondary indexes archive tables are rebuilt to after the exchange, e.g.
+		 * {@link ArchiveIndexProfile#archiveReads()}. Unset, archives keep the indexes of the messages table.
+		 * @param indexProfile The index profile, or null.
+		 * @return The Builder instance.
+		 */
+		public Builder indexProfile(ArchiveIndexProfile indexProfile)
+		{
+			this.indexProfile = indexProfile;
+			return this;
+		}
+
+		/**
+		 * Set which chats table the archiver repairs after each archival (see {@link ChatSummaryRepair}), and how many
+		 * chats one UPDATE covers.
+		 * @param chatsTable The chats table, or null to skip the repair.
+		 * @param chunkRows The number of chats per statement.
+		 * @return The Builder instance.
+		 */
+		public Builder chatSummaryRepair(String chatsTable, int chunkRows)
+		{
+			this.chatsTable = chatsTable;
+			this.chatRepairChunkRows = chunkRows;
+			return this;
+		}
+
+		/**
+		 * Add an archive server, a MySQL instance the {@link TablespaceMover} moves archive tables to. Readers open
+		 * archives registered under the name on this data source. May be called once per server.
+		 * @param name The server name stored in the registry, at most 64 characters.
+		 * @param dataSource The data source of the server, holding a schema of the same name as the primary's.
+		 * @return The Builder instance.
+		 */
+		public Builder archiveServer(String name, DataSource dataSource)
+		{
+			Objects.requireNonNull(name, "archive server name cannot be null");
+			if (name.length() > 64) {
+				throw new IllegalArgumentException("archive server name is longer than 64 characters: " + name);
+			}
+			this.archiveServers.put(name, Objects.requireNonNull(dataSource, "archive server dataSource cannot be null"));
+			return this;
+		}
 
 		/**
 		 * Build the ArchiverConfig instance.
@@ -110,6 +615,28 @@ public class ArchiverConfig {
 			Objects.requireNonNull(messagesTable, "messagesTable cannot be null");
 			Objects.requireNonNull(archivedMetadataTable, "archivedMetadataTable cannot be null");
 			Objects.requireNonNull(archiveTableNameSupplier, "archiveTableNameSupplier (or Function) cannot be null");
+			Objects.requireNonNull(partitionScheme, "partitionScheme cannot be null");
+			Objects.requireNonNull(maxValuePartitionAlert, "maxValuePartitionAlert cannot be null");
+			if (futurePartitions < 0) {
+				throw new IllegalArgumentException("futurePartitions cannot be negative: " + futurePartitions);
+			}
+			Objects.requireNonNull(retentionPeriod, "retentionPeriod cannot be null");
+			Objects.requireNonNull(archivalCheckInterval, "archivalCheckInterval cannot be null");
+			Objects.requireNonNull(metrics, "metrics cannot be null");
+			Objects.requireNonNull(compactionTableOptions, "compactionTableOptions cannot be null");
+			Objects.requireNonNull(compactionChunkPause, "compactionChunkPause cannot be null");
+			if (chatRepairChunkRows <= 0) {
+				throw new IllegalArgumentException("chatRepairChunkRows must be positive: " + chatRepairChunkRows);
+			}
+			if (compactionChunkRows <= 0) {
+				throw new IllegalArgumentException("compactionChunkRows must be positive: " + compactionChunkRows);
+			}
+			if (!(presenceFilterFalsePositiveRate > 0 && presenceFilterFalsePositiveRate < 1)) {
+				throw new IllegalArgumentException("presence filter false positive rate must be in (0, 1): " + presenceFilterFalsePositiveRate);
+			}
+			if (maxPartitionsPerRun <= 0) {
+				throw new IllegalArgumentException("maxPartitionsPerRun must be positive: " + maxPartitionsPerRun);
+			}
 			return new ArchiverConfig(this);
 		}
 	}
@@ -0,0 +1,53 @@
+package org.cliq.tablearchiver;
+
+import java.time.Duration;
+
+/**
+ * Receives the measurements of {@link PartitionArchiver}. Implement it to feed the application's metrics library:
+ * step durations map to histograms, outcomes to counters, and the time of the last success to a gauge.
+ * Every method has an empty default, so an implementation only overrides what it records.
+ * <p>
+ * Methods are called on the archiving thread and should not block.
+ */
+public interface ArchiverMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	ArchiverMetrics NOOP = new ArchiverMetrics() {};
+
+	/**
+	 * Called after every archival step, whether it succeeded or failed.
+	 *
+	 * @param step The step, e.g. "exchangePartition".
+	 * @param duration The wall-clock time of the step, lock waits included.
+	 * @param success False if the step threw.
+	 */
+	default void recordStep(String step, Duration duration, boolean success) {}
+
+	/**
+	 * Called after a step that had to wait for metadata locks under the {@link LockWaitPolicy}.
+	 *
+	 * @param step The step.
+	 * @param waited The time spent on timed-out attempts, backoff, and waiting for long-running lock holders.
+	 */
+	default void recordLockWait(String step, Duration waited) {}
+
+	/**
+	 * Called when a partition has been archived and committed.
+	 *
+	 * @param partitionName The archived partition.
+	 * @param rowCount The number of rows archived.
+	 * @param duration The duration of the whole archival.
+	 */
+	default void archivalSucceeded(String partitionName, long rowCount, Duration duration) {}
+
+	/**
+	 * Called when an archival failed and was rolled back.
+	 *
+	 * @param partitionName The partition that was being archived.
+	 * @param step The step that failed.
+	 * @param error The error.
+	 */
+	default void archivalFailed(String partitionName, String step, Throwable error) {}
+}
@@ -0,0 +1,307 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keyset-paginated chat history that scrolls from the live messages table into the archive tables.
+ * <p>
+ * Every page is a seek on idx_chat_created_at strictly below the last message returned, never an OFFSET, so a page
+ * deep in the archives costs the same as the first one. When the current table runs out, the page continues in the
+ * next older archive table listed in the registry whose presence filter says it may hold the chat. The position is
+ * handed to clients as an opaque continuation token.
+ * Archives offloaded by {@link ArchiveOffloader} are read from their cold tier file with the same seek, and archives
+ * moved by {@link TablespaceMover} with a connection to their archive server. Given a {@link ReadRoutingDataSource},
+ * registry and archive reads go to replicas that are current enough.
+ */
+public class ChatHistoryService implements AutoCloseable {
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final ExecutorService prefetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+	private final ColdTierReaders coldTierReaders = new ColdTierReaders();
+
+	public ChatHistoryService(DataSource dataSource, ArchiverConfig config) {
+		this(dataSource, config, null);
+	}
+
+	/**
+	 * @param dataSource The data source holding the messages, archive and registry tables.
+	 * @param config The archiver configuration naming those tables.
+	 * @param registryCache A registry cache to list archive tables from instead of querying the registry, or null.
+	 */
+	public ChatHistoryService(DataSource dataSource, ArchiverConfig config, ArchiveRegistryCache registryCache) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+	}
+
+	/**
+	 * Fetches one page of a chat's history, newest first.
+	 *
+	 * @param chatId The chat.
+	 * @param continuationToken The token of the previous page, or null for the newest page.
+	 * @param pageSize The maximum number of messages in the page.
+	 * @return The page, whose next token is null once the oldest archive is exhausted.
+	 * @throws SQLException If a database error occurs.
+	 * @throws IllegalArgumentException If the continuation token is malformed.
+	 */
+	public Page fetchPage(long chatId, String continuationToken, int pageSize) throws SQLException {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+		}
+		Position position = continuationToken == null ? null : Position.decode(continuationToken);
+
+		try (Connection conn = dataSource.getConnection()) {
+			List<ArchivedPartitionMetadata> archives = archivesOlderThan(conn, chatId, position);
+			List<String> tables = new ArrayList<>(archives.size() + 1);
+			tables.add(config.getMessagesTable());
+			for (ArchivedPartitionMetadata archive : archives) {
+				tables.add(archive.getArchiveTableName());
+			}
+			int first = position == null ? 0 : Math.max(0, tables.indexOf(position.table));
+
+			List<ChatMessage> messages = new ArrayList<>(pageSize);
+			Position last = position;
+			for (int i = first; i < tables.size() && messages.size() < pageSize; i++) {
+				String table = tables.get(i);
+				ArchivedPartitionMetadata archive = i == 0 ? null : archives.get(i - 1);
+				List<ChatMessage> found;
+				if (archive != null && archive.isOffloaded()) {
+					found = seekCold(archive, chatId, last, pageSize - messages.size());
+				} else {
+					DataSource source = archive == null ? dataSource : ReadRoutingDataSource.archiveSource(dataSource, config, archive);
+					if (source == dataSource) {
+						found = seek(conn, table, chatId, last, pageSize - messages.size());
+					} else {
+						try (Connection archiveConn = source.getConnection()) {
+							found = seek(archiveConn, table, chatId, last, pageSize - messages.size());
+						}
+					}
+				}
+				for (ChatMessage message : found) {
+					messages.add(message);
+					last = new Position(table, message.getCreatedAt(), message.getMessageId());
+				}
+			}
+			String nextToken = messages.size() < pageSize || last == null ? null : last.encode();
+			return new Page(messages, nextToken);
+		}
+	}
+
+	/**
+	 * Opens a cursor over a chat's history that prefetches the next page while the current one is being rendered.
+	 *
+	 * @param chatId The chat.
+	 * @param continuationToken The token to resume from, or null to start at the newest message.
+	 * @param pageSize The maximum number of messages per page.
+	 * @return The cursor.
+	 */
+	public Cursor openCursor(long chatId, String continuationToken, int pageSize) {
+		return new Cursor(chatId, continuationToken, pageSize);
+	}
+
+	// Every archive that may hold messages of the chat older than the position, newest first; the live table comes
+	// before them. Archives whose presence filter rules the chat out are skipped.
+	private List<ArchivedPartitionMetadata> archivesOlderThan(Connection conn, long chatId, Position position) throws SQLException {
+		LocalDateTime before = position == null ? null : position.createdAt;
+		if (registryCache != null) {
+			return registryCache.findOverlappingChat(chatId, null, before);
+		}
+		DataSource registrySource = ReadRoutingDataSource.registrySource(dataSource);
+		if (registrySource == dataSource) {
+			return registry.findOverlappingChat(conn, chatId, null, before);
+		}
+		try (Connection replica = registrySource.getConnection()) {
+			return registry.findOverlappingChat(replica, chatId, null, before);
+		}
+	}
+
+	private List<ChatMessage> seek(Connection conn, String table, long chatId, Position after, int limit) throws SQLException {
+		String sql = "SELECT " + ChatMessage.COLUMNS + " FROM " + table + " WHERE chat_id = ?" +
+			(after == null ? "" : " AND (created_at < ? OR (created_at = ? AND message_id < ?))") +
+			" ORDER BY created_at DESC, message_id DESC LIMIT ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			int i = 1;
+			stmt.setLong(i++, chatId);
+			if (after != null) {
+				Timestamp createdAt = Timestamp.valueOf(after.createdAt);
+				stmt.setTimestamp(i++, createdAt);
+				stmt.setTimestamp(i++, createdAt);
+				stmt.setLong(i++, after.messageId);
+			}
+			stmt.setInt(i, limit);
+			List<ChatMessage> messages = new ArrayList<>(limit);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					messages.add(ChatMessage.fromResultSet(rs, table));
+				}
+			}
+			return messages;
+		}
+	}
+
+	private List<ChatMessage> seekCold(ArchivedPartitionMetadata archive, long chatId, Position after, int limit) throws SQLException {
+		try {
+			return coldTierReaders.get(archive).chatPage(chatId, after == null ? null : after.createdAt,
+				after == null ? 0 : after.messageId, limit, archive.getArchiveTableName());
+		} catch (IOException e) {
+			throw new SQLException("Could not read cold tier file " + archive.getOffloadLocation(), e);
+		}
+	}
+
+	@Override
+	public void close() {
+		prefetchExecutor.shutdownNow();
+		coldTierReaders.close();
+	}
+
+	/**
+	 * One page of chat history.
+	 */
+	public static class Page {
+		private final List<ChatMessage> messages;
+		private final String nextToken;
+
+		Page(List<ChatMessage> messages, String nextToken) {
+			this.messages = Collections.unmodifiableList(messages);
+			this.nextToken = nextToken;
+		}
+
+		/**
+		 * @return The messages of this page, newest first.
+		 */
+		public List<ChatMessage> getMessages() { return messages; }
+
+		/**
+		 * @return The opaque token for the next older page, or null if this is the last page.
+		 */
+		public String getNextToken() { return nextToken; }
+
+		public boolean hasNext() { return nextToken != null; }
+	}
+
+	/**
+	 * Iterates over a chat's history page by page. As soon as a page is handed out, the following page is
+	 * fetched on a virtual thread, so scrolling back rarely waits for the database.
+	 */
+	public class Cursor {
+		private final long chatId;
+		private final int pageSize;
+		private String token;
+		private boolean exhausted;
+		private CompletableFuture<Page> prefetched;
+
+		private Cursor(long chatId, String token, int pageSize) {
+			this.chatId = chatId;
+			this.token = token;
+			this.pageSize = pageSize;
+		}
+
+		public boolean hasNext() {
+			return !exhausted;
+		}
+
+		/**
+		 * @return The next older page, or an empty page once the history is exhausted.
+		 * @throws SQLException If a database error occurs.
+		 */
+		public Page next() throws SQLException {
+			if (exhausted) {
+				return new Page(Collections.emptyList(), null);
+			}
+			Page page = prefetched != null ? awaitPrefetch() : fetchPage(chatId, token, pageSize);
+			prefetched = null;
+			token = page.getNextToken();
+			if (token == null) {
+				exhausted = true;
+			} else {
+				String nextToken = token;
+				prefetched = CompletableFuture.supplyAsync(() -> {
+					try {
+						return fetchPage(chatId, nextToken, pageSize);
+					} catch (SQLException e) {
+						throw new CompletionException(e);
+					}
+				}, prefetchExecutor);
+			}
+			return page;
+		}
+
+		/**
+		 * @return The token to resume this cursor later, or null if the history is exhausted.
+		 */
+		public String getContinuationToken() {
+			return token;
+		}
+
+		private Page awaitPrefetch() throws SQLException {
+			try {
+				return prefetched.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while fetching chat history", e);
+			} catch (ExecutionException e) {
+				prefetched = null;
+				if (e.getCause() instanceof SQLException sqlException) {
+					throw sqlException;
+				}
+				throw new SQLException("Chat history prefetch failed", e.getCause());
+			}
+		}
+	}
+
+	// Continuation position: the last message returned and the table it came from.
+	private static class Position {
+		private final String table;
+		private final LocalDateTime createdAt;
+		private final long messageId;
+
+		Position(String table, LocalDateTime createdAt, long messageId) {
+			this.table = table;
+			this.createdAt = createdAt;
+			this.messageId = messageId;
+		}
+
+		String encode() {
+			String raw = table + '|' + createdAt.toEpochSecond(ZoneOffset.UTC) + '|' + createdAt.getNano() + '|' + messageId;
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+		}
+
+		static Position decode(String token) {
+			try {
+				String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+				String[] parts = raw.split("\\|");
+				if (parts.length != 4) {
+					throw new IllegalArgumentException("Malformed continuation token: " + token);
+				}
+				LocalDateTime createdAt = LocalDateTime.ofEpochSecond(Long.parseLong(parts[1]), Integer.parseInt(parts[2]), ZoneOffset.UTC);
+				return new Position(parts[0], createdAt, Long.parseLong(parts[3]));
+			} catch (IllegalArgumentException e) {
+				// NumberFormatException and Base64 errors are both IllegalArgumentExceptions
+				throw new IllegalArgumentException("Malformed continuation token: " + token, e);
+			}
+		}
+	}
+}
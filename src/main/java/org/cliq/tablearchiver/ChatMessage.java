@@ -0,0 +1,87 @@
+package org.cliq.tablearchiver;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+/**
+ * A message read back from the live messages table or one of its archive tables.
+ */
+public class ChatMessage {
+
+	/**
+	 * Column list selected by every read path, in the order {@link #fromResultSet(ResultSet)} expects.
+	 */
+	static final String COLUMNS = "message_id, chat_id, sender_id, message_type, content, created_at";
+
+	/**
+	 * Newest first, ties broken by the higher message id. This is the order of idx_chat_created_at.
+	 */
+	static final Comparator<ChatMessage> NEWEST_FIRST = Comparator
+		.comparing(ChatMessage::getCreatedAt, Comparator.reverseOrder())
+		.thenComparing(ChatMessage::getMessageId, Comparator.reverseOrder());
+
+	private final long messageId;
+	private final long chatId;
+	private final long senderId;
+	private final String messageType;
+	private final String content;
+	private final LocalDateTime createdAt;
+	private final String sourceTable;
+
+	public ChatMessage(long messageId, long chatId, long senderId, String messageType, String content, LocalDateTime createdAt, String sourceTable) {
+		this.messageId = messageId;
+		this.chatId = chatId;
+		this.senderId = senderId;
+		this.messageType = messageType;
+		this.content = content;
+		this.createdAt = createdAt;
+		this.sourceTable = sourceTable;
+	}
+
+	/**
+	 * Reads the current row of a result set selected with {@link #COLUMNS}.
+	 *
+	 * @param rs The result set positioned on a row.
+	 * @param sourceTable The table the row was read from.
+	 * @return The message.
+	 * @throws SQLException If a database error occurs.
+	 */
+	static ChatMessage fromResultSet(ResultSet rs, String sourceTable) throws SQLException {
+		return new ChatMessage(
+			rs.getLong(1),
+			rs.getLong(2),
+			rs.getLong(3),
+			rs.getString(4),
+			rs.getString(5),
+			rs.getTimestamp(6).toLocalDateTime(),
+			sourceTable
+		);
+	}
+
+	public long getMessageId() { return messageId; }
+	public long getChatId() { return chatId; }
+	public long getSenderId() { return senderId; }
+	public String getMessageType() { return messageType; }
+	public String getContent() { return content; }
+	public LocalDateTime getCreatedAt() { return createdAt; }
+
+	/**
+	 * @return The live or archive table this message was read from.
+	 */
+	public String getSourceTable() { return sourceTable; }
+
+	@Override
+	public String toString() {
+		return "ChatMessage{" +
+			"messageId=" + messageId +
+			", chatId=" + chatId +
+			", senderId=" + senderId +
+			", messageType='" + messageType + '\'' +
+			", content='" + content + '\'' +
+			", createdAt=" + createdAt +
+			", sourceTable='" + sourceTable + '\'' +
+			'}';
+	}
+}
@@ -0,0 +1,131 @@
+package org.cliq.tablearchiver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Repairs the denormalized {@code last_message_*} fields of the chats whose last message has just been archived.
+ * <p>
+ * The chats are found set-wise: their last_message_id lies in the archive's message_id range. They are walked in
+ * chat_id order, {@link ArchiverConfig#getChatRepairChunkRows()} chats per autocommitted statement, so no statement
+ * holds row locks on the chats table for long. A chat that still has messages in the live table (its fields were
+ * stale) is repointed at its newest live message, found with one idx_chat_created_at dive. Every other chat is quiet
+ * since the archived partition: its fields still describe its newest message, which now lives in the archive, so
+ * {@code last_message_archive_table} is set to the archive's registry name instead. The chat list can then tell
+ * archived last messages apart without probing the messages table for each chat.
+ */
+public class ChatSummaryRepair {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ChatSummaryRepair.class);
+
+	private final ArchiverConfig config;
+
+	public ChatSummaryRepair(ArchiverConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * Repairs the chats whose last message falls into the archive's message_id range. Safe to run again, e.g. for
+	 * archives created before this repair existed.
+	 *
+	 * @param conn The database connection, in autocommit mode.
+	 * @param archive The registry row of the archive.
+	 * @return The number of chats repointed at a live message or marked as archive-resident.
+	 * @throws SQLException If a database error occurs; the chunks already done stay repaired.
+	 */
+	public long repair(Connection conn, ArchivedPartitionMetadata archive) throws SQLException {
+		long started = System.nanoTime();
+		String chats = config.getChatsTable();
+		String messages = config.getMessagesTable();
+		// MAX(created_at) of one chat is the first entry of its idx_chat_created_at range
+		String relinkSql = "UPDATE " + chats + " c" +
+			" JOIN " + messages + " m ON m.chat_id = c.chat_id" +
+			" AND m.created_at = (SELECT MAX(l.created_at) FROM " + messages + " l WHERE l.chat_id = c.chat_id)" +
+			" SET c.last_message_id = m.message_id, c.last_message_sender_id = m.sender_id," +
+			" c.last_message_content_preview = LEFT(m.content, 500), c.last_message_created_at = m.created_at," +
+			" c.last_message_archive_table = NULL" +
+			" WHERE c.chat_id > ? AND c.chat_id <= ? AND c.last_message_id BETWEEN ? AND ?";
+		String markSql = "UPDATE " + chats + " SET last_message_archive_table = ?" +
+			" WHERE chat_id > ? AND chat_id <= ? AND last_message_id BETWEEN ? AND ?";
+
+		long[] counts = new long[2];
+		try (PreparedStatement relink = conn.prepareStatement(relinkSql);
+			 PreparedStatement mark = conn.prepareStatement(markSql)) {
+			forEachChunk(conn, (after, upTo) -> {
+				relink.setLong(1, after);
+				relink.setLong(2, upTo);
+				relink.setLong(3, archive.getMinMessageId());
+				relink.setLong(4, archive.getMaxMessageId());
+				counts[0] += relink.executeUpdate();
+
+				// Whatever still points into the archive has no live message left
+				mark.setString(1, archive.getArchiveTableName());
+				mark.setLong(2, after);
+				mark.setLong(3, upTo);
+				mark.setLong(4, archive.getMinMessageId());
+				mark.setLong(5, archive.getMaxMessageId());
+				counts[1] += mark.executeUpdate();
+			});
+		}
+		log.info("chatRepair.completed", "archiveTable", archive.getArchiveTableName(), "relinked", counts[0],
+			"markedArchived", counts[1], "durationMs", (System.nanoTime() - started) / 1_000_000);
+		return counts[0] + counts[1];
+	}
+
+	/**
+	 * Points the chats marked with one of the given archives at the archive that replaced them.
+	 *
+	 * @param conn The database connection, in autocommit mode.
+	 * @param replacedTables The archive tables that were merged away.
+	 * @param archiveTableName The archive table that now holds their messages.
+	 * @return The number of chats repointed.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public long repoint(Connection conn, List<String> replacedTables, String archiveTableName) throws SQLException {
+		String sql = "UPDATE " + config.getChatsTable() + " SET last_message_archive_table = ?" +
+			" WHERE chat_id > ? AND chat_id <= ? AND last_message_archive_table IN (" +
+			String.join(", ", Collections.nCopies(replacedTables.size(), "?")) + ")";
+		long[] repointed = new long[1];
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			forEachChunk(conn, (after, upTo) -> {
+				stmt.setString(1, archiveTableName);
+				stmt.setLong(2, after);
+				stmt.setLong(3, upTo);
+				for (int i = 0; i < replacedTables.size(); i++) {
+					stmt.setString(i + 4, replacedTables.get(i));
+				}
+				repointed[0] += stmt.executeUpdate();
+			});
+		}
+		return repointed[0];
+	}
+
+	// Walks the chats table in chat_id ranges (after, upTo] of at most chatRepairChunkRows chats
+	private void forEachChunk(Connection conn, Chunk chunk) throws SQLException {
+		String boundSql = "SELECT chat_id FROM " + config.getChatsTable() + " WHERE chat_id > ? ORDER BY chat_id LIMIT 1 OFFSET ?";
+		try (PreparedStatement bound = conn.prepareStatement(boundSql)) {
+			long after = 0;
+			while (after < Long.MAX_VALUE) {
+				bound.setLong(1, after);
+				bound.setInt(2, config.getChatRepairChunkRows() - 1);
+				long upTo = Long.MAX_VALUE;
+				try (ResultSet rs = bound.executeQuery()) {
+					if (rs.next()) {
+						upTo = rs.getLong(1);
+					}
+				}
+				chunk.run(after, upTo);
+				after = upTo;
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Chunk {
+		void run(long after, long upTo) throws SQLException;
+	}
+}
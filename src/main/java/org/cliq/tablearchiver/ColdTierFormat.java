@@ -0,0 +1,132 @@
+package org.cliq.tablearchiver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Layout of the cold tier files written by {@link ColdTierWriter} and read by {@link ColdTierReader}.
+ * <pre>
+ * file   := MAGIC block* footer footerLength:int32 MAGIC
+ * block  := column[0] ... column[n-1]            (each column encoded on its own, lengths in the footer)
+ * footer := version:int32 sourceTable:utf columnCount:int32 (name:utf encoding:utf)* totalRows:int64
+ *           blockCount:int32 blockInfo*
+ * blockInfo := offset:int64 length:int32 rows:int32 zoneMap columnLength:int32[columnCount]
+ * zoneMap   := min/max message_id, chat_id, sender_id, created_at (int64 each, created_at in epoch micros)
+ * </pre>
+ * Encodings: {@code delta-varint} stores the first value then the differences, zigzag varints; {@code varint} stores
+ * unsigned varints; {@code nullable-varint} stores value + 1, with 0 for NULL; {@code dictionary} stores the distinct
+ * values of the block followed by one code byte per row (0 for NULL); {@code deflate-string} stores the raw length
+ * followed by the deflated sequence of (length + 1, UTF-8 bytes) entries, with 0 for NULL. Timestamps are epoch
+ * microseconds of the DATETIME wall-clock value.
+ */
+final class ColdTierFormat {
+
+	static final byte[] MAGIC = "CLQCOLD1".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int DEFAULT_BLOCK_ROWS = 65_536;
+
+	static final int MESSAGE_ID = 0;
+	static final int CHAT_ID = 1;
+	static final int SENDER_ID = 2;
+	static final int MESSAGE_TYPE = 3;
+	static final int CONTENT = 4;
+	static final int MEDIA_URL = 5;
+	static final int THUMBNAIL_URL = 6;
+	static final int FILE_METADATA = 7;
+	static final int PARENT_MESSAGE_ID = 8;
+	static final int PARENT_MESSAGE_PREVIEW = 9;
+	static final int CREATED_AT = 10;
+	static final int UPDATED_AT = 11;
+	static final int DELETED_AT = 12;
+
+	static final String DELTA_VARINT = "delta-varint";
+	static final String VARINT = "varint";
+	static final String NULLABLE_VARINT = "nullable-varint";
+	static final String DICTIONARY = "dictionary";
+	static final String DEFLATE_STRING = "deflate-string";
+
+	// Every column of the messages table, so nothing is lost when the archive table is dropped
+	static final String[] COLUMN_NAMES = {
+		"message_id", "chat_id", "sender_id", "message_type", "content", "media_url", "thumbnail_url", "file_metadata",
+		"parent_message_id", "parent_message_preview", "created_at", "updated_at", "deleted_at"
+	};
+	static final String[] COLUMN_ENCODINGS = {
+		DELTA_VARINT, VARINT, VARINT, DICTIONARY, DEFLATE_STRING, DEFLATE_STRING, DEFLATE_STRING, DEFLATE_STRING,
+		NULLABLE_VARINT, DEFLATE_STRING, DELTA_VARINT, NULLABLE_VARINT, NULLABLE_VARINT
+	};
+	static final String SELECT_COLUMNS = String.join(", ", COLUMN_NAMES);
+
+	private ColdTierFormat() {
+	}
+
+	static long toMicros(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+	}
+
+	static LocalDateTime fromMicros(long micros) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Growable byte buffer for encoding a column of one block.
+	 */
+	static final class ByteSink {
+		private byte[] bytes = new byte[4096];
+		private int size;
+
+		void write(int b) {
+			ensure(1);
+			bytes[size++] = (byte) b;
+		}
+
+		void write(byte[] source, int offset, int length) {
+			ensure(length);
+			System.arraycopy(source, offset, bytes, size, length);
+			size += length;
+		}
+
+		void writeVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		byte[] array() { return bytes; }
+		int size() { return size; }
+
+		void reset() {
+			size = 0;
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+	}
+}
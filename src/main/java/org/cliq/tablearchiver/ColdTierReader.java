@@ -0,0 +1,397 @@
+package org.cliq.tablearchiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.cliq.tablearchiver.ColdTierFormat.*;
+
+/**
+ * Reads a cold tier file written by {@link ArchiveOffloader}.
+ * <p>
+ * Only the footer is read when the file is opened. Blocks are memory-mapped on first use and skipped entirely when
+ * their zone maps cannot match the query, and within a block only the columns the query needs are decoded. Blocks
+ * are visited newest first, so a query with a small limit stops as soon as no remaining block can hold a newer row.
+ * A reader is safe for concurrent use.
+ */
+public class ColdTierReader implements AutoCloseable {
+
+	private static final int FOOTER_TRAILER = Integer.BYTES + MAGIC.length;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final String sourceTable;
+	private final long rowCount;
+	private final Block[] blocks; // newest first, by the max created_at of their zone map
+	private final AtomicReferenceArray<MappedByteBuffer> mapped;
+
+	private ColdTierReader(Path path, FileChannel channel, String sourceTable, long rowCount, Block[] blocks) {
+		this.path = path;
+		this.channel = channel;
+		this.sourceTable = sourceTable;
+		this.rowCount = rowCount;
+		this.blocks = blocks;
+		this.mapped = new AtomicReferenceArray<>(blocks.length);
+	}
+
+	/**
+	 * Opens a cold tier file and reads its footer.
+	 *
+	 * @param path The file.
+	 * @return The reader.
+	 * @throws IOException If the file cannot be read or is not a cold tier file.
+	 */
+	public static ColdTierReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < MAGIC.length + FOOTER_TRAILER) {
+				throw new IOException("Not a cold tier file (too short): " + path);
+			}
+			ByteBuffer trailer = readFully(channel, size - FOOTER_TRAILER, FOOTER_TRAILER);
+			int footerLength = trailer.getInt();
+			byte[] magic = new byte[MAGIC.length];
+			trailer.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || footerLength <= 0 || footerLength > size - MAGIC.length - FOOTER_TRAILER) {
+				throw new IOException("Not a cold tier file (bad trailer): " + path);
+			}
+			ByteBuffer footerBuffer = readFully(channel, size - FOOTER_TRAILER - footerLength, footerLength);
+			DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBuffer.array()));
+
+			int version = footer.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported cold tier file version " + version + ": " + path);
+			}
+			String sourceTable = footer.readUTF();
+			int columnCount = footer.readInt();
+			if (columnCount != COLUMN_NAMES.length) {
+				throw new IOException("Unexpected column count " + columnCount + " in " + path);
+			}
+			for (int i = 0; i < columnCount; i++) {
+				String name = footer.readUTF();
+				String encoding = footer.readUTF();
+				if (!name.equals(COLUMN_NAMES[i]) || !encoding.equals(COLUMN_ENCODINGS[i])) {
+					throw new IOException("Unexpected column " + name + " (" + encoding + ") at position " + i + " in " + path);
+				}
+			}
+			long rowCount = footer.readLong();
+			Block[] blocks = new Block[footer.readInt()];
+			for (int b = 0; b < blocks.length; b++) {
+				long offset = footer.readLong();
+				int length = footer.readInt();
+				int rows = footer.readInt();
+				long[] zoneMap = new long[8];
+				for (int i = 0; i < zoneMap.length; i++) {
+					zoneMap[i] = footer.readLong();
+				}
+				int[] columnLengths = new int[columnCount];
+				for (int i = 0; i < columnCount; i++) {
+					columnLengths[i] = footer.readInt();
+				}
+				blocks[b] = new Block(b, offset, length, rows, zoneMap, columnLengths);
+			}
+			Arrays.sort(blocks, Comparator.comparingLong((Block block) -> block.maxCreatedAt()).reversed());
+			return new ColdTierReader(path, channel, sourceTable, rowCount, blocks);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public Path getPath() { return path; }
+
+	/**
+	 * @return The archive table the file was written from.
+	 */
+	public String getSourceTable() { return sourceTable; }
+
+	public long getRowCount() { return rowCount; }
+	public int getBlockCount() { return blocks.length; }
+
+	/**
+	 * Finds the newest messages matching a search. {@code contentContains} is matched case-insensitively, which is
+	 * how the default collation of the content column compares in MySQL.
+	 *
+	 * @param criteria The search criteria.
+	 * @param sourceName The source table to report on the returned messages.
+	 * @return At most {@code criteria.getLimit()} messages, newest first.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public List<ChatMessage> search(MessageSearchCriteria criteria, String sourceName) throws IOException {
+		Long chatId = criteria.getChatId();
+		Long senderId = criteria.getSenderId();
+		long from = criteria.getFrom() == null ? Long.MIN_VALUE : toMicros(criteria.getFrom());
+		long to = criteria.getTo() == null ? Long.MAX_VALUE : toMicros(criteria.getTo());
+		String messageType = criteria.getMessageType();
+		String contentContains = criteria.getContentContains() == null ? null : criteria.getContentContains().toLowerCase(Locale.ROOT);
+
+		BlockFilter blockFilter = block -> (chatId == null || block.covers(2, chatId))
+			&& (senderId == null || block.covers(4, senderId))
+			&& block.maxCreatedAt() >= from && block.minCreatedAt() < to;
+		RowFilter rowFilter = (columns, row, type) -> (chatId == null || columns.chatIds[row] == chatId)
+			&& (senderId == null || columns.senderIds[row] == senderId)
+			&& columns.createdAt[row] >= from && columns.createdAt[row] < to
+			&& (messageType == null || messageType.equals(type));
+		return scan(blockFilter, rowFilter, contentContains, criteria.getLimit(), sourceName);
+	}
+
+	/**
+	 * Seeks one page of a chat's history, the same keyset seek {@link ChatHistoryService} runs on MySQL tables.
+	 *
+	 * @param chatId The chat.
+	 * @param beforeCreatedAt Only messages strictly before this position, or null to start at the newest message.
+	 * @param beforeMessageId The message id of the position, breaking created_at ties.
+	 * @param limit The maximum number of messages.
+	 * @param sourceName The source table to report on the returned messages.
+	 * @return The messages, newest first.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public List<ChatMessage> chatPage(long chatId, LocalDateTime beforeCreatedAt, long beforeMessageId, int limit, String sourceName) throws IOException {
+		long before = beforeCreatedAt == null ? Long.MAX_VALUE : toMicros(beforeCreatedAt);
+		long beforeId = beforeCreatedAt == null ? Long.MAX_VALUE : beforeMessageId;
+		BlockFilter blockFilter = block -> block.covers(2, chatId) && block.minCreatedAt() <= before;
+		RowFilter rowFilter = (columns, row, type) -> columns.chatIds[row] == chatId
+			&& (columns.createdAt[row] < before || (columns.createdAt[row] == before && columns.messageIds[row] < beforeId));
+		return scan(blockFilter, rowFilter, null, limit, sourceName);
+	}
+
+	/**
+	 * Fetches messages by id, e.g. the candidates of an index lookup. Only blocks whose message_id range holds one
+	 * of the ids are decoded.
+	 *
+	 * @param sortedIds The message ids, in ascending order.
+	 * @param sourceName The source table to report on the returned messages.
+	 * @return The messages found, newest first.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public List<ChatMessage> findByIds(long[] sortedIds, String sourceName) throws IOException {
+		RowFilter rowFilter = (columns, row, type) -> Arrays.binarySearch(sortedIds, columns.messageIds[row]) >= 0;
+		List<ChatMessage> messages = new ArrayList<>();
+		for (Block block : blocks) {
+			int first = Arrays.binarySearch(sortedIds, block.zoneMap[0]);
+			first = first >= 0 ? first : -first - 1;
+			if (first < sortedIds.length && sortedIds[first] <= block.zoneMap[1]) {
+				messages.addAll(scanBlock(block, rowFilter, null, sourceName));
+			}
+		}
+		messages.sort(ChatMessage.NEWEST_FIRST);
+		return messages;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Mapped blocks stay valid until they are garbage collected; closing only releases the file descriptor
+		channel.close();
+	}
+
+	private List<ChatMessage> scan(BlockFilter blockFilter, RowFilter rowFilter, String contentContains, int limit, String sourceName) throws IOException {
+		// Oldest of the best rows so far on top, so it is the one evicted by a newer match
+		PriorityQueue<ChatMessage> best = new PriorityQueue<>(limit + 1, ChatMessage.NEWEST_FIRST.reversed());
+		for (Block block : blocks) {
+			if (best.size() == limit && block.maxCreatedAt() < toMicros(best.peek().getCreatedAt())) {
+				break; // blocks are sorted by max created_at, no later block can hold a newer row
+			}
+			if (!blockFilter.mayMatch(block)) {
+				continue;
+			}
+			for (ChatMessage message : scanBlock(block, rowFilter, contentContains, sourceName)) {
+				best.add(message);
+				if (best.size() > limit) {
+					best.poll();
+				}
+			}
+		}
+		List<ChatMessage> messages = new ArrayList<>(best);
+		messages.sort(ChatMessage.NEWEST_FIRST);
+		return messages;
+	}
+
+	private List<ChatMessage> scanBlock(Block block, RowFilter rowFilter, String contentContains, String sourceName) throws IOException {
+		ByteBuffer data = map(block);
+		Columns columns = new Columns(block.rows);
+		decodeDeltas(column(data, block, MESSAGE_ID), columns.messageIds);
+		decodeVarints(column(data, block, CHAT_ID), columns.chatIds);
+		decodeVarints(column(data, block, SENDER_ID), columns.senderIds);
+		decodeDeltas(column(data, block, CREATED_AT), columns.createdAt);
+
+		ByteBuffer typeColumn = column(data, block, MESSAGE_TYPE);
+		String[] dictionary = new String[(int) readVarLong(typeColumn) + 1];
+		for (int i = 1; i < dictionary.length; i++) {
+			byte[] bytes = new byte[(int) readVarLong(typeColumn)];
+			typeColumn.get(bytes);
+			dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		boolean[] matches = new boolean[block.rows];
+		int matchCount = 0;
+		for (int row = 0; row < block.rows; row++) {
+			String type = dictionary[typeColumn.get() & 0xFF];
+			if (rowFilter.test(columns, row, type)) {
+				matches[row] = true;
+				matchCount++;
+			}
+		}
+		if (matchCount == 0) {
+			return List.of();
+		}
+
+		String[] content = decodeStrings(column(data, block, CONTENT), matches, block.rows);
+		typeColumn.position(typeColumn.limit() - block.rows);
+		List<ChatMessage> messages = new ArrayList<>(matchCount);
+		for (int row = 0; row < block.rows; row++) {
+			String type = dictionary[typeColumn.get() & 0xFF];
+			if (!matches[row]) {
+				continue;
+			}
+			if (contentContains != null && (content[row] == null || !content[row].toLowerCase(Locale.ROOT).contains(contentContains))) {
+				continue;
+			}
+			messages.add(new ChatMessage(columns.messageIds[row], columns.chatIds[row], columns.senderIds[row], type,
+				content[row], fromMicros(columns.createdAt[row]), sourceName));
+		}
+		return messages;
+	}
+
+	private ByteBuffer map(Block block) throws IOException {
+		MappedByteBuffer buffer = mapped.get(block.index);
+		if (buffer == null) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+			if (!mapped.compareAndSet(block.index, null, buffer)) {
+				buffer = mapped.get(block.index);
+			}
+		}
+		return buffer;
+	}
+
+	// An independent view of one column, so concurrent scans never share a buffer position
+	private static ByteBuffer column(ByteBuffer data, Block block, int column) {
+		int start = 0;
+		for (int i = 0; i < column; i++) {
+			start += block.columnLengths[i];
+		}
+		return data.slice(start, block.columnLengths[column]);
+	}
+
+	private static void decodeVarints(ByteBuffer in, long[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readVarLong(in);
+		}
+	}
+
+	private static void decodeDeltas(ByteBuffer in, long[] values) {
+		long previous = 0;
+		for (int i = 0; i < values.length; i++) {
+			previous += unzigzag(readVarLong(in));
+			values[i] = previous;
+		}
+	}
+
+	// Inflates a deflate-string column, materializing only the rows that matched
+	private static String[] decodeStrings(ByteBuffer in, boolean[] wanted, int rows) throws IOException {
+		byte[] raw = new byte[(int) readVarLong(in)];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			int n = 0;
+			while (n < raw.length) {
+				int read = inflater.inflate(raw, n, raw.length - n);
+				if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IOException("Truncated string column");
+				}
+				n += read;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt string column", e);
+		} finally {
+			inflater.end();
+		}
+
+		ByteBuffer entries = ByteBuffer.wrap(raw);
+		String[] values = new String[rows];
+		for (int row = 0; row < rows; row++) {
+			int length = (int) readVarLong(entries) - 1;
+			if (length < 0) {
+				continue;
+			}
+			if (wanted[row]) {
+				values[row] = new String(raw, entries.position(), length, StandardCharsets.UTF_8);
+			}
+			entries.position(entries.position() + length);
+		}
+		return values;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		return buffer.flip();
+	}
+
+	private interface BlockFilter {
+		boolean mayMatch(Block block);
+	}
+
+	private interface RowFilter {
+		boolean test(Columns columns, int row, String messageType);
+	}
+
+	// The decoded numeric columns of one block
+	private static class Columns {
+		final long[] messageIds;
+		final long[] chatIds;
+		final long[] senderIds;
+		final long[] createdAt;
+
+		Columns(int rows) {
+			this.messageIds = new long[rows];
+			this.chatIds = new long[rows];
+			this.senderIds = new long[rows];
+			this.createdAt = new long[rows];
+		}
+	}
+
+	private static class Block {
+		final int index;
+		final long offset;
+		final int length;
+		final int rows;
+		final long[] zoneMap; // min/max of message_id, chat_id, sender_id, created_at
+		final int[] columnLengths;
+
+		Block(int index, long offset, int length, int rows, long[] zoneMap, int[] columnLengths) {
+			this.index = index;
+			this.offset = offset;
+			this.length = length;
+			this.rows = rows;
+			this.zoneMap = zoneMap;
+			this.columnLengths = columnLengths;
+		}
+
+		boolean covers(int minIndex, long value) {
+			return value >= zoneMap[minIndex] && value <= zoneMap[minIndex + 1];
+		}
+
+		long minCreatedAt() { return zoneMap[6]; }
+		long maxCreatedAt() { return zoneMap[7]; }
+	}
+}
@@ -0,0 +1,49 @@
+package org.cliq.tablearchiver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The cold tier files a read service has opened, by offload location, so each file's footer is read once and its
+ * mapped blocks are shared by every query.
+ */
+final class ColdTierReaders implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ColdTierReaders.class);
+
+	private final Map<String, ColdTierReader> readers = new ConcurrentHashMap<>();
+
+	/**
+	 * @param archive An offloaded archive.
+	 * @return The reader of its cold tier file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	ColdTierReader get(ArchivedPartitionMetadata archive) throws IOException {
+		try {
+			return readers.computeIfAbsent(archive.getOffloadLocation(), location -> {
+				try {
+					return ColdTierReader.open(Path.of(location));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ColdTierReader reader : readers.values()) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				log.warn("coldTier.closeFailed", "path", reader.getPath(), "error", e.getMessage());
+			}
+		}
+		readers.clear();
+	}
+}
@@ -0,0 +1,260 @@
+package org.cliq.tablearchiver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.cliq.tablearchiver.ColdTierFormat.*;
+
+/**
+ * Writes rows of an archive table to a cold tier file, one block of columns at a time, so memory stays bounded by the
+ * block size however large the table is. See {@link ColdTierFormat} for the layout.
+ */
+class ColdTierWriter implements AutoCloseable {
+
+	private static final int COLUMN_COUNT = COLUMN_NAMES.length;
+
+	private final FileChannel channel;
+	private final OutputStream out;
+	private final String sourceTable;
+	private final int blockRows;
+	private final List<BlockInfo> blocks = new ArrayList<>();
+	private final ByteSink[] columns = new ByteSink[COLUMN_COUNT];
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private final Map<String, Integer> dictionary = new HashMap<>();
+	private final List<String> dictionaryEntries = new ArrayList<>();
+	private long position;
+	private long totalRows;
+
+	// State of the block being filled
+	private int rows;
+	private long previousMessageId;
+	private long previousCreatedAt;
+	private final long[] zoneMap = new long[8];
+
+	ColdTierWriter(Path path, String sourceTable, int blockRows) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+		this.sourceTable = sourceTable;
+		this.blockRows = blockRows;
+		for (int i = 0; i < COLUMN_COUNT; i++) {
+			columns[i] = new ByteSink();
+		}
+		write(MAGIC, 0, MAGIC.length);
+	}
+
+	/**
+	 * Appends the current row of a result set selected with {@link ColdTierFormat#SELECT_COLUMNS}.
+	 * Rows should arrive in message_id order, which keeps the id and timestamp deltas small.
+	 */
+	void append(ResultSet rs) throws SQLException, IOException {
+		long messageId = rs.getLong(1);
+		long chatId = rs.getLong(2);
+		long senderId = rs.getLong(3);
+		long createdAt = toMicros(rs.getTimestamp(11).toLocalDateTime());
+
+		if (rows == 0) {
+			zoneMap[0] = zoneMap[1] = messageId;
+			zoneMap[2] = zoneMap[3] = chatId;
+			zoneMap[4] = zoneMap[5] = senderId;
+			zoneMap[6] = zoneMap[7] = createdAt;
+			previousMessageId = 0;
+			previousCreatedAt = 0;
+		} else {
+			zoneMap[0] = Math.min(zoneMap[0], messageId);
+			zoneMap[1] = Math.max(zoneMap[1], messageId);
+			zoneMap[2] = Math.min(zoneMap[2], chatId);
+			zoneMap[3] = Math.max(zoneMap[3], chatId);
+			zoneMap[4] = Math.min(zoneMap[4], senderId);
+			zoneMap[5] = Math.max(zoneMap[5], senderId);
+			zoneMap[6] = Math.min(zoneMap[6], createdAt);
+			zoneMap[7] = Math.max(zoneMap[7], createdAt);
+		}
+
+		columns[MESSAGE_ID].writeVarLong(zigzag(messageId - previousMessageId));
+		previousMessageId = messageId;
+		columns[CHAT_ID].writeVarLong(chatId);
+		columns[SENDER_ID].writeVarLong(senderId);
+		columns[MESSAGE_TYPE].write(dictionaryCode(rs.getString(4)));
+		writeString(CONTENT, rs.getString(5));
+		writeString(MEDIA_URL, rs.getString(6));
+		writeString(THUMBNAIL_URL, rs.getString(7));
+		writeString(FILE_METADATA, rs.getString(8));
+		long parentMessageId = rs.getLong(9);
+		columns[PARENT_MESSAGE_ID].writeVarLong(rs.wasNull() ? 0 : parentMessageId + 1);
+		writeString(PARENT_MESSAGE_PREVIEW, rs.getString(10));
+		columns[CREATED_AT].writeVarLong(zigzag(createdAt - previousCreatedAt));
+		previousCreatedAt = createdAt;
+		writeNullableTimestamp(UPDATED_AT, rs.getTimestamp(12));
+		writeNullableTimestamp(DELETED_AT, rs.getTimestamp(13));
+
+		rows++;
+		totalRows++;
+		if (rows == blockRows) {
+			flushBlock();
+		}
+	}
+
+	long getTotalRows() {
+		return totalRows;
+	}
+
+	/**
+	 * Writes the last block and the footer, and forces the file to disk.
+	 */
+	void finish() throws IOException {
+		if (rows > 0) {
+			flushBlock();
+		}
+		ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+		try (DataOutputStream footer = new DataOutputStream(footerBytes)) {
+			footer.writeInt(VERSION);
+			footer.writeUTF(sourceTable);
+			footer.writeInt(COLUMN_COUNT);
+			for (int i = 0; i < COLUMN_COUNT; i++) {
+				footer.writeUTF(COLUMN_NAMES[i]);
+				footer.writeUTF(COLUMN_ENCODINGS[i]);
+			}
+			footer.writeLong(totalRows);
+			footer.writeInt(blocks.size());
+			for (BlockInfo block : blocks) {
+				footer.writeLong(block.offset);
+				footer.writeInt(block.length);
+				footer.writeInt(block.rows);
+				for (long bound : block.zoneMap) {
+					footer.writeLong(bound);
+				}
+				for (int length : block.columnLengths) {
+					footer.writeInt(length);
+				}
+			}
+		}
+		byte[] footer = footerBytes.toByteArray();
+		write(footer, 0, footer.length);
+		byte[] length = {(byte) (footer.length >>> 24), (byte) (footer.length >>> 16), (byte) (footer.length >>> 8), (byte) footer.length};
+		write(length, 0, 4);
+		write(MAGIC, 0, MAGIC.length);
+		out.flush();
+		channel.force(true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		deflater.end();
+		out.close();
+	}
+
+	private void flushBlock() throws IOException {
+		long offset = position;
+		int[] columnLengths = new int[COLUMN_COUNT];
+		ByteSink encoded = new ByteSink();
+		for (int i = 0; i < COLUMN_COUNT; i++) {
+			ByteSink column = columns[i];
+			switch (COLUMN_ENCODINGS[i]) {
+				case DICTIONARY -> {
+					encoded.reset();
+					encoded.writeVarLong(dictionaryEntries.size());
+					for (String entry : dictionaryEntries) {
+						byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+						encoded.writeVarLong(bytes.length);
+						encoded.write(bytes, 0, bytes.length);
+					}
+					encoded.write(column.array(), 0, column.size());
+					column = encoded;
+				}
+				case DEFLATE_STRING -> {
+					encoded.reset();
+					deflate(column, encoded);
+					column = encoded;
+				}
+				default -> {
+				}
+			}
+			write(column.array(), 0, column.size());
+			columnLengths[i] = column.size();
+			columns[i].reset();
+		}
+		blocks.add(new BlockInfo(offset, (int) (position - offset), rows, zoneMap.clone(), columnLengths));
+		dictionary.clear();
+		dictionaryEntries.clear();
+		rows = 0;
+	}
+
+	private void deflate(ByteSink raw, ByteSink target) {
+		target.writeVarLong(raw.size());
+		deflater.reset();
+		deflater.setInput(raw.array(), 0, raw.size());
+		deflater.finish();
+		byte[] chunk = new byte[1 << 16];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(chunk);
+			target.write(chunk, 0, n);
+		}
+	}
+
+	private int dictionaryCode(String value) throws IOException {
+		if (value == null) {
+			return 0;
+		}
+		Integer code = dictionary.get(value);
+		if (code == null) {
+			if (dictionaryEntries.size() == 255) {
+				throw new IOException("More than 255 distinct message_type values in one block of " + sourceTable);
+			}
+			dictionaryEntries.add(value);
+			code = dictionaryEntries.size();
+			dictionary.put(value, code);
+		}
+		return code;
+	}
+
+	private void writeString(int column, String value) {
+		if (value == null) {
+			columns[column].write(0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		columns[column].writeVarLong(bytes.length + 1L);
+		columns[column].write(bytes, 0, bytes.length);
+	}
+
+	private void writeNullableTimestamp(int column, Timestamp value) {
+		columns[column].writeVarLong(value == null ? 0 : toMicros(value.toLocalDateTime()) + 1);
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		out.write(bytes, offset, length);
+		position += length;
+	}
+
+	private static class BlockInfo {
+		final long offset;
+		final int length;
+		final int rows;
+		final long[] zoneMap;
+		final int[] columnLengths;
+
+		BlockInfo(long offset, int length, int rows, long[] zoneMap, int[] columnLengths) {
+			this.offset = offset;
+			this.length = length;
+			this.rows = rows;
+			this.zoneMap = zoneMap;
+			this.columnLengths = columnLengths;
+		}
+	}
+}
@@ -1,20 +1,18 @@
 package org.cliq.tablearchiver;
 
-import com.mysql.cj.jdbc.ConnectionImpl;
 import com.mysql.cj.jdbc.MysqlDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
 import javax.sql.DataSource;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -22,6 +20,20 @@ import java.util.Properties;
 public class DataSourceConfig
 {
 
+	private static final StructuredLogger log = StructuredLogger.getLogger(DataSourceConfig.class);
+
+	/**
+	 * Creates a data source for the configured database and brings its schema up to date.
+	 * <p>
+	 * With db.bootstrap=migrate (the default) the database is created if missing and only the schema migrations not
+	 * yet recorded in {@value SchemaMigrator#MIGRATIONS_TABLE} are applied, so starting against an existing database
+	 * leaves its data untouched. With db.bootstrap=recreate the database is dropped and rebuilt from the script first.
+	 *
+	 * @param properties The connection properties.
+	 * @param sqlScriptPath The baseline schema script, applied as migration version 1.
+	 * @return The data source.
+	 * @throws RuntimeException If the database cannot be reached or a migration fails.
+	 */
 	public static DataSource createMySQLDataSource(Properties properties, String sqlScriptPath)
 	{
 
@@ -31,27 +43,110 @@ public class DataSourceConfig
 		dataSource.setPortNumber(Integer.parseInt(properties.getProperty("db.port", "3306")));
 		dataSource.setUser(properties.getProperty("db.user"));
 		dataSource.setPassword(properties.getProperty("db.password"));
+		String dbName = properties.getProperty("db.name");
+		boolean recreate = properties.getProperty("db.bootstrap", "migrate").equalsIgnoreCase("recreate");
+		Path migrationsDir = Path.of(properties.getProperty("db.migrations.dir", "src/main/resources/db/migration"));
 
-		try(Connection conn = dataSource.getConnection())
+		long started = System.nanoTime();
+		try
 		{
+			// Lets consecutive INSERTs of a script, and any other JDBC batch, go to the server as one multi-row statement
+			dataSource.setRewriteBatchedStatements(true);
+			// LOAD DATA LOCAL INFILE, used by SyntheticDataGenerator; off unless asked for
+			dataSource.setAllowLoadLocalInfile(Boolean.parseBoolean(properties.getProperty("db.allowLocalInfile", "false")));
+			try(Connection conn = dataSource.getConnection())
+			{
+				if(recreate)
+				{
+					dropDatabaseIfExists(conn, dbName);
+				}
+				// Check if the database exists; if not, create it
+				createDatabaseIfNotExists(conn, dbName);
+				// Once the database is created or confirmed, switch to the target database
+				dataSource.setDatabaseName(dbName);
+				conn.setCatalog(dbName);
+				int applied = new SchemaMigrator(conn).migrate(Path.of(sqlScriptPath), migrationsDir);
+				log.info("database.ready", "database", dbName, "migrationsApplied", applied, "durationMs", (System.nanoTime() - started) / 1_000_000);
+			}
+		}
+		catch(SQLException | IOException e)
+		{
+			throw new RuntimeException("Failed to initialise database '" + dbName + "': " + e.getMessage(), e);
+		}
 
-			dropDatabaseIfExists(conn, properties.getProperty("db.name"));
-			// Check if the database exists; if not, create it
-			createDatabaseIfNotExists(conn, properties.getProperty("db.name"));
-			// Once the database is created or confirmed, switch to the target database
-			dataSource.setDatabaseName(properties.getProperty("db.name"));
-			((ConnectionImpl) conn).setDatabase(properties.getProperty("db.name"));
-			// Execute the SQL script
-			executeSqlScriptNew(conn, sqlScriptPath);
-			System.out.println("Database connection and script execution successful!");
+		return dataSource;
+	}
+
+	/**
+	 * Creates a pooled data source: connections are opened once and reused, validated before they are handed
+	 * out, evicted when idle, and reported when held longer than the leak detection threshold. Prepared statements
+	 * are prepared on the server and cached per connection, so reused connections also skip re-preparing SQL.
+	 * The database is initialised exactly as by {@link #createMySQLDataSource(Properties, String)}.
+	 * <p>
+	 * Pool settings are read from the db.pool.* properties. Use {@link PoolStats#of(HikariDataSource)} for
+	 * wait-time and utilization statistics, and close the returned data source to shut the pool down.
+	 *
+	 * @param properties The connection and pool properties.
+	 * @param sqlScriptPath The schema script run at start-up.
+	 * @return The pooled data source.
+	 */
+	public static HikariDataSource createPooledDataSource(Properties properties, String sqlScriptPath)
+	{
+		MysqlDataSource dataSource = (MysqlDataSource) createMySQLDataSource(properties, sqlScriptPath);
+		try
+		{
+			dataSource.setCachePrepStmts(true);
+			dataSource.setUseServerPrepStmts(true);
+			dataSource.setPrepStmtCacheSize(Integer.parseInt(properties.getProperty("db.pool.prepStmtCacheSize", "250")));
+			dataSource.setPrepStmtCacheSqlLimit(Integer.parseInt(properties.getProperty("db.pool.prepStmtCacheSqlLimit", "2048")));
 		}
 		catch(SQLException e)
 		{
-			System.err.println("Failed to make connection or execute script!");
-			e.printStackTrace();
+			throw new RuntimeException("Unable to configure prepared statement caching.", e);
 		}
 
-		return dataSource;
+		HikariConfig poolConfig = new HikariConfig();
+		poolConfig.setPoolName("cliq-archiver");
+		poolConfig.setDataSource(dataSource);
+		poolConfig.setMinimumIdle(Integer.parseInt(properties.getProperty("db.pool.minIdle", "2")));
+		poolConfig.setMaximumPoolSize(Integer.parseInt(properties.getProperty("db.pool.maxSize", "10")));
+		poolConfig.setConnectionTimeout(Long.parseLong(properties.getProperty("db.pool.connectionTimeoutMs", "30000")));
+		poolConfig.setValidationTimeout(Long.parseLong(properties.getProperty("db.pool.validationTimeoutMs", "3000")));
+		poolConfig.setIdleTimeout(Long.parseLong(properties.getProperty("db.pool.idleTimeoutMs", "600000")));
+		poolConfig.setMaxLifetime(Long.parseLong(properties.getProperty("db.pool.maxLifetimeMs", "1800000")));
+		poolConfig.setLeakDetectionThreshold(Long.parseLong(properties.getProperty("db.pool.leakDetectionThresholdMs", "60000")));
+		poolConfig.setMetricsTrackerFactory(new PoolStats.WaitTimeTracker());
+		return new HikariDataSource(poolConfig);
+	}
+
+	/**
+	 * Creates a data source for each replica listed in db.replicas, a comma-separated list of host or host:port
+	 * entries. Replicas connect with the primary's db.user, db.password and db.name; nothing is created or migrated
+	 * on them.
+	 *
+	 * @param properties The connection properties.
+	 * @return The replica data sources; empty if db.replicas is not set.
+	 */
+	public static List<DataSource> createReplicaDataSources(Properties properties)
+	{
+		List<DataSource> replicas = new ArrayList<>();
+		for (String replica : properties.getProperty("db.replicas", "").split(","))
+		{
+			replica = replica.trim();
+			if (replica.isEmpty())
+			{
+				continue;
+			}
+			int colon = replica.lastIndexOf(':');
+			MysqlDataSource dataSource = new MysqlDataSource();
+			dataSource.setServerName(colon < 0 ? replica : replica.substring(0, colon));
+			dataSource.setPortNumber(colon < 0 ? 3306 : Integer.parseInt(replica.substring(colon + 1)));
+			dataSource.setUser(properties.getProperty("db.user"));
+			dataSource.setPassword(properties.getProperty("db.password"));
+			dataSource.setDatabaseName(properties.getProperty("db.name"));
+			replicas.add(dataSource);
+		}
+		return replicas;
 	}
 
 	static Properties loadConfig(String configFilePath)
@@ -114,57 +209,6 @@ public class DataSourceConfig
 		}
 	}
 
-	private static void executeSqlScriptNew(Connection conn, String scriptPath)
-	{
-		try(BufferedReader reader = new BufferedReader(new FileReader(scriptPath)))
-		{
-			StringBuilder sqlStatement = new StringBuilder();
-			String line;
-			String currentDelimiter = ";";
-
-			while((line = reader.readLine()) != null)
-			{
-				line = line.trim();
-
-				if(line.isEmpty() || line.startsWith("--"))
-					continue;
-
-				// Handle DELIMITER directive (e.g., DELIMITER $$)
-				if(line.toUpperCase().startsWith("DELIMITER "))
-				{
-					currentDelimiter = line.substring("DELIMITER ".length()).trim();
-					continue;
-				}
-
-				sqlStatement.append(line).append("\n");
-
-				// Check if the statement ends with the current delimiter
-				if(sqlStatement.toString().trim().endsWith(currentDelimiter))
-				{
-					// Remove the delimiter from the end
-					String sql = sqlStatement.toString().trim();
-					sql = sql.substring(0, sql.length() - currentDelimiter.length()).trim();
-
-					try(Statement stmt = conn.createStatement())
-					{
-						stmt.execute(sql);
-					}
-					catch(SQLException e)
-					{
-						System.err.println("Error executing SQL:\n" + sql);
-						e.printStackTrace();
-					}
-
-					sqlStatement.setLength(0); // Reset for next block
-				}
-			}
-		}
-		catch(IOException e)
-		{
-			e.printStackTrace();
-		}
-	}
-
 	public static List<PartitionDetails> printTablePartitioning(Connection conn, String database, String table)
 	{
 		List<PartitionDetails> partitionDetails = new ArrayList<>();
@@ -211,13 +255,20 @@ public class DataSourceConfig
 		private long rows;
 		private String expression;
 		private String description;
+		private long dataLength;
 
 		public PartitionDetails(String partitionName, long rows, String expression, String description)
+		{
+			this(partitionName, rows, expression, description, 0);
+		}
+
+		public PartitionDetails(String partitionName, long rows, String expression, String description, long dataLength)
 		{
 			this.partitionName = partitionName;
 			this.rows = rows;
 			this.expression = expression;
 			this.description = description;
+			this.dataLength = dataLength;
 		}
 
 		public String getPartitionName()
@@ -239,6 +290,14 @@ public class DataSourceConfig
 		{
 			return description;
 		}
+
+		/**
+		 * @return The DATA_LENGTH of the partition in bytes, or 0 where it was not read.
+		 */
+		public long getDataLength()
+		{
+			return dataLength;
+		}
 	}
 
 
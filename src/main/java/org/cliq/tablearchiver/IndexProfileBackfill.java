@@ -0,0 +1,139 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the configured {@link ArchiveIndexProfile} to the archive tables whose registry row records another profile
+ * or none, e.g. the archives created before the profile was configured or changed.
+ * <p>
+ * Like the {@link ArchivalScheduler}, each run rebuilds at most {@link ArchiverConfig#getMaxPartitionsPerRun()}
+ * tables, oldest first, and samples the server load before each one; as soon as the server is busy the rest is left
+ * to a later run. Each table's rebuild is a single in-place ALTER TABLE, after which the profile name and the new
+ * index size are recorded in the registry. Offloaded archives have no table and are skipped.
+ */
+public class IndexProfileBackfill implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(IndexProfileBackfill.class);
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveIndexProfile profile;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final ArchivalScheduler loadMonitor;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param dataSource The data source holding the archive and registry tables.
+	 * @param config The archiver configuration; its index profile must be set.
+	 * @param registryCache A registry cache to publish each rebuilt archive to, or null.
+	 * @param loadMonitor The scheduler whose load sample and thresholds defer the work while the server is busy, or
+	 *                    null to rebuild regardless of load.
+	 */
+	public IndexProfileBackfill(DataSource dataSource, ArchiverConfig config, ArchiveRegistryCache registryCache, ArchivalScheduler loadMonitor) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.profile = Objects.requireNonNull(config.getIndexProfile(), "ArchiverConfig has no index profile");
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.loadMonitor = loadMonitor;
+	}
+
+	/**
+	 * Starts running {@link #runOnce()} every {@link ArchiverConfig#getArchivalCheckInterval()}.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "index-profile-backfill");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = config.getArchivalCheckInterval().toMillis();
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				runOnce();
+			} catch (SQLException e) {
+				log.error("indexProfile.backfillFailed", e, "profile", profile.getName());
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Lists the archives still on the primary whose recorded index profile is not the configured one, oldest first.
+	 *
+	 * @return Their registry rows.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<ArchivedPartitionMetadata> pendingArchives() throws SQLException {
+		List<ArchivedPartitionMetadata> pending = new ArrayList<>();
+		try (Connection conn = dataSource.getConnection()) {
+			for (ArchivedPartitionMetadata archive : registry.findAll(conn)) {
+				if (!archive.isOffloaded() && !archive.isRemote() && !profile.getName().equals(archive.getIndexProfile())) {
+					pending.add(0, archive); // findAll is newest first
+				}
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Rebuilds pending archives, oldest first, until the run limit is reached, nothing is left, or the server becomes
+	 * busy.
+	 *
+	 * @return The archive tables rebuilt by this run.
+	 * @throws SQLException If listing archives, sampling load or rebuilding fails.
+	 */
+	public List<String> runOnce() throws SQLException {
+		List<String> applied = new ArrayList<>();
+		for (ArchivedPartitionMetadata archive : pendingArchives()) {
+			if (applied.size() >= config.getMaxPartitionsPerRun()) {
+				break;
+			}
+			if (loadMonitor != null) {
+				ArchivalScheduler.LoadSample load = loadMonitor.sampleLoad();
+				if (load.isBusy(config)) {
+					log.info("indexProfile.deferred", "archiveTable", archive.getArchiveTableName(), "load", load);
+					break;
+				}
+			}
+			apply(archive);
+			applied.add(archive.getArchiveTableName());
+		}
+		return applied;
+	}
+
+	private void apply(ArchivedPartitionMetadata archive) throws SQLException {
+		String table = archive.getArchiveTableName();
+		long started = System.nanoTime();
+		try (Connection conn = dataSource.getConnection()) {
+			String ddl = profile.apply(conn, table);
+			long indexLength = ArchiveIndexProfile.indexLength(conn, table);
+			registry.recordIndexProfile(conn, table, profile.getName(), indexLength);
+			if (registryCache != null) {
+				registryCache.publish(archive.withIndexProfile(profile.getName(), indexLength));
+			}
+			log.info("indexProfile.applied", "archiveTable", table, "profile", profile.getName(), "ddl", ddl,
+				"indexLengthBefore", archive.getIndexLength(), "indexLength", indexLength, "durationMs", (System.nanoTime() - started) / 1_000_000);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.cliq.tablearchiver;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Lock-aware archival settings. When configured, every DDL statement the archiver issues against the messages table
+ * waits at most {@code lockWaitTimeoutSeconds} for its metadata lock, so an ALTER queued behind a long read cannot
+ * stall the INSERTs queued behind it. A timed-out statement is retried with jittered backoff until the retry window
+ * is used up.
+ */
+public class LockWaitPolicy {
+
+	private final int lockWaitTimeoutSeconds;
+	private final Duration retryWindow;
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+	private final Duration longRunningHolderThreshold;
+	private final Consumer<LockWaitAttempt> attemptListener;
+
+	// Private constructor to enforce usage of the Builder
+	private LockWaitPolicy(Builder builder) {
+		this.lockWaitTimeoutSeconds = builder.lockWaitTimeoutSeconds;
+		this.retryWindow = builder.retryWindow;
+		this.initialBackoff = builder.initialBackoff;
+		this.maxBackoff = builder.maxBackoff;
+		this.longRunningHolderThreshold = builder.longRunningHolderThreshold;
+		this.attemptListener = builder.attemptListener;
+	}
+
+	/**
+	 * @return The session lock_wait_timeout applied to each DDL statement, in seconds.
+	 */
+	public int getLockWaitTimeoutSeconds() { return lockWaitTimeoutSeconds; }
+
+	/**
+	 * @return How long a DDL step (or the wait for long-running lock holders) may keep retrying before giving up.
+	 */
+	public Duration getRetryWindow() { return retryWindow; }
+
+	public Duration getInitialBackoff() { return initialBackoff; }
+	public Duration getMaxBackoff() { return maxBackoff; }
+
+	/**
+	 * @return The age at which a metadata lock holder on the messages table delays the start of an archival.
+	 */
+	public Duration getLongRunningHolderThreshold() { return longRunningHolderThreshold; }
+
+	/**
+	 * @return The listener receiving every lock attempt, successful or not.
+	 */
+	public Consumer<LockWaitAttempt> getAttemptListener() { return attemptListener; }
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder class for LockWaitPolicy.
+	 */
+	public static class Builder {
+		private int lockWaitTimeoutSeconds = 2;
+		private Duration retryWindow = Duration.ofMinutes(5);
+		private Duration initialBackoff = Duration.ofMillis(500);
+		private Duration maxBackoff = Duration.ofSeconds(30);
+		private Duration longRunningHolderThreshold = Duration.ofSeconds(10);
+		private Consumer<LockWaitAttempt> attemptListener = attempt -> {};
+
+		private Builder() {}
+
+		public Builder lockWaitTimeoutSeconds(int lockWaitTimeoutSeconds) {
+			this.lockWaitTimeoutSeconds = lockWaitTimeoutSeconds;
+			return this;
+		}
+
+		public Builder retryWindow(Duration retryWindow) {
+			this.retryWindow = retryWindow;
+			return this;
+		}
+
+		/**
+		 * Set the backoff between attempts. The backoff doubles per attempt up to the maximum, with jitter.
+		 * @param initialBackoff The backoff after the first failed attempt.
+		 * @param maxBackoff The upper bound of the backoff.
+		 * @return The Builder instance.
+		 */
+		public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+			this.initialBackoff = initialBackoff;
+			this.maxBackoff = maxBackoff;
+			return this;
+		}
+
+		public Builder longRunningHolderThreshold(Duration longRunningHolderThreshold) {
+			this.longRunningHolderThreshold = longRunningHolderThreshold;
+			return this;
+		}
+
+		/**
+		 * Set a listener that receives the wait time of every attempt, for tuning the timeout.
+		 * @param attemptListener The listener.
+		 * @return The Builder instance.
+		 */
+		public Builder attemptListener(Consumer<LockWaitAttempt> attemptListener) {
+			this.attemptListener = attemptListener;
+			return this;
+		}
+
+		/**
+		 * Build the LockWaitPolicy instance.
+		 * @return The built LockWaitPolicy.
+		 * @throws IllegalArgumentException if the timeout is not positive.
+		 */
+		public LockWaitPolicy build() {
+			if (lockWaitTimeoutSeconds <= 0) {
+				throw new IllegalArgumentException("lockWaitTimeoutSeconds must be positive: " + lockWaitTimeoutSeconds);
+			}
+			Objects.requireNonNull(retryWindow, "retryWindow cannot be null");
+			Objects.requireNonNull(initialBackoff, "initialBackoff cannot be null");
+			Objects.requireNonNull(maxBackoff, "maxBackoff cannot be null");
+			Objects.requireNonNull(longRunningHolderThreshold, "longRunningHolderThreshold cannot be null");
+			Objects.requireNonNull(attemptListener, "attemptListener cannot be null");
+			return new LockWaitPolicy(this);
+		}
+	}
+
+	/**
+	 * One attempt of a DDL step to acquire its metadata lock.
+	 */
+	public static class LockWaitAttempt {
+		private final String step;
+		private final int attempt;
+		private final Duration waited;
+		private final boolean acquired;
+
+		public LockWaitAttempt(String step, int attempt, Duration waited, boolean acquired) {
+			this.step = step;
+			this.attempt = attempt;
+			this.waited = waited;
+			this.acquired = acquired;
+		}
+
+		public String getStep() { return step; }
+		public int getAttempt() { return attempt; }
+		public Duration getWaited() { return waited; }
+		public boolean isAcquired() { return acquired; }
+
+		@Override
+		public String toString() {
+			return "LockWaitAttempt{" +
+				"step='" + step + '\'' +
+				", attempt=" + attempt +
+				", waited=" + waited.toMillis() + "ms" +
+				", acquired=" + acquired +
+				'}';
+		}
+	}
+}
@@ -5,7 +5,10 @@ import static org.cliq.tablearchiver.DataSourceConfig.printTablePartitioning;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Properties;
 
@@ -20,8 +23,27 @@ public class Main
 		String sqlScriptPath = "src/main/resources/schema_and_dummy_data_script.sql";
 
 		Properties properties = DataSourceConfig.loadConfig(configFilePath);
-		DataSource myDataSource = DataSourceConfig.createMySQLDataSource(properties, sqlScriptPath);
-		List<DataSourceConfig.PartitionDetails> partitionDetails =printTablePartitioning(myDataSource.getConnection(), properties.getProperty("db.name"), "messages");
+		boolean generate = args.length > 0 && args[0].equals("--generate");
+		if (generate) {
+			properties.setProperty("db.allowLocalInfile", "true");
+		}
+		DataSource myDataSource = Boolean.parseBoolean(properties.getProperty("db.pool.enabled", "false"))
+			? DataSourceConfig.createPooledDataSource(properties, sqlScriptPath)
+			: DataSourceConfig.createMySQLDataSource(properties, sqlScriptPath);
+
+		if (generate) {
+			generateData(myDataSource, properties);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--daemon")) {
+			runDaemon(myDataSource, properties);
+			return;
+		}
+
+		List<DataSourceConfig.PartitionDetails> partitionDetails;
+		try (Connection conn = myDataSource.getConnection()) {
+			partitionDetails = printTablePartitioning(conn, properties.getProperty("db.name"), "messages");
+		}
 		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 		System.out.print("Enter an Partition ID for archive: \n\n");
 		int number = 0;
@@ -44,18 +66,7 @@ public class Main
 			return;
 		}
 
-		// --- Configure the Archiver using the Builder ---
-		ArchiverConfig config = ArchiverConfig.builder()
-			.messagesTable("messages") // Set your messages table name
-			.archivedMetadataTable("archived_message_partitions") // Set your metadata table name
-			.archiveTableNameFunction(partitionName -> {
-				if (partitionName != null && partitionName.startsWith("p")) {
-					return "messages_archive_" + partitionName.substring(1).replace("_", "_").toUpperCase();
-				}
-				throw new IllegalArgumentException("Invalid partition name format: " + partitionName);
-			})
-			.build();
-		// ----------------------------------------------
+		ArchiverConfig config = buildConfig();
 
 
 		String partitionToArchive = partitionDetails.get(number).getPartitionName(); // Replace with the partition you want to archive
@@ -73,4 +84,63 @@ public class Main
 		}
 	}
 
+	// --- Configure the Archiver using the Builder ---
+	private static ArchiverConfig buildConfig()
+	{
+		return ArchiverConfig.builder()
+			.messagesTable("messages") // Set your messages table name
+			.archivedMetadataTable("archived_message_partitions") // Set your metadata table name
+			.archiveTableNameFunction(partitionName -> {
+				if (partitionName != null && partitionName.startsWith("p")) {
+					return "messages_archive_" + partitionName.substring(1).replace("_", "_").toUpperCase();
+				}
+				throw new IllegalArgumentException("Invalid partition name format: " + partitionName);
+			})
+			.build();
+	}
+
+	// Scale-test data: fill the messages partitions with synthetic chats, sized by the generator.* properties
+	private static void generateData(DataSource dataSource, Properties properties)
+	{
+		SyntheticDataGenerator generator = SyntheticDataGenerator.builder(dataSource)
+			.users(Integer.parseInt(properties.getProperty("generator.users", "10000")))
+			.chats(Integer.parseInt(properties.getProperty("generator.chats", "5000")))
+			.messages(Long.parseLong(properties.getProperty("generator.messages", "1000000")))
+			.dateRange(LocalDate.parse(properties.getProperty("generator.from", "2025-01-01")),
+				LocalDate.parse(properties.getProperty("generator.to", "2025-06-01")))
+			.zipfExponent(Double.parseDouble(properties.getProperty("generator.zipfExponent", "1.1")))
+			.loaderThreads(Integer.parseInt(properties.getProperty("generator.loaderThreads", "4")))
+			.seed(Long.parseLong(properties.getProperty("generator.seed", "42")))
+			.build();
+		try {
+			generator.generate();
+		} catch (SQLException e) {
+			System.err.println("Failed to generate data: " + e.getMessage());
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Unattended mode: keep future partitions created and archive by retention policy until the process is stopped.
+	// Archival is deferred while a replica listed in db.replicas lags behind.
+	private static void runDaemon(DataSource dataSource, Properties properties)
+	{
+		ArchiverConfig config = buildConfig();
+		PartitionManager partitionManager = new PartitionManager(dataSource, config);
+		List<DataSource> replicas = DataSourceConfig.createReplicaDataSources(properties);
+		ArchivalScheduler scheduler = new ArchivalScheduler(dataSource, replicas, config, new PartitionArchiver(dataSource, config));
+		partitionManager.start(Duration.ofHours(1));
+		scheduler.start();
+		System.out.println("Archival daemon started; retention " + config.getRetentionPeriod() + ", checking every " + config.getArchivalCheckInterval() + ", watching " + replicas.size() + " replica(s).");
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			scheduler.close();
+			partitionManager.close();
+		}
+	}
+
 }
\ No newline at end of file
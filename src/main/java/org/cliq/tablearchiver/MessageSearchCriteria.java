@@ -0,0 +1,134 @@
+package org.cliq.tablearchiver;
+
+import java.time.LocalDateTime;
+
+/**
+ * Criteria for a search across the live messages table and its archive tables.
+ * Every filter is optional except the result limit.
+ */
+public class MessageSearchCriteria {
+
+	private final Long chatId;
+	private final Long senderId;
+	private final LocalDateTime from;
+	private final LocalDateTime to;
+	private final String messageType;
+	private final String contentContains;
+	private final int limit;
+
+	// Private constructor to enforce usage of the Builder
+	private MessageSearchCriteria(Builder builder) {
+		this.chatId = builder.chatId;
+		this.senderId = builder.senderId;
+		this.from = builder.from;
+		this.to = builder.to;
+		this.messageType = builder.messageType;
+		this.contentContains = builder.contentContains;
+		this.limit = builder.limit;
+	}
+
+	public Long getChatId() { return chatId; }
+	public Long getSenderId() { return senderId; }
+
+	/**
+	 * @return The inclusive lower bound on created_at, or null for no bound.
+	 */
+	public LocalDateTime getFrom() { return from; }
+
+	/**
+	 * @return The exclusive upper bound on created_at, or null for no bound.
+	 */
+	public LocalDateTime getTo() { return to; }
+
+	public String getMessageType() { return messageType; }
+	public String getContentContains() { return contentContains; }
+	public int getLimit() { return limit; }
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder class for MessageSearchCriteria.
+	 */
+	public static class Builder {
+		private Long chatId;
+		private Long senderId;
+		private LocalDateTime from;
+		private LocalDateTime to;
+		private String messageType;
+		private String contentContains;
+		private int limit = 100;
+
+		private Builder() {}
+
+		public Builder chatId(long chatId) {
+			this.chatId = chatId;
+			return this;
+		}
+
+		public Builder senderId(long senderId) {
+			this.senderId = senderId;
+			return this;
+		}
+
+		/**
+		 * Restrict the search to messages created in [from, to).
+		 * @param from Inclusive lower bound, or null for no lower bound.
+		 * @param to Exclusive upper bound, or null for no upper bound.
+		 * @return The Builder instance.
+		 */
+		public Builder timeRange(LocalDateTime from, LocalDateTime to) {
+			this.from = from;
+			this.to = to;
+			return this;
+		}
+
+		/**
+		 * @param messageType One of the messages.message_type enum values, e.g. "text".
+		 * @return The Builder instance.
+		 */
+		public Builder messageType(String messageType) {
+			this.messageType = messageType;
+			return this;
+		}
+
+		/**
+		 * Only match messages whose content contains the given text (case handling follows the column collation).
+		 * @param text The text to look for.
+		 * @return The Builder instance.
+		 */
+		public Builder contentContains(String text) {
+			this.contentContains = text;
+			return this;
+		}
+
+		/**
+		 * @param limit The maximum number of messages to return.
+		 * @return The Builder instance.
+		 */
+		public Builder limit(int limit) {
+			this.limit = limit;
+			return this;
+		}
+
+		/**
+		 * Build the MessageSearchCriteria instance.
+		 * @return The built MessageSearchCriteria.
+		 * @throws IllegalArgumentException if the limit is not positive or the time range is inverted.
+		 */
+		public MessageSearchCriteria build() {
+			if (limit <= 0) {
+				throw new IllegalArgumentException("limit must be positive: " + limit);
+			}
+			if (from != null && to != null && !from.isBefore(to)) {
+				throw new IllegalArgumentException("Empty time range: [" + from + ", " + to + ")");
+			}
+			return new MessageSearchCriteria(this);
+		}
+	}
+}
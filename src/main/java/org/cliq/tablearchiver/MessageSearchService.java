@@ -0,0 +1,306 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Searches the live messages table together with every archive table that can hold matching rows.
+ * <p>
+ * Archive tables are pruned by their registered time range and, for a chat or sender, by their presence filter. The
+ * remaining tables are queried concurrently on virtual threads (at most {@code maxConcurrentQueries} connections at a
+ * time, shared by all searches running on the service), and the per-table results are merged newest first. Because every archive has a known upper bound on created_at, the merge can hand out rows
+ * before the older archives have answered, and the queries still outstanding when the limit is reached are cancelled.
+ * Archives offloaded by {@link ArchiveOffloader} are scanned from their cold tier file instead, without a connection,
+ * and archives moved by {@link TablespaceMover} are queried on their archive server. Given a
+ * {@link ReadRoutingDataSource}, the registry and archive tables are read from replicas that are current enough, and
+ * only the live table from the primary.
+ */
+public class MessageSearchService implements AutoCloseable {
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final Semaphore connectionBudget;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final ColdTierReaders coldTierReaders = new ColdTierReaders();
+
+	/**
+	 * @param dataSource The data source holding the messages, archive and registry tables.
+	 * @param config The archiver configuration naming those tables.
+	 * @param maxConcurrentQueries The maximum number of connections all searches of this service hold at once.
+	 */
+	public MessageSearchService(DataSource dataSource, ArchiverConfig config, int maxConcurrentQueries) {
+		this(dataSource, config, null, maxConcurrentQueries);
+	}
+
+	/**
+	 * @param dataSource The data source holding the messages, archive and registry tables.
+	 * @param config The archiver configuration naming those tables.
+	 * @param registryCache A registry cache to prune archives from instead of querying the registry, or null.
+	 * @param maxConcurrentQueries The maximum number of connections all searches of this service hold at once.
+	 */
+	public MessageSearchService(DataSource dataSource, ArchiverConfig config, ArchiveRegistryCache registryCache, int maxConcurrentQueries) {
+		if (maxConcurrentQueries <= 0) {
+			throw new IllegalArgumentException("maxConcurrentQueries must be positive: " + maxConcurrentQueries);
+		}
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.connectionBudget = new Semaphore(maxConcurrentQueries, true);
+	}
+
+	/**
+	 * Runs a search. The returned stream is ordered newest first and holds at most {@code criteria.getLimit()}
+	 * messages. Closing the stream early cancels the table queries that are still running.
+	 *
+	 * @param criteria The search criteria.
+	 * @return The matching messages, newest first.
+	 * @throws SQLException If the registry lookup fails. Failures of individual table queries surface
+	 *                      as a RuntimeException while the stream is consumed.
+	 */
+	public Stream<ChatMessage> search(MessageSearchCriteria criteria) throws SQLException {
+		List<ArchivedPartitionMetadata> archives = findArchives(criteria);
+
+		// Submitted newest first so the fair connection budget serves the tables the merge needs first.
+		List<Source> sources = new ArrayList<>(archives.size() + 1);
+		sources.add(submit(dataSource, config.getMessagesTable(), null, criteria));
+		for (ArchivedPartitionMetadata archive : archives) {
+			LocalDateTime upperBound = ArchiveRegistry.ceilToMillis(archive.getEndTimestamp());
+			if (archive.isOffloaded()) {
+				sources.add(submitCold(archive, upperBound, criteria));
+			} else {
+				sources.add(submit(ReadRoutingDataSource.archiveSource(dataSource, config, archive), archive.getArchiveTableName(), upperBound, criteria));
+			}
+		}
+
+		MergingIterator iterator = new MergingIterator(sources, criteria.getLimit());
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+			.onClose(iterator::cancelPending);
+	}
+
+	// Chat- and sender-scoped searches also skip the archives whose presence filter rules the id out.
+	private List<ArchivedPartitionMetadata> findArchives(MessageSearchCriteria criteria) throws SQLException {
+		LocalDateTime from = criteria.getFrom();
+		LocalDateTime to = criteria.getTo();
+		if (registryCache != null) {
+			if (criteria.getChatId() != null) {
+				return registryCache.findOverlappingChat(criteria.getChatId(), from, to);
+			}
+			return criteria.getSenderId() != null
+				? registryCache.findOverlappingSender(criteria.getSenderId(), from, to)
+				: registryCache.findOverlapping(from, to);
+		}
+		try (Connection conn = ReadRoutingDataSource.registrySource(dataSource).getConnection()) {
+			if (criteria.getChatId() != null) {
+				return registry.findOverlappingChat(conn, criteria.getChatId(), from, to);
+			}
+			return criteria.getSenderId() != null
+				? registry.findOverlappingSender(conn, criteria.getSenderId(), from, to)
+				: registry.findOverlapping(conn, from, to);
+		}
+	}
+
+	private Source submit(DataSource source, String table, LocalDateTime upperBound, MessageSearchCriteria criteria) {
+		Future<List<ChatMessage>> future = executor.submit(() -> {
+			connectionBudget.acquire();
+			try {
+				return queryTable(source, table, criteria);
+			} finally {
+				connectionBudget.release();
+			}
+		});
+		return new Source(table, upperBound, future);
+	}
+
+	private Source submitCold(ArchivedPartitionMetadata archive, LocalDateTime upperBound, MessageSearchCriteria criteria) {
+		String table = archive.getArchiveTableName();
+		Future<List<ChatMessage>> future = executor.submit(() -> coldTierReaders.get(archive).search(criteria, table));
+		return new Source(table, upperBound, future);
+	}
+
+	private List<ChatMessage> queryTable(DataSource source, String table, MessageSearchCriteria criteria) throws SQLException {
+		StringBuilder sql = new StringBuilder("SELECT ").append(ChatMessage.COLUMNS)
+			.append(" FROM ").append(table)
+			.append(" WHERE 1 = 1");
+		List<Object> params = new ArrayList<>();
+		if (criteria.getChatId() != null) {
+			sql.append(" AND chat_id = ?");
+			params.add(criteria.getChatId());
+		}
+		if (criteria.getSenderId() != null) {
+			sql.append(" AND sender_id = ?");
+			params.add(criteria.getSenderId());
+		}
+		if (criteria.getFrom() != null) {
+			sql.append(" AND created_at >= ?");
+			params.add(Timestamp.valueOf(criteria.getFrom()));
+		}
+		if (criteria.getTo() != null) {
+			sql.append(" AND created_at < ?");
+			params.add(Timestamp.valueOf(criteria.getTo()));
+		}
+		if (criteria.getMessageType() != null) {
+			sql.append(" AND message_type = ?");
+			params.add(criteria.getMessageType());
+		}
+		if (criteria.getContentContains() != null) {
+			sql.append(" AND content LIKE ?");
+			params.add("%" + escapeLike(criteria.getContentContains()) + "%");
+		}
+		sql.append(" ORDER BY created_at DESC, message_id DESC LIMIT ?");
+		params.add(criteria.getLimit());
+
+		try (Connection conn = source.getConnection();
+			 PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+			for (int i = 0; i < params.size(); i++) {
+				stmt.setObject(i + 1, params.get(i));
+			}
+			List<ChatMessage> messages = new ArrayList<>();
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					messages.add(ChatMessage.fromResultSet(rs, table));
+				}
+			}
+			return messages;
+		}
+	}
+
+	private static String escapeLike(String text) {
+		return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		coldTierReaders.close();
+	}
+
+	// One table's query: its pending result, and once resolved, a cursor over its rows.
+	private static class Source {
+		private final String table;
+		private final LocalDateTime upperBound; // null means unbounded (the live table)
+		private final Future<List<ChatMessage>> future;
+		private Iterator<ChatMessage> rows;
+		private ChatMessage head;
+
+		Source(String table, LocalDateTime upperBound, Future<List<ChatMessage>> future) {
+			this.table = table;
+			this.upperBound = upperBound;
+			this.future = future;
+		}
+
+		boolean advance() {
+			head = rows.hasNext() ? rows.next() : null;
+			return head != null;
+		}
+	}
+
+	/**
+	 * K-way merge over the per-table results. A row is handed out as soon as it is strictly newer than the upper
+	 * bound of every table that has not answered yet, so older archives are only waited for when they matter. A row
+	 * exactly at a bound waits for that table, which may hold a row of the same created_at and a higher message_id.
+	 */
+	private static class MergingIterator implements Iterator<ChatMessage> {
+		private final List<Source> pending; // unresolved, highest upper bound first
+		private final PriorityQueue<Source> heads = new PriorityQueue<>(Comparator.comparing((Source s) -> s.head, ChatMessage.NEWEST_FIRST));
+		private final int limit;
+		private int emitted;
+		private ChatMessage next;
+
+		MergingIterator(List<Source> sources, int limit) {
+			this.pending = new ArrayList<>(sources);
+			this.pending.sort(Comparator.comparing((Source s) -> s.upperBound, Comparator.nullsFirst(Comparator.<LocalDateTime>reverseOrder())));
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				next = computeNext();
+			}
+			return next != null;
+		}
+
+		@Override
+		public ChatMessage next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ChatMessage result = next;
+			next = null;
+			return result;
+		}
+
+		private ChatMessage computeNext() {
+			if (emitted >= limit) {
+				cancelPending();
+				return null;
+			}
+			while (true) {
+				Source top = heads.peek();
+				Source waiting = pending.isEmpty() ? null : pending.get(0);
+				if (top != null && (waiting == null || (waiting.upperBound != null && top.head.getCreatedAt().isAfter(waiting.upperBound)))) {
+					heads.poll();
+					ChatMessage message = top.head;
+					if (top.advance()) {
+						heads.add(top);
+					}
+					emitted++;
+					return message;
+				}
+				if (waiting == null) {
+					return null;
+				}
+				pending.remove(0);
+				waiting.rows = await(waiting).iterator();
+				if (waiting.advance()) {
+					heads.add(waiting);
+				}
+			}
+		}
+
+		private List<ChatMessage> await(Source source) {
+			try {
+				return source.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelPending();
+				throw new RuntimeException("Interrupted while searching table '" + source.table + "'", e);
+			} catch (ExecutionException | CancellationException e) {
+				cancelPending();
+				throw new RuntimeException("Search query failed on table '" + source.table + "'", e.getCause() != null ? e.getCause() : e);
+			}
+		}
+
+		void cancelPending() {
+			for (Source source : pending) {
+				source.future.cancel(true);
+			}
+			pending.clear();
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-committed write path for new messages.
+ * <p>
+ * {@link #send(long, long, String, String)} only queues the message; a single writer thread takes up to
+ * {@code maxBatchSize} queued messages, waiting at most {@code maxLinger} after the first one for more, and writes
+ * them in one transaction: one multi-row INSERT into the messages table, then one UPDATE of the
+ * {@code last_message_*} fields per chat in the batch, carrying that chat's newest message. Under load a whole batch
+ * costs one commit, and so one redo log flush, instead of one per message, and a busy chat's row is updated once per
+ * batch instead of once per message. The chat UPDATEs run in chat_id order, so concurrent writers lock the chats rows
+ * in the same order, and only move a chat's fields forward in time.
+ * <p>
+ * The queue is bounded: when it is full, {@code send} blocks for up to {@code enqueueTimeout} and then rejects the
+ * message, which pushes back on callers instead of letting the backlog grow without limit. Each message's future
+ * completes with the stored message, including its generated id, once the batch has committed, or exceptionally if
+ * the batch failed; a failed batch is not retried.
+ */
+public class MessageWriter implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(MessageWriter.class);
+
+	private final DataSource dataSource;
+	private final String messagesTable;
+	private final String chatsTable;
+	private final int maxBatchSize;
+	private final Duration maxLinger;
+	private final Duration enqueueTimeout;
+	private final BlockingQueue<PendingMessage> queue;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	// Private constructor to enforce usage of the Builder
+	private MessageWriter(Builder builder) {
+		this.dataSource = builder.dataSource;
+		this.messagesTable = builder.messagesTable;
+		this.chatsTable = builder.chatsTable;
+		this.maxBatchSize = builder.maxBatchSize;
+		this.maxLinger = builder.maxLinger;
+		this.enqueueTimeout = builder.enqueueTimeout;
+		this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+		this.writer = new Thread(this::writeLoop, "message-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues a message for the next batch.
+	 *
+	 * @param chatId The chat the message belongs to.
+	 * @param senderId The sending user.
+	 * @param messageType The message type, e.g. "text".
+	 * @param content The message text, or null.
+	 * @return A future completing with the stored message once its batch has committed. It fails with a
+	 *         {@link RejectedExecutionException} if the queue stayed full for the enqueue timeout or the writer is
+	 *         closed, and with the {@link SQLException} of the batch if the write failed.
+	 */
+	public CompletableFuture<ChatMessage> send(long chatId, long senderId, String messageType, String content) {
+		PendingMessage message = new PendingMessage(chatId, senderId, messageType, content,
+			LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+		if (closed) {
+			message.future.completeExceptionally(new RejectedExecutionException("MessageWriter is closed"));
+			return message.future;
+		}
+		try {
+			if (!queue.offer(message, enqueueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+				log.warn("messageWriter.rejected", "chatId", chatId, "queued", queue.size());
+				message.future.completeExceptionally(new RejectedExecutionException(
+					"Message queue stayed full for " + enqueueTimeout.toMillis() + " ms"));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			message.future.completeExceptionally(new RejectedExecutionException("Interrupted while queueing message", e));
+		}
+		return message.future;
+	}
+
+	/**
+	 * @return The number of messages queued and not yet taken into a batch.
+	 */
+	public int getQueuedMessages() {
+		return queue.size();
+	}
+
+	private void writeLoop() {
+		List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+		while (!closed || !queue.isEmpty()) {
+			try {
+				PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + maxLinger.toNanos();
+				while (batch.size() < maxBatchSize) {
+					if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					PendingMessage next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// Not interrupted by this class; keep going until close() and an empty queue end the loop
+			}
+			if (!batch.isEmpty()) {
+				writeBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<PendingMessage> batch) {
+		long started = System.nanoTime();
+		List<ChatMessage> stored = new ArrayList<>(batch.size());
+		try (Connection conn = dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				insertMessages(conn, batch, stored);
+				int chats = updateChats(conn, stored);
+				conn.commit();
+				log.debug("messageWriter.batchCommitted", "messages", batch.size(), "chats", chats,
+					"durationMs", (System.nanoTime() - started) / 1_000_000);
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException | RuntimeException e) {
+			log.error("messageWriter.batchFailed", e, "messages", batch.size());
+			for (PendingMessage message : batch) {
+				message.future.completeExceptionally(e);
+			}
+			return;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			batch.get(i).future.complete(stored.get(i));
+		}
+	}
+
+	private void insertMessages(Connection conn, List<PendingMessage> batch, List<ChatMessage> stored) throws SQLException {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(messagesTable)
+			.append(" (chat_id, sender_id, message_type, content, created_at) VALUES ");
+		for (int i = 0; i < batch.size(); i++) {
+			sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+		}
+		try (PreparedStatement stmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+			int p = 1;
+			for (PendingMessage message : batch) {
+				stmt.setLong(p++, message.chatId);
+				stmt.setLong(p++, message.senderId);
+				stmt.setString(p++, message.messageType);
+				stmt.setString(p++, message.content);
+				stmt.setTimestamp(p++, Timestamp.valueOf(message.createdAt));
+			}
+			stmt.executeUpdate();
+			// The ids of a multi-row INSERT come back in row order
+			try (ResultSet keys = stmt.getGeneratedKeys()) {
+				for (PendingMessage message : batch) {
+					if (!keys.next()) {
+						throw new SQLException("Expected " + batch.size() + " generated message ids, got " + stored.size() + ".");
+					}
+					stored.add(new ChatMessage(keys.getLong(1), message.chatId, message.senderId, message.messageType,
+						message.content, message.createdAt, messagesTable));
+				}
+			}
+		}
+	}
+
+	// One UPDATE per chat with the chat's newest message of the batch, in chat_id order
+	private int updateChats(Connection conn, List<ChatMessage> stored) throws SQLException {
+		Map<Long, ChatMessage> newest = new TreeMap<>();
+		for (ChatMessage message : stored) {
+			newest.merge(message.getChatId(), message, (a, b) -> ChatMessage.NEWEST_FIRST.compare(a, b) <= 0 ? a : b);
+		}
+		String sql = "UPDATE " + chatsTable + " SET last_message_id = ?, last_message_sender_id = ?," +
+			" last_message_content_preview = LEFT(?, 500), last_message_created_at = ?, last_message_archive_table = NULL" +
+			" WHERE chat_id = ? AND (last_message_created_at IS NULL OR last_message_created_at <= ?)";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			for (ChatMessage message : newest.values()) {
+				Timestamp createdAt = Timestamp.valueOf(message.getCreatedAt());
+				stmt.setLong(1, message.getMessageId());
+				stmt.setLong(2, message.getSenderId());
+				stmt.setString(3, message.getContent());
+				stmt.setTimestamp(4, createdAt);
+				stmt.setLong(5, message.getChatId());
+				stmt.setTimestamp(6, createdAt);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+		return newest.size();
+	}
+
+	/**
+	 * Stops accepting messages, writes everything already queued and waits for the writer thread to finish.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// A send racing with close can still queue a message after the writer has gone
+		PendingMessage late;
+		while ((late = queue.poll()) != null) {
+			late.future.completeExceptionally(new RejectedExecutionException("MessageWriter is closed"));
+		}
+	}
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @param dataSource The data source holding the messages and chats tables.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder(DataSource dataSource) {
+		return new Builder(dataSource);
+	}
+
+	private static class PendingMessage {
+		private final long chatId;
+		private final long senderId;
+		private final String messageType;
+		private final String content;
+		private final LocalDateTime createdAt;
+		private final CompletableFuture<ChatMessage> future = new CompletableFuture<>();
+
+		PendingMessage(long chatId, long senderId, String messageType, String content, LocalDateTime createdAt) {
+			this.chatId = chatId;
+			this.senderId = senderId;
+			this.messageType = messageType;
+			this.content = content;
+			this.createdAt = createdAt;
+		}
+	}
+
+	/**
+	 * Builder class for MessageWriter.
+	 */
+	public static class Builder {
+		private final DataSource dataSource;
+		private String messagesTable = "messages";
+		private String chatsTable = "chats";
+		private int maxBatchSize = 500;
+		private Duration maxLinger = Duration.ofMillis(5);
+		private int queueCapacity = 10_000;
+		private Duration enqueueTimeout = Duration.ofSeconds(1);
+
+		private Builder(DataSource dataSource) {
+			this.dataSource = Objects.requireNonNull(dataSource, "dataSource cannot be null");
+		}
+
+		/**
+		 * Set the tables written to.
+		 * @param messagesTable The messages table, "messages" by default.
+		 * @param chatsTable The chats table with the last_message_* fields, "chats" by default.
+		 * @return The Builder instance.
+		 */
+		public Builder tables(String messagesTable, String chatsTable) {
+			this.messagesTable = Objects.requireNonNull(messagesTable, "messagesTable cannot be null");
+			this.chatsTable = Objects.requireNonNull(chatsTable, "chatsTable cannot be null");
+			return this;
+		}
+
+		/**
+		 * Set the largest batch written in one transaction. Default is 500.
+		 * @param maxBatchSize The maximum number of messages per batch.
+		 * @return The Builder instance.
+		 */
+		public Builder maxBatchSize(int maxBatchSize) {
+			this.maxBatchSize = maxBatchSize;
+			return this;
+		}
+
+		/**
+		 * Set how long a batch waits for more messages after its first one. Default is 5 ms.
+		 * @param maxLinger The maximum extra latency a message gets from batching.
+		 * @return The Builder instance.
+		 */
+		public Builder maxLinger(Duration maxLinger) {
+			this.maxLinger = Objects.requireNonNull(maxLinger, "maxLinger cannot be null");
+			return this;
+		}
+
+		/**
+		 * Set the queue bound and how long a send waits for room in a full queue. Defaults are 10,000 messages and 1
+		 * second.
+		 * @param queueCapacity The maximum number of queued messages.
+		 * @param enqueueTimeout How long send blocks on a full queue before rejecting the message.
+		 * @return The Builder instance.
+		 */
+		public Builder backpressure(int queueCapacity, Duration enqueueTimeout) {
+			this.queueCapacity = queueCapacity;
+			this.enqueueTimeout = Objects.requireNonNull(enqueueTimeout, "enqueueTimeout cannot be null");
+			return this;
+		}
+
+		/**
+		 * Build the MessageWriter instance and start its writer thread.
+		 * @return The built MessageWriter.
+		 * @throws IllegalArgumentException if the batch size or queue capacity is not positive.
+		 */
+		public MessageWriter build() {
+			if (maxBatchSize <= 0 || queueCapacity <= 0) {
+				throw new IllegalArgumentException("maxBatchSize and queueCapacity must be positive.");
+			}
+			return new MessageWriter(this);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.cliq.tablearchiver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the archiver's DDL under a {@link LockWaitPolicy}: short session lock_wait_timeout, jittered retries,
+ * and a pre-flight check for long-running metadata lock holders on the messages table.
+ */
+class MetadataLockGuard {
+
+	// ER_LOCK_WAIT_TIMEOUT, raised when lock_wait_timeout expires while waiting for a metadata lock
+	private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+	// ER_TABLEACCESS_DENIED_ERROR, raised when performance_schema is not readable by the archiver's user
+	private static final int ER_TABLEACCESS_DENIED = 1142;
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(MetadataLockGuard.class);
+
+	private final LockWaitPolicy policy;
+
+	MetadataLockGuard(LockWaitPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Sets the policy's lock_wait_timeout on the session.
+	 *
+	 * @param conn The database connection.
+	 * @return The previous session value, to be passed to {@link #restoreSessionTimeout(Connection, long)}.
+	 * @throws SQLException If a database error occurs.
+	 */
+	long applySessionTimeout(Connection conn) throws SQLException {
+		long previous;
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT @@SESSION.lock_wait_timeout")) {
+			rs.next();
+			previous = rs.getLong(1);
+		}
+		setSessionTimeout(conn, policy.getLockWaitTimeoutSeconds());
+		return previous;
+	}
+
+	void restoreSessionTimeout(Connection conn, long previous) throws SQLException {
+		setSessionTimeout(conn, previous);
+	}
+
+	private static void setSessionTimeout(Connection conn, long seconds) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("SET SESSION lock_wait_timeout = " + seconds);
+		}
+	}
+
+	/**
+	 * Waits, with jittered backoff, until no other session has held a metadata lock on the table for longer than
+	 * the policy's threshold. An ALTER queued behind such a holder would block every new write to the table.
+	 *
+	 * @param conn The database connection.
+	 * @param tableName The table the archiver is about to alter.
+	 * @return The time spent waiting for the holders to finish.
+	 * @throws SQLException If long-running holders remain after the retry window, or a database error occurs.
+	 */
+	Duration awaitNoLongRunningHolders(Connection conn, String tableName) throws SQLException {
+		long started = System.nanoTime();
+		long deadline = started + policy.getRetryWindow().toNanos();
+		for (int attempt = 1; ; attempt++) {
+			List<String> holders = longRunningHolders(conn, tableName);
+			if (holders.isEmpty()) {
+				return attempt == 1 ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - started);
+			}
+			log.warn("archive.deferred", "table", tableName, "reason", "long-running metadata lock holders", "holders", holders);
+			if (System.nanoTime() >= deadline) {
+				throw new SQLException("Gave up waiting for long-running metadata lock holders on '" + tableName + "' to finish: " + holders);
+			}
+			sleep(backoff(attempt), deadline);
+		}
+	}
+
+	private List<String> longRunningHolders(Connection conn, String tableName) throws SQLException {
+		String sql = """
+			SELECT t.PROCESSLIST_ID, t.PROCESSLIST_TIME, ml.LOCK_TYPE
+			FROM performance_schema.metadata_locks ml
+			JOIN performance_schema.threads t ON t.THREAD_ID = ml.OWNER_THREAD_ID
+			WHERE ml.OBJECT_TYPE = 'TABLE' AND ml.OBJECT_SCHEMA = DATABASE() AND ml.OBJECT_NAME = ?
+			  AND ml.LOCK_STATUS = 'GRANTED' AND t.PROCESSLIST_ID <> CONNECTION_ID() AND t.PROCESSLIST_TIME >= ?
+			""";
+		List<String> holders = new ArrayList<>();
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, tableName);
+			stmt.setLong(2, policy.getLongRunningHolderThreshold().toSeconds());
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					holders.add("connection " + rs.getLong(1) + " (" + rs.getString(3) + ", " + rs.getLong(2) + "s)");
+				}
+			}
+		} catch (SQLException e) {
+			if (e.getErrorCode() != ER_TABLEACCESS_DENIED) {
+				throw e;
+			}
+			log.warn("lockHolderCheck.skipped", "reason", "performance_schema.metadata_locks not readable", "error", e.getMessage());
+		}
+		return holders;
+	}
+
+	/**
+	 * Executes one DDL statement, retrying lock wait timeouts with jittered backoff within the retry window.
+	 * Every attempt is reported to the policy's listener.
+	 *
+	 * @param conn The database connection, with the session timeout already applied.
+	 * @param step The archival step, for reporting.
+	 * @param sql The DDL statement.
+	 * @return The time lost to timed-out attempts and backoff before the successful attempt.
+	 * @throws SQLException If the statement fails for another reason, or still times out at the end of the window.
+	 */
+	Duration execute(Connection conn, String step, String sql) throws SQLException {
+		long firstStarted = System.nanoTime();
+		long deadline = firstStarted + policy.getRetryWindow().toNanos();
+		for (int attempt = 1; ; attempt++) {
+			long started = System.nanoTime();
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute(sql);
+				report(step, attempt, started, true);
+				return Duration.ofNanos(started - firstStarted);
+			} catch (SQLException e) {
+				if (e.getErrorCode() != ER_LOCK_WAIT_TIMEOUT) {
+					throw e;
+				}
+				report(step, attempt, started, false);
+				if (System.nanoTime() >= deadline) {
+					throw new SQLException("Step '" + step + "' could not acquire its metadata lock within " +
+						policy.getRetryWindow() + " (" + attempt + " attempts)", e.getSQLState(), e.getErrorCode(), e);
+				}
+				sleep(backoff(attempt), deadline);
+			}
+		}
+	}
+
+	private void report(String step, int attempt, long startedNanos, boolean acquired) {
+		LockWaitPolicy.LockWaitAttempt lockAttempt =
+			new LockWaitPolicy.LockWaitAttempt(step, attempt, Duration.ofNanos(System.nanoTime() - startedNanos), acquired);
+		if (acquired) {
+			log.debug("lock.acquired", "step", step, "attempt", attempt, "waitedMs", lockAttempt.getWaited().toMillis());
+		} else {
+			log.info("lock.timedOut", "step", step, "attempt", attempt, "waitedMs", lockAttempt.getWaited().toMillis());
+		}
+		policy.getAttemptListener().accept(lockAttempt);
+	}
+
+	// Exponential backoff with equal jitter: half the delay is fixed, the other half random.
+	private Duration backoff(int attempt) {
+		long initial = policy.getInitialBackoff().toMillis();
+		long max = policy.getMaxBackoff().toMillis();
+		long delay = Math.min(max, initial << Math.min(attempt - 1, 20));
+		long half = delay / 2;
+		return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+	}
+
+	private static void sleep(Duration delay, long deadlineNanos) throws SQLException {
+		long remaining = Math.max(0, deadlineNanos - System.nanoTime());
+		try {
+			Thread.sleep(Duration.ofNanos(Math.min(delay.toNanos(), remaining)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while backing off for a metadata lock", e);
+		}
+	}
+}
@@ -8,19 +8,47 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 public class PartitionArchiver {
 
+	private static final StructuredLogger log = StructuredLogger.getLogger(PartitionArchiver.class);
+
 	private final DataSource dataSource;
 	private final ArchiverConfig config;
+	private final ArchiveRegistryCache registryCache;
+	private final MetadataLockGuard lockGuard;
+	private final ArchiveRegistry registry;
+	private final ChatSummaryRepair chatSummaryRepair;
 
 	public PartitionArchiver(DataSource dataSource, ArchiverConfig config)
+	{
+		this(dataSource, config, null);
+	}
+
+	/**
+	 * @param dataSource The data source holding the messages and registry tables.
+	 * @param config The archiver configuration.
+	 * @param registryCache A registry cache to publish each new archive to, or null.
+	 */
+	public PartitionArchiver(DataSource dataSource, ArchiverConfig config, ArchiveRegistryCache registryCache)
 	{
 		this.dataSource = dataSource;
 		this.config = config;// Default if no function provided
+		this.registryCache = registryCache;
+		this.lockGuard = config.getLockWaitPolicy() == null ? null : new MetadataLockGuard(config.getLockWaitPolicy());
+		this.registry = new ArchiveRegistry(config);
+		this.chatSummaryRepair = new ChatSummaryRepair(config);
 	}
 
 	// A default naming function if none is provided in the config
@@ -36,85 +64,540 @@ public class PartitionArchiver {
 
 	/**
 	 * Archives a specific partition from the messages table.
+	 * <p>
+	 * Every step is timed: it is logged, reported to the configured {@link ArchiverMetrics}, and recorded as an
+	 * {@link ArchiveStepEvent} in any running flight recording.
 	 *
 	 * @param partitionName The name of the partition to archive (e.g., "p2025_q1").
 	 * @throws SQLException If a database error occurs.
 	 */
 	public void archivePartition(String partitionName) throws SQLException {
 		String archiveTableName = config.getArchiveTableNameSupplier().apply(partitionName);
+		ArchivalRun run = new ArchivalRun(partitionName, archiveTableName);
 		Connection conn = null;
+		long previousLockWaitTimeout = -1;
 
 		try {
 			conn = dataSource.getConnection();
 			// manage transactions manually
 			conn.setAutoCommit(false);
 
-			System.out.println("Starting archival process for partition: " + partitionName);
+			log.info("archive.started", "partition", partitionName, "archiveTable", archiveTableName);
 
-			//0. Check if the partition exists before proceeding
-			if (!partitionExists(conn, partitionName)) {
-				throw new SQLException("Unable to archive: Partition '" + partitionName + "' does not exist in table '" + config.getMessagesTable() + "'.");
+			if (lockGuard != null) {
+				// Don't queue an ALTER behind a long-running reader: every write to the table would queue behind it
+				Connection lockConn = conn;
+				ddlStep(run, "awaitLockHolders", () -> lockGuard.awaitNoLongRunningHolders(lockConn, config.getMessagesTable()));
+				previousLockWaitTimeout = lockGuard.applySessionTimeout(conn);
 			}
 
+			ArchivedPartitionMetadata metadata = archiveSteps(conn, run);
+			Duration elapsed = Duration.ofNanos(System.nanoTime() - run.startedNanos);
+			log.info("archive.completed", "partition", partitionName, "archiveTable", archiveTableName,
+				"rows", run.rowCount, "durationMs", elapsed.toMillis());
+			config.getMetrics().archivalSucceeded(partitionName, run.rowCount, elapsed);
 
-			// 1. Check and Create Archive Table if Not Exists
+			if (registryCache != null) {
+				registryCache.publish(metadata, run.presenceFilters);
+			}
+			if (config.getChatsTable() != null) {
+				// The archive is committed; a failed repair is logged and can be rerun, it does not undo the archival
+				try {
+					conn.setAutoCommit(true);
+					chatSummaryRepair.repair(conn, metadata);
+				} catch (SQLException repairErr) {
+					log.error("archive.chatRepairFailed", repairErr, "partition", partitionName, "archiveTable", archiveTableName);
+				}
+			}
+			for (ArchivalListener listener : config.getArchivalListeners()) {
+				try {
+					listener.archived(metadata);
+				} catch (RuntimeException listenerErr) {
+					log.error("archive.listenerFailed", listenerErr, "partition", partitionName, "listener", listener.getClass().getName());
+				}
+			}
 
-			if (!archiveTableExists(conn, archiveTableName))
-			{
-				System.out.println("Archive table '" + archiveTableName + "' does not exist. Creating...");
-				createArchiveTable(conn, archiveTableName);
-				System.out.println("Archive table '" + archiveTableName + "' created.");
-			} else
-			{
-				System.out.println("Archive table '" + archiveTableName + "' already exists.");
+		} catch (SQLException e) {
+			if (conn != null) {
+				try {
+					conn.rollback();
+				} catch (SQLException rollbackErr) {
+					log.error("archive.rollbackFailed", rollbackErr, "partition", partitionName);
+				}
+			}
+			log.error("archive.failed", e, "partition", partitionName, "archiveTable", archiveTableName, "step", run.step);
+			config.getMetrics().archivalFailed(partitionName, run.step, e);
+			throw e;
+		} finally {
+			if (conn != null) {
+				try {
+					if (previousLockWaitTimeout >= 0) {
+						lockGuard.restoreSessionTimeout(conn, previousLockWaitTimeout);
+					}
+					conn.setAutoCommit(true);
+					conn.close();
+				} catch (SQLException closeErr) {
+					log.warn("archive.connectionCloseFailed", "partition", partitionName, "error", closeErr.getMessage());
+				}
 			}
+		}
+	}
+
+	private ArchivedPartitionMetadata archiveSteps(Connection conn, ArchivalRun run) throws SQLException {
+		String partitionName = run.partitionName;
+		String archiveTableName = run.archiveTableName;
+
+		//0. Check if the partition exists before proceeding
+		if (!step(run, "partitionExists", () -> partitionExists(conn, partitionName))) {
+			throw new SQLException("Unable to archive: Partition '" + partitionName + "' does not exist in table '" + config.getMessagesTable() + "'.");
+		}
+
+		// 1. Capture Metadata from the Partition, while it can still be read with PARTITION-scoped index lookups
+		ArchivedPartitionMetadata metadata = step(run, "capturePartitionMetadata",
+			() -> capturePartitionMetadata(conn, partitionName, archiveTableName));
+		run.rowCount = metadata.getRowCount();
+		run.dataLength = metadata.getDataLength();
+		log.info("archive.metadataCaptured", "partition", partitionName, "minMessageId", metadata.getMinMessageId(),
+			"maxMessageId", metadata.getMaxMessageId(), "start", metadata.getStartTimestamp(), "end", metadata.getEndTimestamp(),
+			"rows", metadata.getRowCount(), "dataLength", metadata.getDataLength(), "indexLength", metadata.getIndexLength());
+
+		// 2. Check and Create Archive Table if Not Exists
+		if (!archiveTableExists(conn, archiveTableName)) {
+			ddlStep(run, "createArchiveTable", () -> createArchiveTable(conn, archiveTableName));
+		} else {
+			log.info("archive.tableExists", "archiveTable", archiveTableName);
+		}
 
-			// 2. Perform Partition Exchange
-			System.out.println("Exchanging partition '" + partitionName + "' with table '" + archiveTableName + "'...");
-			exchangePartition(conn, partitionName, archiveTableName);
-			System.out.println("Partition exchange complete.");
+		// 3. Perform Partition Exchange
+		ddlStep(run, "exchangePartition", () -> exchangePartition(conn, partitionName, archiveTableName));
+
+		// 4. Rebuild the archive's secondary indexes to the archive-tier profile, before any reader knows the table
+		ArchiveIndexProfile indexProfile = config.getIndexProfile();
+		ArchivedPartitionMetadata archived = metadata;
+		if (indexProfile != null) {
+			long indexLength = step(run, "applyIndexProfile", () -> {
+				indexProfile.apply(conn, archiveTableName);
+				return ArchiveIndexProfile.indexLength(conn, archiveTableName);
+			});
+			log.info("archive.indexProfileApplied", "archiveTable", archiveTableName, "profile", indexProfile.getName(),
+				"indexLengthBefore", metadata.getIndexLength(), "indexLength", indexLength);
+			archived = metadata.withIndexProfile(indexProfile.getName(), indexLength);
+		}
 
-			// 3. Get Metadata from Archived Table
-			System.out.println("Fetching metadata from archived table '" + archiveTableName + "'...");
-			ArchivedPartitionMetadata metadata = getArchivedPartitionMetadata(conn, archiveTableName);
-			System.out.println("Metadata fetched: " + metadata);
+		// 5. Build the chat and sender presence filters of the archive, now that its rows are in a table of their own
+		if (config.getPresenceFilterTable() != null) {
+			run.presenceFilters = step(run, "buildPresenceFilters", () -> registry.buildPresenceFilters(conn, archiveTableName));
+			log.info("archive.presenceFiltersBuilt", "archiveTable", archiveTableName,
+				"chats", run.presenceFilters.chats.getItemCount(), "chatFilterBytes", run.presenceFilters.chats.getSizeInBytes(),
+				"senders", run.presenceFilters.senders.getItemCount(), "senderFilterBytes", run.presenceFilters.senders.getSizeInBytes());
+		}
 
-			// 4. Insert Metadata into archived_message_partitions
-			System.out.println("Inserting metadata into '" + config.getArchivedMetadataTable() + "'...");
-			insertArchivedMetadata(conn, archiveTableName, metadata);
-			System.out.println("Metadata inserted.");
+		// 6. Insert Metadata into archived_message_partitions, with the presence filters next to it
+		ArchivedPartitionMetadata registered = archived;
+		step(run, "insertArchivedMetadata", () -> {
+			insertArchivedMetadata(conn, archiveTableName, registered);
+			if (run.presenceFilters != null) {
+				registry.savePresenceFilters(conn, archiveTableName, run.presenceFilters);
+			}
+			return null;
+		});
 
-			// 5. Drop Original Partition
-			System.out.println("Dropping original partition '" + partitionName + "' from '" + config.getMessagesTable() + "'...");
-			dropPartition(conn, partitionName);
-			System.out.println("Original partition dropped.");
+		// 7. Drop Original Partition
+		ddlStep(run, "dropPartition", () -> dropPartition(conn, partitionName));
+
+		step(run, "commit", () -> {
 			conn.commit();
-			System.out.println("Archival process for partition '" + partitionName + "' completed successfully.");
+			return null;
+		});
+		return registered;
+	}
 
-		} catch (SQLException e) {
-			if (conn != null) {
+	/**
+	 * Swaps an archive table back into the messages table, the reverse of {@link #archivePartition(String)}.
+	 * <p>
+	 * The archive comes back as one range partition spanning the periods of the partition scheme its registry bounds
+	 * fall into. The live partition covering that range is split with REORGANIZE PARTITION into a new partition for
+	 * the range and what is left below and above it, which only changes metadata as long as the partition is empty. When it has rows,
+	 * all on one side of the range (the usual case: the oldest live partition, whose range reaches down over the
+	 * archived months), they are exchanged out into a holding table around the split and exchanged back after it,
+	 * under LOCK TABLES so no other session sees them missing. The archive table is then exchanged into the new
+	 * partition WITHOUT VALIDATION, as its rows were taken from that range, and its registry row, presence filters
+	 * and chats.last_message_archive_table references are removed; the archival listeners are told it is gone. An
+	 * archive rebuilt to an index profile gets the indexes of the messages table back first. Offloaded archives have no table, and archives whose row format or
+	 * create options differ from the messages table, such as compacted ones (ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8),
+	 * cannot be exchanged; both are refused before any DDL and have to be copied back instead. When a step of the swap
+	 * fails, the steps done so far are undone before UNLOCK TABLES: the archive is exchanged back out, the split
+	 * partitions are merged again and the held rows go back into their partition.
+	 *
+	 * @param archiveTableName The registered archive table.
+	 * @return The name of the partition now holding the archive's rows.
+	 * @throws SQLException If the archive cannot be swapped back or a database error occurs.
+	 */
+	public String restorePartition(String archiveTableName) throws SQLException {
+		ArchivalRun run = new ArchivalRun(null, archiveTableName);
+		String messages = config.getMessagesTable();
+		Connection conn = null;
+		long previousLockWaitTimeout = -1;
+		boolean tablesLocked = false;
+		RestorePlan started = null;
+
+		try {
+			conn = dataSource.getConnection();
+			Connection c = conn;
+			ArchivedPartitionMetadata archive = step(run, "findArchive", () -> registry.find(c, archiveTableName));
+			if (archive == null) {
+				throw new SQLException("Unable to restore: '" + archiveTableName + "' is not a registered archive.");
+			}
+			if (archive.isOffloaded()) {
+				throw new SQLException("Unable to restore: archive '" + archiveTableName + "' was offloaded to " + archive.getOffloadLocation() + ".");
+			}
+			if (archive.isRemote()) {
+				throw new SQLException("Unable to restore: archive '" + archiveTableName + "' was moved to archive server " + archive.getArchiveServer() + ".");
+			}
+			step(run, "checkRowFormat", () -> {
+				checkRowFormat(c, archiveTableName);
+				return null;
+			});
+
+			PartitionScheme scheme = config.getPartitionScheme();
+			LocalDate lower = scheme.floor(archive.getStartTimestamp().toLocalDate());
+			LocalDate upper = scheme.next(scheme.floor(archive.getEndTimestamp().toLocalDate()));
+			RestorePlan plan = step(run, "planRestore", () -> planRestore(c, lower, upper));
+			run.partitionName = plan.partitionName;
+			started = plan;
+			log.info("restore.started", "archiveTable", archiveTableName, "partition", plan.partitionName, "lower", lower,
+				"upper", upper, "splitPartition", plan.split, "holdingTable", plan.holdingTable);
+
+			if (lockGuard != null) {
+				ddlStep(run, "awaitLockHolders", () -> lockGuard.awaitNoLongRunningHolders(c, messages));
+				previousLockWaitTimeout = lockGuard.applySessionTimeout(conn);
+			}
+			if (archive.getIndexProfile() != null) {
+				// EXCHANGE PARTITION needs the archive's indexes to match the messages table again
+				step(run, "restoreIndexes", () -> ArchiveIndexProfile.ofTable(c, messages, messages).apply(c, archiveTableName));
+			}
+			if (plan.holdingTable != null) {
+				ddlStep(run, "createHoldingTable", () -> createArchiveTable(c, plan.holdingTable));
+				plan.holdingCreated = true;
+				ddlStep(run, "lockTables", () -> executeDdl(c, "lockTables",
+					"LOCK TABLES " + messages + " WRITE, " + archiveTableName + " WRITE, " + plan.holdingTable + " WRITE"));
+				tablesLocked = true;
+				ddlStep(run, "exchangeOutHolding", () -> exchangeWithoutValidation(c, plan.split, plan.holdingTable));
+				plan.heldOut = true;
+			}
+			if (plan.reorganize != null) {
+				ddlStep(run, "splitPartition", () -> executeDdl(c, "splitPartition", plan.reorganize));
+				plan.reorganized = true;
+			}
+			ddlStep(run, "exchangeArchiveIn", () -> exchangeWithoutValidation(c, plan.partitionName, archiveTableName));
+			plan.archiveIn = true;
+			if (plan.holdingTable != null) {
+				ddlStep(run, "exchangeBackHolding", () -> exchangeWithoutValidation(c, plan.holdingPartition, plan.holdingTable));
+			}
+			started = null; // the rows are swapped in, nothing left to undo
+			if (tablesLocked) {
+				step(run, "unlockTables", () -> {
+					try (Statement stmt = c.createStatement()) {
+						stmt.execute("UNLOCK TABLES");
+					}
+					return null;
+				});
+				tablesLocked = false;
+			}
+
+			// The rows are live again; forget the archive before dropping its now empty table
+			step(run, "deleteArchivedMetadata", () -> {
+				registry.deleteArchive(c, archiveTableName);
+				return null;
+			});
+			if (registryCache != null) {
+				registryCache.remove(archiveTableName);
+			}
+			if (config.getChatsTable() != null) {
 				try {
-					conn.rollback();
-					System.err.println("Transaction rolled back due to error.");
-				} catch (SQLException rollbackErr) {
-					System.err.println("Error during rollback: " + rollbackErr.getMessage());
+					chatSummaryRepair.repoint(conn, List.of(archiveTableName), null);
+				} catch (SQLException repairErr) {
+					log.error("restore.chatRepointFailed", repairErr, "archiveTable", archiveTableName);
 				}
 			}
-			System.err.println("Archival process failed for partition '" + partitionName + "'.");
+			ddlStep(run, "dropArchiveTable", () -> executeDdl(c, "dropArchiveTable", "DROP TABLE " + archiveTableName));
+			if (plan.holdingTable != null) {
+				ddlStep(run, "dropHoldingTable", () -> executeDdl(c, "dropHoldingTable", "DROP TABLE " + plan.holdingTable));
+			}
+			for (ArchivalListener listener : config.getArchivalListeners()) {
+				try {
+					listener.removed(archive);
+				} catch (RuntimeException listenerErr) {
+					log.error("restore.listenerFailed", listenerErr, "archiveTable", archiveTableName, "listener", listener.getClass().getName());
+				}
+			}
+
+			log.info("restore.completed", "archiveTable", archiveTableName, "partition", plan.partitionName,
+				"rows", archive.getRowCount(), "durationMs", (System.nanoTime() - run.startedNanos) / 1_000_000);
+			return plan.partitionName;
+		} catch (SQLException e) {
+			if (started != null) {
+				undoRestore(conn, started, archiveTableName, e);
+			}
+			log.error("restore.failed", e, "archiveTable", archiveTableName, "partition", run.partitionName, "step", run.step);
 			throw e;
 		} finally {
 			if (conn != null) {
 				try {
-					conn.setAutoCommit(true);
+					if (tablesLocked) {
+						try (Statement stmt = conn.createStatement()) {
+							stmt.execute("UNLOCK TABLES");
+						}
+					}
+					if (previousLockWaitTimeout >= 0) {
+						lockGuard.restoreSessionTimeout(conn, previousLockWaitTimeout);
+					}
 					conn.close();
 				} catch (SQLException closeErr) {
-					System.err.println("Error closing connection: " + closeErr.getMessage());
+					log.warn("restore.connectionCloseFailed", "archiveTable", archiveTableName, "error", closeErr.getMessage());
+				}
+			}
+		}
+	}
+
+	// Undoes the swap steps a failed restore got through, in reverse and while the tables are still locked
+	private void undoRestore(Connection conn, RestorePlan plan, String archiveTableName, SQLException failure) {
+		try {
+			if (plan.archiveIn) {
+				exchangeWithoutValidation(conn, plan.partitionName, archiveTableName);
+			}
+			if (plan.reorganized) {
+				executeDdl(conn, "mergePartition", plan.merge); // all of its partitions are empty again
+			}
+			if (plan.heldOut) {
+				exchangeWithoutValidation(conn, plan.split, plan.holdingTable);
+			}
+			if (plan.holdingCreated) {
+				executeDdl(conn, "dropHoldingTable", "DROP TABLE " + plan.holdingTable);
+			}
+			log.info("restore.undone", "archiveTable", archiveTableName, "partition", plan.split,
+				"archiveExchangedOut", plan.archiveIn, "merged", plan.reorganized, "heldRowsExchangedBack", plan.heldOut);
+		} catch (SQLException undoErr) {
+			failure.addSuppressed(undoErr);
+			log.error("restore.undoFailed", undoErr, "archiveTable", archiveTableName, "partition", plan.split,
+				"holdingTable", plan.holdingTable);
+		}
+	}
+
+	// EXCHANGE PARTITION refuses a table of another row format, and options such as KEY_BLOCK_SIZE must match too
+	private void checkRowFormat(Connection conn, String archiveTableName) throws SQLException {
+		String messages = config.getMessagesTable();
+		String expected = rowFormat(conn, messages);
+		String actual = rowFormat(conn, archiveTableName);
+		if (!expected.equals(actual)) {
+			throw new SQLException("Unable to restore: archive '" + archiveTableName + "' has " + actual + ", '" + messages +
+				"' has " + expected + "; its rows have to be copied back instead.");
+		}
+	}
+
+	private static String rowFormat(Connection conn, String table) throws SQLException {
+		String sql = "SELECT ROW_FORMAT, CREATE_OPTIONS FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("Unable to restore: table '" + table + "' does not exist.");
 				}
+				// The messages table's options also say "partitioned", which the archive cannot match
+				String options = Arrays.stream(Objects.toString(rs.getString(2), "").toLowerCase(Locale.ROOT).split("\\s+"))
+					.filter(option -> !option.isEmpty() && !option.equals("partitioned"))
+					.sorted()
+					.collect(Collectors.joining(" "));
+				return "ROW_FORMAT=" + rs.getString(1) + (options.isEmpty() ? "" : " (" + options + ")");
+			}
+		}
+	}
+
+	// Works out which live partition to split for [lower, upper) and how, without changing anything
+	private RestorePlan planRestore(Connection conn, LocalDate lower, LocalDate upper) throws SQLException {
+		String messages = config.getMessagesTable();
+		PartitionScheme scheme = config.getPartitionScheme();
+		List<DataSourceConfig.PartitionDetails> partitions = PartitionManager.readPartitions(conn, messages);
+		LocalDate previousBound = null;
+		DataSourceConfig.PartitionDetails covering = null;
+		for (DataSourceConfig.PartitionDetails partition : partitions) {
+			LocalDate bound = PartitionManager.upperBound(partition);
+			if (bound != null && bound.isAfter(lower) && bound.isBefore(upper)) {
+				throw new SQLException("Unable to restore: partition '" + partition.getPartitionName() + "' ends inside [" +
+					lower + ", " + upper + ").");
+			}
+			if (bound == null || !bound.isBefore(upper)) {
+				covering = partition;
+				break;
+			}
+			previousBound = bound;
+		}
+		if (covering == null) {
+			throw new SQLException("Unable to restore: no partition of '" + messages + "' covers [" + lower + ", " + upper + ").");
+		}
+		String split = covering.getPartitionName();
+		LocalDate splitBound = PartitionManager.upperBound(covering);
+
+		String inRange = "SELECT 1 FROM " + messages + " PARTITION (" + split + ") WHERE created_at >= ? AND created_at < ? LIMIT 1";
+		if (existsBetween(conn, inRange, lower, upper)) {
+			throw new SQLException("Unable to restore: partition '" + split + "' already has rows in [" + lower + ", " + upper + ").");
+		}
+		boolean rowsBelow = existsBetween(conn, inRange, LocalDate.of(1000, 1, 1), lower);
+		boolean rowsAbove = existsBetween(conn, inRange, upper, LocalDate.of(9999, 12, 31));
+		if (rowsBelow && rowsAbove) {
+			throw new SQLException("Unable to restore: partition '" + split + "' has rows both below and above [" + lower + ", " +
+				upper + "), so splitting it would copy them.");
+		}
+
+		RestorePlan plan = new RestorePlan();
+		plan.split = split;
+		boolean exact = (previousBound == null ? !rowsBelow : previousBound.equals(lower)) && upper.equals(splitBound);
+		if (exact) {
+			plan.partitionName = split; // the covering partition already has the archive's range, and no rows
+			return plan;
+		}
+		plan.partitionName = scheme.partitionName(lower);
+		List<String> definitions = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		if (previousBound == null ? rowsBelow : previousBound.isBefore(lower)) {
+			String name = rowsBelow ? split : previousBound != null ? scheme.partitionName(previousBound) : plan.partitionName + "_below";
+			names.add(name);
+			definitions.add("PARTITION " + name + " VALUES LESS THAN (TO_DAYS('" + lower + "'))");
+			if (rowsBelow) {
+				plan.holdingPartition = name;
+			}
+		}
+		names.add(plan.partitionName);
+		definitions.add("PARTITION " + plan.partitionName + " VALUES LESS THAN (TO_DAYS('" + upper + "'))");
+		if (!upper.equals(splitBound)) {
+			String name = rowsBelow ? scheme.partitionName(upper) : split;
+			names.add(name);
+			definitions.add("PARTITION " + name + " VALUES LESS THAN " + (splitBound == null ? "MAXVALUE" : "(TO_DAYS('" + splitBound + "'))"));
+			if (rowsAbove) {
+				plan.holdingPartition = name;
+			}
+		}
+		for (DataSourceConfig.PartitionDetails existing : partitions) {
+			if (!existing.getPartitionName().equals(split) && names.contains(existing.getPartitionName())) {
+				throw new SQLException("Unable to restore: partition name '" + existing.getPartitionName() + "' is already taken.");
+			}
+		}
+		if (plan.holdingPartition != null) {
+			plan.holdingTable = messages + "_restore_" + plan.partitionName;
+		}
+		plan.reorganize = "ALTER TABLE " + messages + " REORGANIZE PARTITION " + split + " INTO (" + String.join(", ", definitions) + ")";
+		plan.merge = "ALTER TABLE " + messages + " REORGANIZE PARTITION " + String.join(", ", names) + " INTO (PARTITION " + split +
+			" VALUES LESS THAN " + (splitBound == null ? "MAXVALUE" : "(TO_DAYS('" + splitBound + "'))") + ")";
+		return plan;
+	}
+
+	private static boolean existsBetween(Connection conn, String sql, LocalDate from, LocalDate to) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setTimestamp(1, Timestamp.valueOf(from.atStartOfDay()));
+			stmt.setTimestamp(2, Timestamp.valueOf(to.atStartOfDay()));
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	// How restorePartition splits the live partition covering the archive's range.
+	private static class RestorePlan {
+		String partitionName;
+		String split;
+		// REORGANIZE PARTITION statement, or null if the covering partition is used as is, and the one undoing it
+		String reorganize;
+		String merge;
+		// Set when the covering partition has rows: the table holding them during the split, and where they go back
+		String holdingTable;
+		String holdingPartition;
+		// How far the swap got, for undoRestore
+		boolean holdingCreated;
+		boolean heldOut;
+		boolean reorganized;
+		boolean archiveIn;
+	}
+
+	// The rows are known to lie inside the partition's range, so MySQL need not scan them to check
+	private Duration exchangeWithoutValidation(Connection conn, String partitionName, String tableName) throws SQLException {
+		String sql = "ALTER TABLE " + config.getMessagesTable() +
+			" EXCHANGE PARTITION " + partitionName +
+			" WITH TABLE " + tableName + " WITHOUT VALIDATION";
+		return executeDdl(conn, "exchangePartition", sql);
+	}
+
+	/**
+	 * Runs one archival step: times it, logs it, reports it to the metrics sink and emits its JFR event.
+	 */
+	private <T> T step(ArchivalRun run, String name, Step<T> action) throws SQLException {
+		ArchiveStepEvent event = new ArchiveStepEvent();
+		event.begin();
+		run.step = name;
+		run.stepLockWait = Duration.ZERO;
+		long started = System.nanoTime();
+		boolean success = false;
+		try {
+			T result = action.run();
+			success = true;
+			return result;
+		} finally {
+			Duration duration = Duration.ofNanos(System.nanoTime() - started);
+			event.end();
+			if (event.shouldCommit()) {
+				event.step = name;
+				event.partitionName = run.partitionName;
+				event.archiveTable = run.archiveTableName;
+				event.rowCount = run.rowCount;
+				event.dataLength = run.dataLength;
+				event.lockWaitNanos = run.stepLockWait.toNanos();
+				event.success = success;
+				event.commit();
+			}
+			config.getMetrics().recordStep(name, duration, success);
+			if (!run.stepLockWait.isZero()) {
+				config.getMetrics().recordLockWait(name, run.stepLockWait);
 			}
+			log.info("archive.step", "partition", run.partitionName, "step", name, "durationMs", duration.toMillis(),
+				"lockWaitMs", run.stepLockWait.toMillis(), "success", success);
 		}
 	}
 
-	private boolean partitionExists(Connection conn, String partitionName) throws SQLException {
+	// A step made of DDL, whose action returns the time it lost waiting for metadata locks.
+	private void ddlStep(ArchivalRun run, String name, DdlStep action) throws SQLException {
+		step(run, name, () -> {
+			run.stepLockWait = action.run();
+			return null;
+		});
+	}
+
+	@FunctionalInterface
+	private interface Step<T> {
+		T run() throws SQLException;
+	}
+
+	@FunctionalInterface
+	private interface DdlStep {
+		Duration run() throws SQLException;
+	}
+
+	// State of one archivePartition or restorePartition call, shared by its steps for reporting.
+	private static class ArchivalRun {
+		String partitionName;
+		final String archiveTableName;
+		final long startedNanos = System.nanoTime();
+		String step;
+		Duration stepLockWait = Duration.ZERO;
+		long rowCount;
+		long dataLength;
+		ArchiveRegistry.PresenceFilters presenceFilters;
+
+		ArchivalRun(String partitionName, String archiveTableName) {
+			this.partitionName = partitionName;
+			this.archiveTableName = archiveTableName;
+		}
+	}
+
+	boolean partitionExists(Connection conn, String partitionName) throws SQLException {
 		String sql = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.PARTITIONS " +
 			"WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME = ?";
 		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -150,17 +633,16 @@ public class PartitionArchiver {
 	 *
 	 * @param conn The database connection.
 	 * @param archiveTableName The name of the archive table to create.
+	 * @return The time spent waiting for metadata locks.
 	 * @throws SQLException If a database error occurs.
 	 */
-	private void createArchiveTable(Connection conn, String archiveTableName) throws SQLException {
+	Duration createArchiveTable(Connection conn, String archiveTableName) throws SQLException {
 		String createTableSql = "CREATE TABLE " + archiveTableName + " LIKE " + config.getMessagesTable();
 		String alterTableSql = "ALTER TABLE " + archiveTableName + " REMOVE PARTITIONING";
 		// Optional: ALTER TABLE " + archiveTableName + " AUTO_INCREMENT = 10000; // If you want to reset AI
 
-		try (Statement stmt = conn.createStatement()) {
-			stmt.execute(createTableSql);
-			stmt.execute(alterTableSql);
-		}
+		return executeDdl(conn, "createArchiveTable", createTableSql)
+			.plus(executeDdl(conn, "removePartitioning", alterTableSql));
 	}
 
 	/**
@@ -169,59 +651,85 @@ public class PartitionArchiver {
 	 * @param conn The database connection.
 	 * @param partitionName The name of the partition in the messages table.
 	 * @param archiveTableName The name of the target archive table.
+	 * @return The time spent waiting for metadata locks.
 	 * @throws SQLException If a database error occurs.
 	 */
-	private void exchangePartition(Connection conn, String partitionName, String archiveTableName) throws SQLException {
+	Duration exchangePartition(Connection conn, String partitionName, String archiveTableName) throws SQLException {
 		String sql = "ALTER TABLE " + config.getMessagesTable() +
 			" EXCHANGE PARTITION " + partitionName +
 			" WITH TABLE " + archiveTableName;
-		try (Statement stmt = conn.createStatement()) {
-			stmt.execute(sql);
-		}
+		return executeDdl(conn, "exchangePartition", sql);
 	}
 
 	/**
-	 * Queries the archived table to get the min/max message ID and timestamps.
+	 * Reads the metadata of a partition before it is exchanged. The id and timestamp bounds are index-edge lookups
+	 * (ORDER BY ... LIMIT 1 on the primary key and on idx_created_at) scoped to the partition, and the sizes come
+	 * from INFORMATION_SCHEMA.PARTITIONS, so the cost does not grow with the partition. The row count is the InnoDB
+	 * estimate unless {@link ArchiverConfig#isExactRowCount()} asks for a COUNT(*) of the partition.
 	 *
 	 * @param conn The database connection.
-	 * @param archiveTableName The name of the archived table.
+	 * @param partitionName The partition about to be archived.
+	 * @param archiveTableName The archive table the partition will be exchanged with.
 	 * @return An ArchivedPartitionMetadata object containing the details.
-	 * @throws SQLException If a database error occurs or no data is found.
+	 * @throws SQLException If a database error occurs or the partition is empty.
 	 */
-	private ArchivedPartitionMetadata getArchivedPartitionMetadata(Connection conn, String archiveTableName) throws SQLException {
-		// Assuming the archive table has min_message_id, max_message_id, created_at columns
-		String sql = "SELECT MIN(message_id), MAX(message_id), MIN(created_at), MAX(created_at) FROM " + archiveTableName;
-		try (Statement stmt = conn.createStatement();
-			 ResultSet rs = stmt.executeQuery(sql)) {
-
-			if (rs.next()) {
-				long minMessageId = rs.getLong(1);
-				long maxMessageId = rs.getLong(2);
-				Timestamp minTimestamp = rs.getTimestamp(3);
-				Timestamp maxTimestamp = rs.getTimestamp(4);
+	ArchivedPartitionMetadata capturePartitionMetadata(Connection conn, String partitionName, String archiveTableName) throws SQLException {
+		String partition = config.getMessagesTable() + " PARTITION (" + partitionName + ")";
+		Long minMessageId = readEdge(conn, "SELECT message_id FROM " + partition + " ORDER BY message_id ASC LIMIT 1");
+		Long maxMessageId = readEdge(conn, "SELECT message_id FROM " + partition + " ORDER BY message_id DESC LIMIT 1");
+		Timestamp minTimestamp = readTimestampEdge(conn, "SELECT created_at FROM " + partition + " FORCE INDEX (idx_created_at) ORDER BY created_at ASC LIMIT 1");
+		Timestamp maxTimestamp = readTimestampEdge(conn, "SELECT created_at FROM " + partition + " FORCE INDEX (idx_created_at) ORDER BY created_at DESC LIMIT 1");
+
+		if (minMessageId == null || maxMessageId == null || minTimestamp == null || maxTimestamp == null) {
+			throw new SQLException("Partition '" + partitionName + "' appears to be empty; nothing to archive.");
+		}
 
-				// Check if the table was empty after exchange (shouldn't happen with EXCHANGE, but good practice)
-				if (rs.wasNull() || minTimestamp == null || maxTimestamp == null) {
-					throw new SQLException("Archived table '" + archiveTableName + "' appears to be empty or metadata is null.");
+		long rowCount;
+		long dataLength;
+		long indexLength;
+		// InnoDB statistics in INFORMATION_SCHEMA are cached for information_schema_stats_expiry seconds; read them fresh
+		String sizeSql = "SELECT /*+ SET_VAR(information_schema_stats_expiry = 0) */ TABLE_ROWS, DATA_LENGTH, INDEX_LENGTH " +
+			"FROM INFORMATION_SCHEMA.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME = ?";
+		try (PreparedStatement stmt = conn.prepareStatement(sizeSql)) {
+			stmt.setString(1, config.getMessagesTable());
+			stmt.setString(2, partitionName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("Could not read statistics of partition '" + partitionName + "'.");
 				}
+				rowCount = rs.getLong(1);
+				dataLength = rs.getLong(2);
+				indexLength = rs.getLong(3);
+			}
+		}
+		if (config.isExactRowCount()) {
+			rowCount = readEdge(conn, "SELECT COUNT(*) FROM " + partition);
+		}
 
-				// Convert Timestamp to LocalDateTime
-				LocalDateTime startTimestamp = minTimestamp.toLocalDateTime();
-				LocalDateTime endTimestamp = maxTimestamp.toLocalDateTime();
+		return new ArchivedPartitionMetadata(
+			archiveTableName,
+			minTimestamp.toLocalDateTime(),
+			maxTimestamp.toLocalDateTime(),
+			minMessageId,
+			maxMessageId,
+			LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS), // Timestamp of when archival metadata is recorded, as archived_at stores it
+			rowCount,
+			dataLength,
+			indexLength
+		);
+	}
 
+	private static Long readEdge(Connection conn, String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			return rs.next() ? rs.getLong(1) : null;
+		}
+	}
 
-				return new ArchivedPartitionMetadata(
-					archiveTableName,
-					startTimestamp,
-					endTimestamp,
-					minMessageId,
-					maxMessageId,
-					LocalDateTime.now() // Timestamp of when archival metadata is recorded
-				);
-			} else {
-				// This case should ideally not be reached if the query runs without error
-				throw new SQLException("Could not retrieve metadata from archived table '" + archiveTableName + "'.");
-			}
+	private static Timestamp readTimestampEdge(Connection conn, String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			return rs.next() ? rs.getTimestamp(1) : null;
 		}
 	}
 
@@ -235,8 +743,9 @@ public class PartitionArchiver {
 	 */
 	private void insertArchivedMetadata(Connection conn, String archiveTableName, ArchivedPartitionMetadata metadata) throws SQLException {
 		String sql = "INSERT INTO " + config.getArchivedMetadataTable() +
-			" (archive_table_name, start_timestamp, end_timestamp, min_message_id, max_message_id, archived_at) " +
-			" VALUES (?, ?, ?, ?, ?, ?)";
+			" (archive_table_name, start_timestamp, end_timestamp, min_message_id, max_message_id, archived_at, " +
+			"row_count, data_length, index_length, index_profile) " +
+			" VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
 		try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 			pstmt.setString(1, archiveTableName);
@@ -245,6 +754,10 @@ public class PartitionArchiver {
 			pstmt.setLong(4, metadata.getMinMessageId());
 			pstmt.setLong(5, metadata.getMaxMessageId());
 			pstmt.setTimestamp(6, Timestamp.valueOf(metadata.getArchivedAt()));
+			pstmt.setLong(7, metadata.getRowCount());
+			pstmt.setLong(8, metadata.getDataLength());
+			pstmt.setLong(9, metadata.getIndexLength());
+			pstmt.setString(10, metadata.getIndexProfile());
 
 			pstmt.executeUpdate();
 		}
@@ -255,55 +768,34 @@ public class PartitionArchiver {
 	 *
 	 * @param conn The database connection.
 	 * @param partitionName The name of the partition to drop.
+	 * @return The time spent waiting for metadata locks.
 	 * @throws SQLException If a database error occurs.
 	 */
-	private void dropPartition(Connection conn, String partitionName) throws SQLException {
+	Duration dropPartition(Connection conn, String partitionName) throws SQLException {
 		String sql = "ALTER TABLE " + config.getMessagesTable() + " DROP PARTITION " + partitionName;
+		return executeDdl(conn, "dropPartition", sql);
+	}
+
+	/**
+	 * Executes a DDL statement, under the lock wait policy if one is configured.
+	 *
+	 * @param conn The database connection.
+	 * @param step The archival step the statement belongs to.
+	 * @param sql The DDL statement.
+	 * @return The time lost to timed-out lock attempts and backoff; zero without a lock wait policy.
+	 * @throws SQLException If a database error occurs.
+	 */
+	private Duration executeDdl(Connection conn, String step, String sql) throws SQLException {
+		if (lockGuard != null) {
+			return lockGuard.execute(conn, step, sql);
+		}
 		try (Statement stmt = conn.createStatement()) {
 			stmt.execute(sql);
 		}
+		return Duration.ZERO;
 	}
 
 
-	// Helper class to hold archived partition metadata
-	// This class is the same as before, no changes needed based on config
-	private static class ArchivedPartitionMetadata {
-		private final String archiveTableName;
-		private final LocalDateTime startTimestamp;
-		private final LocalDateTime endTimestamp;
-		private final long minMessageId;
-		private final long maxMessageId;
-		private final LocalDateTime archivedAt;
-
-		public ArchivedPartitionMetadata(String archiveTableName, LocalDateTime startTimestamp, LocalDateTime endTimestamp, long minMessageId, long maxMessageId, LocalDateTime archivedAt) {
-			this.archiveTableName = archiveTableName;
-			this.startTimestamp = startTimestamp;
-			this.endTimestamp = endTimestamp;
-			this.minMessageId = minMessageId;
-			this.maxMessageId = maxMessageId;
-			this.archivedAt = archivedAt;
-		}
-
-		public String getArchiveTableName() { return archiveTableName; }
-		public LocalDateTime getStartTimestamp() { return startTimestamp; }
-		public LocalDateTime getEndTimestamp() { return endTimestamp; }
-		public long getMinMessageId() { return minMessageId; }
-		public long getMaxMessageId() { return maxMessageId; }
-		public LocalDateTime getArchivedAt() { return archivedAt; }
-
-		@Override
-		public String toString() {
-			return "ArchivedPartitionMetadata{" +
-				"archiveTableName='" + archiveTableName + '\'' +
-				", startTimestamp=" + startTimestamp +
-				", endTimestamp=" + endTimestamp +
-				", minMessageId=" + minMessageId +
-				", maxMessageId=" + maxMessageId +
-				", archivedAt=" + archivedAt +
-				'}';
-		}
-	}
-
 	// Example Usage (requires a DataSource implementation and ArchiverConfig)
 //	public static void main(String[] args) throws SQLException
 //	{
@@ -0,0 +1,88 @@
+package org.cliq.tablearchiver;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The span of one range partition of the messages table, and how such partitions are named.
+ */
+public enum PartitionGranularity implements PartitionScheme {
+
+	/** One partition per day, named pYYYYMMDD. */
+	DAY(DateTimeFormatter.ofPattern("yyyyMMdd")) {
+		@Override
+		public LocalDate floor(LocalDate date) {
+			return date;
+		}
+
+		@Override
+		public LocalDate next(LocalDate boundary) {
+			return floor(boundary).plusDays(1);
+		}
+	},
+
+	/** One partition per ISO week, Monday to Sunday, named pYYYYwWW after the ISO week-based year and week. */
+	WEEK(new DateTimeFormatterBuilder()
+		.appendValue(IsoFields.WEEK_BASED_YEAR, 4)
+		.appendLiteral('w')
+		.appendValue(IsoFields.WEEK_OF_WEEK_BASED_YEAR, 2)
+		.toFormatter()) {
+		@Override
+		public LocalDate floor(LocalDate date) {
+			return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+		}
+
+		@Override
+		public LocalDate next(LocalDate boundary) {
+			return floor(boundary).plusWeeks(1);
+		}
+	},
+
+	/** One partition per calendar month, named pYYYYMM like the partitions of the provided schema. */
+	MONTH(DateTimeFormatter.ofPattern("yyyyMM")) {
+		@Override
+		public LocalDate floor(LocalDate date) {
+			return date.withDayOfMonth(1);
+		}
+
+		@Override
+		public LocalDate next(LocalDate boundary) {
+			return floor(boundary).plusMonths(1);
+		}
+	};
+
+	private final DateTimeFormatter nameFormat;
+
+	PartitionGranularity(DateTimeFormatter nameFormat) {
+		this.nameFormat = nameFormat;
+	}
+
+	/**
+	 * Plans whole periods up to the configured number of periods past the one covering today. The first new
+	 * partition ends at the next period start, so switching granularity never leaves a gap.
+	 */
+	@Override
+	public List<LocalDate> plan(List<DataSourceConfig.PartitionDetails> partitions, LocalDate lastBound, LocalDate today, int futurePartitions) {
+		LocalDate horizon = floor(today);
+		for (int i = 0; i <= futurePartitions; i++) {
+			horizon = next(horizon);
+		}
+		List<LocalDate> bounds = new ArrayList<>();
+		for (LocalDate lower = lastBound; lower.isBefore(horizon); ) {
+			lower = next(lower);
+			bounds.add(lower);
+		}
+		return bounds;
+	}
+
+	@Override
+	public String partitionName(LocalDate lowerBound) {
+		return "p" + nameFormat.format(lowerBound);
+	}
+}
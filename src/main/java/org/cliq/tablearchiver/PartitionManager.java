@@ -0,0 +1,224 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps range partitions of the messages table created ahead of time, so new messages never land in the
+ * MAXVALUE partition.
+ * <p>
+ * New partitions are carved out of the MAXVALUE partition with REORGANIZE PARTITION, but only while it is empty:
+ * reorganizing an empty partition only changes metadata, whereas reorganizing one with rows copies them under
+ * a table lock. When rows have reached the MAXVALUE partition the manager leaves it alone and raises the configured alert.
+ */
+public class PartitionManager implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(PartitionManager.class);
+
+	// TO_DAYS('1970-01-01'); range partitions of the messages table are bounded by TO_DAYS(created_at)
+	private static final long TO_DAYS_EPOCH_OFFSET = 719528L;
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final MetadataLockGuard lockGuard;
+	private ScheduledExecutorService scheduler;
+
+	public PartitionManager(DataSource dataSource, ArchiverConfig config) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.lockGuard = config.getLockWaitPolicy() == null ? null : new MetadataLockGuard(config.getLockWaitPolicy());
+	}
+
+	/**
+	 * Creates the partitions missing between the last bounded partition and the configured number of periods
+	 * ahead of today.
+	 *
+	 * @return The names of the partitions created, empty if none were needed or the MAXVALUE partition has rows.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<String> ensureFuturePartitions() throws SQLException {
+		try (Connection conn = dataSource.getConnection()) {
+			List<DataSourceConfig.PartitionDetails> partitions = readPartitions(conn, config.getMessagesTable());
+
+			DataSourceConfig.PartitionDetails maxValuePartition = null;
+			LocalDate lastBound = null;
+			for (DataSourceConfig.PartitionDetails partition : partitions) {
+				LocalDate bound = upperBound(partition);
+				if (bound == null) {
+					maxValuePartition = partition;
+				} else if (lastBound == null || bound.isAfter(lastBound)) {
+					lastBound = bound;
+				}
+			}
+			if (lastBound == null) {
+				throw new SQLException("Table '" + config.getMessagesTable() + "' has no bounded range partitions to extend.");
+			}
+
+			PartitionScheme scheme = config.getPartitionScheme();
+			List<String> definitions = new ArrayList<>();
+			List<String> names = new ArrayList<>();
+			LocalDate lower = lastBound;
+			for (LocalDate upper : scheme.plan(partitions, lastBound, LocalDate.now(), config.getFuturePartitions())) {
+				String name = scheme.partitionName(lower);
+				names.add(name);
+				definitions.add("PARTITION " + name + " VALUES LESS THAN (TO_DAYS('" + upper + "'))");
+				lower = upper;
+			}
+			if (definitions.isEmpty()) {
+				return names;
+			}
+
+			String sql;
+			if (maxValuePartition != null) {
+				if (hasRows(conn, maxValuePartition.getPartitionName())) {
+					config.getMaxValuePartitionAlert().accept(Math.max(1, maxValuePartition.getRows()));
+					return new ArrayList<>();
+				}
+				definitions.add("PARTITION " + maxValuePartition.getPartitionName() + " VALUES LESS THAN MAXVALUE");
+				sql = "ALTER TABLE " + config.getMessagesTable() +
+					" REORGANIZE PARTITION " + maxValuePartition.getPartitionName() +
+					" INTO (" + String.join(", ", definitions) + ")";
+			} else {
+				sql = "ALTER TABLE " + config.getMessagesTable() + " ADD PARTITION (" + String.join(", ", definitions) + ")";
+			}
+
+			log.info("partitions.creating", "table", config.getMessagesTable(), "partitions", names);
+			executeDdl(conn, sql);
+			log.info("partitions.created", "table", config.getMessagesTable(), "partitions", names);
+			return names;
+		}
+	}
+
+	/**
+	 * Checks the MAXVALUE partition and raises the configured alert if rows have reached it.
+	 *
+	 * @return True if the MAXVALUE partition holds rows.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public boolean checkMaxValuePartition() throws SQLException {
+		try (Connection conn = dataSource.getConnection()) {
+			for (DataSourceConfig.PartitionDetails partition : readPartitions(conn, config.getMessagesTable())) {
+				if (upperBound(partition) == null && hasRows(conn, partition.getPartitionName())) {
+					config.getMaxValuePartitionAlert().accept(Math.max(1, partition.getRows()));
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Runs {@link #ensureFuturePartitions()} periodically.
+	 *
+	 * @param interval The time between two runs.
+	 */
+	public synchronized void start(Duration interval) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "partition-manager");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				ensureFuturePartitions();
+			} catch (SQLException e) {
+				log.error("partitions.maintenanceFailed", e, "table", config.getMessagesTable());
+			}
+		}, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Reads every partition of a table, including the MAXVALUE partition, in partition order, with fresh size statistics.
+	 *
+	 * @param conn The database connection.
+	 * @param table The partitioned table.
+	 * @return The partitions.
+	 * @throws SQLException If a database error occurs.
+	 */
+	static List<DataSourceConfig.PartitionDetails> readPartitions(Connection conn, String table) throws SQLException {
+		String sql = """
+			SELECT /*+ SET_VAR(information_schema_stats_expiry = 0) */
+			       PARTITION_NAME, TABLE_ROWS, PARTITION_EXPRESSION, PARTITION_DESCRIPTION, DATA_LENGTH
+			FROM INFORMATION_SCHEMA.PARTITIONS
+			WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL
+			ORDER BY PARTITION_ORDINAL_POSITION
+			""";
+		List<DataSourceConfig.PartitionDetails> partitions = new ArrayList<>();
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setString(1, table);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					partitions.add(new DataSourceConfig.PartitionDetails(
+						rs.getString("PARTITION_NAME"),
+						rs.getLong("TABLE_ROWS"),
+						rs.getString("PARTITION_EXPRESSION"),
+						rs.getString("PARTITION_DESCRIPTION"),
+						rs.getLong("DATA_LENGTH")));
+				}
+			}
+		}
+		return partitions;
+	}
+
+	/**
+	 * Converts the description of a RANGE (TO_DAYS(created_at)) partition to its exclusive upper bound.
+	 *
+	 * @param partition The partition.
+	 * @return The first day not covered by the partition, or null for the MAXVALUE partition.
+	 */
+	static LocalDate upperBound(DataSourceConfig.PartitionDetails partition) {
+		String description = partition.getDescription();
+		if (description == null || description.equalsIgnoreCase("MAXVALUE")) {
+			return null;
+		}
+		return LocalDate.ofEpochDay(Long.parseLong(description.trim()) - TO_DAYS_EPOCH_OFFSET);
+	}
+
+	// TABLE_ROWS is an estimate that can read 0 for a handful of rows, so emptiness is checked exactly.
+	private boolean hasRows(Connection conn, String partitionName) throws SQLException {
+		String sql = "SELECT 1 FROM " + config.getMessagesTable() + " PARTITION (" + partitionName + ") LIMIT 1";
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			return rs.next();
+		}
+	}
+
+	private void executeDdl(Connection conn, String sql) throws SQLException {
+		if (lockGuard == null) {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute(sql);
+			}
+			return;
+		}
+		lockGuard.awaitNoLongRunningHolders(conn, config.getMessagesTable());
+		long previous = lockGuard.applySessionTimeout(conn);
+		try {
+			lockGuard.execute(conn, "createPartitions", sql);
+		} finally {
+			lockGuard.restoreSessionTimeout(conn, previous);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package org.cliq.tablearchiver;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Decides where the range partitions of the messages table begin and end, and how they are named.
+ * <p>
+ * {@link PartitionGranularity} cuts fixed days, weeks or months; {@link AdaptivePartitionScheme} sizes each new
+ * partition from the volume measured in the existing ones. Whatever the scheme, a partition is named after its lower
+ * bound, so partitions created under different schemes never share a name and the archive tables derived from those
+ * names stay distinct.
+ */
+public interface PartitionScheme {
+
+	/**
+	 * Plans the partitions to add above the last bounded partition.
+	 *
+	 * @param partitions The current partitions of the messages table with their measured sizes, in partition order.
+	 * @param lastBound The exclusive upper bound of the last bounded partition.
+	 * @param today The current date.
+	 * @param futurePartitions The number of partitions to keep ahead of the one covering today.
+	 * @return The exclusive upper bounds of the partitions to add, ascending; empty if none are needed.
+	 */
+	List<LocalDate> plan(List<DataSourceConfig.PartitionDetails> partitions, LocalDate lastBound, LocalDate today, int futurePartitions);
+
+	/**
+	 * @param date A date.
+	 * @return The start of the period containing the date, used to size a restored partition.
+	 */
+	LocalDate floor(LocalDate date);
+
+	/**
+	 * @param boundary A partition boundary.
+	 * @return The first period start strictly after the period containing the boundary.
+	 */
+	LocalDate next(LocalDate boundary);
+
+	/**
+	 * @param lowerBound The first day covered by the partition.
+	 * @return The partition name, e.g. p202506 for a monthly partition.
+	 */
+	String partitionName(LocalDate lowerBound);
+}
@@ -0,0 +1,117 @@
+package org.cliq.tablearchiver;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Point-in-time statistics of a pooled data source created by {@link DataSourceConfig#createPooledDataSource}.
+ */
+public class PoolStats {
+
+	private final int activeConnections;
+	private final int idleConnections;
+	private final int totalConnections;
+	private final int maxConnections;
+	private final int threadsAwaitingConnection;
+	private final long acquisitions;
+	private final double meanWaitMillis;
+	private final double maxWaitMillis;
+	private final long timeouts;
+
+	private PoolStats(HikariPoolMXBean pool, int maxConnections, WaitTimeTracker tracker) {
+		this.activeConnections = pool.getActiveConnections();
+		this.idleConnections = pool.getIdleConnections();
+		this.totalConnections = pool.getTotalConnections();
+		this.maxConnections = maxConnections;
+		this.threadsAwaitingConnection = pool.getThreadsAwaitingConnection();
+		this.acquisitions = tracker.acquisitions.sum();
+		this.meanWaitMillis = acquisitions == 0 ? 0 : tracker.waitNanos.sum() / 1e6 / acquisitions;
+		this.maxWaitMillis = tracker.maxWaitNanos.get() / 1e6;
+		this.timeouts = tracker.timeouts.sum();
+	}
+
+	/**
+	 * Reads the statistics of a pooled data source.
+	 *
+	 * @param dataSource A data source created by {@link DataSourceConfig#createPooledDataSource}.
+	 * @return The current statistics.
+	 * @throws IllegalArgumentException If the data source does not track wait times.
+	 */
+	public static PoolStats of(HikariDataSource dataSource) {
+		if (!(dataSource.getMetricsTrackerFactory() instanceof WaitTimeTracker tracker)) {
+			throw new IllegalArgumentException("Data source was not created by DataSourceConfig.createPooledDataSource");
+		}
+		return new PoolStats(dataSource.getHikariPoolMXBean(), dataSource.getMaximumPoolSize(), tracker);
+	}
+
+	public int getActiveConnections() { return activeConnections; }
+	public int getIdleConnections() { return idleConnections; }
+	public int getTotalConnections() { return totalConnections; }
+	public int getMaxConnections() { return maxConnections; }
+	public int getThreadsAwaitingConnection() { return threadsAwaitingConnection; }
+
+	/**
+	 * @return The share of the maximum pool size currently lent out, between 0 and 1.
+	 */
+	public double getUtilization() { return maxConnections == 0 ? 0 : (double) activeConnections / maxConnections; }
+
+	/**
+	 * @return The number of connections handed out since the pool started.
+	 */
+	public long getAcquisitions() { return acquisitions; }
+
+	/**
+	 * @return The mean time callers waited for a connection, in milliseconds.
+	 */
+	public double getMeanWaitMillis() { return meanWaitMillis; }
+
+	/**
+	 * @return The longest time a caller waited for a connection, in milliseconds.
+	 */
+	public double getMaxWaitMillis() { return maxWaitMillis; }
+
+	/**
+	 * @return The number of callers that gave up waiting for a connection.
+	 */
+	public long getTimeouts() { return timeouts; }
+
+	@Override
+	public String toString() {
+		return String.format("PoolStats{active=%d, idle=%d, total=%d, max=%d, awaiting=%d, utilization=%.2f, " +
+				"acquisitions=%d, meanWaitMs=%.3f, maxWaitMs=%.3f, timeouts=%d}",
+			activeConnections, idleConnections, totalConnections, maxConnections, threadsAwaitingConnection, getUtilization(),
+			acquisitions, meanWaitMillis, maxWaitMillis, timeouts);
+	}
+
+	/**
+	 * Records connection wait times reported by the pool.
+	 */
+	static class WaitTimeTracker implements MetricsTrackerFactory {
+		private final LongAdder acquisitions = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		private final LongAdder timeouts = new LongAdder();
+
+		@Override
+		public IMetricsTracker create(String poolName, com.zaxxer.hikari.metrics.PoolStats poolStats) {
+			return new IMetricsTracker() {
+				@Override
+				public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+					acquisitions.increment();
+					waitNanos.add(elapsedAcquiredNanos);
+					maxWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+				}
+
+				@Override
+				public void recordConnectionTimeout() {
+					timeouts.increment();
+				}
+			};
+		}
+	}
+}
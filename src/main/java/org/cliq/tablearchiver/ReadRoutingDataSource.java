@@ -0,0 +1,280 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * A DataSource for the primary that lets the read services send archive and registry reads to read replicas.
+ * <p>
+ * {@link #getConnection()} always returns a primary connection, so DDL, writes and the archival itself stay on the
+ * primary wherever this is passed as a plain DataSource. {@link MessageSearchService}, {@link ChatHistoryService} and
+ * {@link ArchiveTextSearchService} recognise it and route their read-only statements:
+ * <ul>
+ *   <li>An archive table is read from a replica whose registry holds a row archived at or after the archive's
+ *   archived_at. The registry row is written after the {@code EXCHANGE PARTITION}, so a replica that has applied the
+ *   row has applied the exchange too.</li>
+ *   <li>The registry is read from a replica whose newest archived_at has reached the newest one known on the primary,
+ *   so no archive is missing from it while its rows have already left the messages table.</li>
+ * </ul>
+ * The live messages table is always read on the primary. Every replica is probed for its Seconds_Behind_Source and
+ * its registry's {@code MAX(archived_at)}, on demand with {@link #refresh()} or every probe interval after
+ * {@link #start()}. A replica lagging more than {@code maxReplicaLagSeconds}, failing its probe, or not probed for two
+ * intervals takes no reads; when no replica qualifies, the read goes to the primary. Reads are spread round robin over
+ * the replicas that qualify. Register the router with {@link ArchiverConfig.Builder#archivalListener} so the archives
+ * this process creates hold registry reads back from replicas before the next probe.
+ */
+public class ReadRoutingDataSource implements DataSource, ArchivalListener, AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ReadRoutingDataSource.class);
+
+	private final DataSource primary;
+	private final List<Replica> replicas = new ArrayList<>();
+	private final String archivedMetadataTable;
+	private final long maxReplicaLagSeconds;
+	private final Duration probeInterval;
+	private final AtomicInteger next = new AtomicInteger();
+	// Newest archived_at of the primary's registry as of the last probe, or of an archive created since
+	private volatile LocalDateTime latestArchivedAt;
+	private ScheduledExecutorService prober;
+
+	/**
+	 * @param primary The data source of the primary.
+	 * @param replicas The data sources of the read replicas.
+	 * @param archivedMetadataTable The registry table, as in {@link ArchiverConfig#getArchivedMetadataTable()}.
+	 * @param maxReplicaLagSeconds The Seconds_Behind_Source above which a replica takes no reads.
+	 * @param probeInterval The time between two probes once started; older probes are not trusted.
+	 */
+	public ReadRoutingDataSource(DataSource primary, List<DataSource> replicas, String archivedMetadataTable, long maxReplicaLagSeconds, Duration probeInterval) {
+		this.primary = primary;
+		for (int i = 0; i < replicas.size(); i++) {
+			this.replicas.add(new Replica(i, replicas.get(i)));
+		}
+		this.archivedMetadataTable = archivedMetadataTable;
+		this.maxReplicaLagSeconds = maxReplicaLagSeconds;
+		this.probeInterval = probeInterval;
+	}
+
+	/**
+	 * Measures the lag and the applied archives of every replica. A replica whose probe fails takes no reads until a
+	 * later probe succeeds.
+	 *
+	 * @throws SQLException If the primary's registry cannot be read.
+	 */
+	public void refresh() throws SQLException {
+		LocalDateTime known = latestArchivedAt;
+		LocalDateTime primaryArchivedAt;
+		try (Connection conn = primary.getConnection()) {
+			primaryArchivedAt = readLatestArchivedAt(conn);
+		}
+		synchronized (this) {
+			// Taken as is, so a restore can lower it; unless archived() announced an archive the query may not have seen
+			if (latestArchivedAt == known || (primaryArchivedAt != null && primaryArchivedAt.isAfter(latestArchivedAt))) {
+				latestArchivedAt = primaryArchivedAt;
+			}
+		}
+		for (Replica replica : replicas) {
+			try {
+				long lag = ArchivalScheduler.replicaLagSeconds(replica.dataSource);
+				LocalDateTime applied;
+				try (Connection conn = replica.dataSource.getConnection()) {
+					applied = readLatestArchivedAt(conn);
+				}
+				replica.probe = new Probe(lag, applied, System.nanoTime());
+				log.debug("readRouting.probed", "replica", replica.index, "lagSeconds", lag, "appliedArchivedAt", applied);
+			} catch (SQLException e) {
+				replica.probe = null;
+				log.warn("readRouting.probeFailed", "replica", replica.index, "error", e.getMessage());
+			}
+		}
+	}
+
+	private LocalDateTime readLatestArchivedAt(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT MAX(archived_at) FROM " + archivedMetadataTable)) {
+			rs.next();
+			Timestamp archivedAt = rs.getTimestamp(1);
+			return archivedAt == null ? null : archivedAt.toLocalDateTime();
+		}
+	}
+
+	/**
+	 * Starts probing the replicas every probe interval.
+	 */
+	public synchronized void start() {
+		if (prober != null) {
+			return;
+		}
+		prober = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "read-routing-prober");
+			thread.setDaemon(true);
+			return thread;
+		});
+		prober.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (SQLException e) {
+				log.error("readRouting.refreshFailed", e);
+			}
+		}, 0, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Raises the newest archived_at known on the primary, so the registry is not read from replicas that have not
+	 * applied the new archive yet.
+	 *
+	 * @param metadata The registry row of the new archive.
+	 */
+	@Override
+	public synchronized void archived(ArchivedPartitionMetadata metadata) {
+		if (latestArchivedAt == null || metadata.getArchivedAt().isAfter(latestArchivedAt)) {
+			latestArchivedAt = metadata.getArchivedAt();
+		}
+	}
+
+	/**
+	 * @param archive The registry row of an archive still on the primary.
+	 * @return A replica that has applied the archive, or this data source for the primary.
+	 */
+	public DataSource forArchive(ArchivedPartitionMetadata archive) {
+		LocalDateTime archivedAt = archive.getArchivedAt();
+		return route(applied -> applied != null && !applied.isBefore(archivedAt));
+	}
+
+	/**
+	 * @return A replica whose registry is as recent as the primary's, or this data source for the primary.
+	 */
+	public DataSource forRegistry() {
+		LocalDateTime latest = latestArchivedAt;
+		return route(applied -> latest == null || (applied != null && !applied.isBefore(latest)));
+	}
+
+	private DataSource route(Predicate<LocalDateTime> applied) {
+		long now = System.nanoTime();
+		List<Replica> eligible = new ArrayList<>(replicas.size());
+		for (Replica replica : replicas) {
+			Probe probe = replica.probe;
+			if (probe != null
+				&& now - probe.measuredAt <= 2 * probeInterval.toNanos()
+				&& probe.lagSeconds <= maxReplicaLagSeconds
+				&& applied.test(probe.appliedArchivedAt)) {
+				eligible.add(replica);
+			}
+		}
+		if (eligible.isEmpty()) {
+			return this; // callers already holding a primary connection can tell it from a replica and reuse theirs
+		}
+		return eligible.get(Math.floorMod(next.getAndIncrement(), eligible.size())).dataSource;
+	}
+
+	/**
+	 * The data source to read an archive table from: its archive server if it was moved to one, otherwise a replica
+	 * that has applied it when {@code dataSource} routes reads, otherwise {@code dataSource} itself.
+	 */
+	static DataSource archiveSource(DataSource dataSource, ArchiverConfig config, ArchivedPartitionMetadata archive) {
+		if (archive.isRemote()) {
+			return config.getArchiveServer(archive.getArchiveServer());
+		}
+		return dataSource instanceof ReadRoutingDataSource routing ? routing.forArchive(archive) : dataSource;
+	}
+
+	/**
+	 * The data source to read the registry from: a current replica when {@code dataSource} routes reads, otherwise
+	 * {@code dataSource} itself.
+	 */
+	static DataSource registrySource(DataSource dataSource) {
+		return dataSource instanceof ReadRoutingDataSource routing ? routing.forRegistry() : dataSource;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return primary.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return primary.getConnection(username, password);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return primary.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		primary.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		primary.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return primary.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return primary.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || primary.isWrapperFor(iface);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (prober != null) {
+			prober.shutdownNow();
+			prober = null;
+		}
+	}
+
+	private static final class Replica {
+		private final int index;
+		private final DataSource dataSource;
+		private volatile Probe probe;
+
+		Replica(int index, DataSource dataSource) {
+			this.index = index;
+			this.dataSource = dataSource;
+		}
+	}
+
+	private static final class Probe {
+		private final long lagSeconds;
+		private final LocalDateTime appliedArchivedAt;
+		private final long measuredAt;
+
+		Probe(long lagSeconds, LocalDateTime appliedArchivedAt, long measuredAt) {
+			this.lagSeconds = lagSeconds;
+			this.appliedArchivedAt = appliedArchivedAt;
+			this.measuredAt = measuredAt;
+		}
+	}
+}
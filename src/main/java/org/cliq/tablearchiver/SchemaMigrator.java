@@ -0,0 +1,167 @@
+package org.cliq.tablearchiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Applies versioned schema scripts once and records them in a schema_migrations table, so starting against an
+ * existing database costs a single lookup instead of a rebuild.
+ * <p>
+ * Version 1 is the baseline schema script; later versions are files named {@code V<version>__<description>.sql} in
+ * the migrations directory. A database that already has the baseline tables but no migration history (one created
+ * before migrations were tracked) is recorded as being at version 1 without re-running the baseline, so the baseline
+ * must never change: schema changes always go into a new version.
+ */
+class SchemaMigrator {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(SchemaMigrator.class);
+
+	static final String MIGRATIONS_TABLE = "schema_migrations";
+	private static final Pattern MIGRATION_FILE = Pattern.compile("V(\\d+)__(.+)\\.sql");
+	private static final String BASELINE_TABLE = "messages";
+
+	private final Connection conn;
+
+	SchemaMigrator(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Applies every migration that has not been applied yet, in version order.
+	 *
+	 * @param baselineScript The baseline schema script, applied as version 1.
+	 * @param migrationsDir The directory holding the later versions; may not exist.
+	 * @return The number of migrations applied.
+	 * @throws SQLException If a migration fails. Migrations applied before it stay recorded.
+	 * @throws IOException If a script cannot be read.
+	 */
+	int migrate(Path baselineScript, Path migrationsDir) throws SQLException, IOException {
+		ensureMigrationsTable();
+		Map<Integer, Path> migrations = listMigrations(baselineScript, migrationsDir);
+		Map<Integer, String> applied = appliedMigrations();
+
+		if (applied.isEmpty() && tableExists(BASELINE_TABLE)) {
+			log.info("migration.baselineRecorded", "script", baselineScript);
+			record(1, baselineScript);
+			applied.put(1, checksum(baselineScript));
+		}
+
+		int count = 0;
+		for (Map.Entry<Integer, Path> migration : migrations.entrySet()) {
+			int version = migration.getKey();
+			Path script = migration.getValue();
+			String checksum = checksum(script);
+			if (applied.containsKey(version)) {
+				if (!applied.get(version).equals(checksum)) {
+					log.warn("migration.checksumChanged", "version", version, "script", script);
+				}
+				continue;
+			}
+			log.info("migration.started", "version", version, "script", script);
+			long started = System.nanoTime();
+			int statements = new SqlScriptExecutor(conn).execute(script);
+			record(version, script);
+			log.info("migration.applied", "version", version, "statements", statements, "durationMs", (System.nanoTime() - started) / 1_000_000);
+			count++;
+		}
+		return count;
+	}
+
+	private void ensureMigrationsTable() throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE IF NOT EXISTS " + MIGRATIONS_TABLE + " (" +
+				"version INT UNSIGNED NOT NULL PRIMARY KEY, " +
+				"script VARCHAR(255) NOT NULL, " +
+				"checksum CHAR(64) NOT NULL, " +
+				"applied_at DATETIME(3) NOT NULL" +
+				") ENGINE=InnoDB");
+		}
+	}
+
+	private static Map<Integer, Path> listMigrations(Path baselineScript, Path migrationsDir) throws IOException {
+		Map<Integer, Path> migrations = new TreeMap<>();
+		migrations.put(1, baselineScript);
+		if (migrationsDir == null || !Files.isDirectory(migrationsDir)) {
+			return migrations;
+		}
+		try (Stream<Path> files = Files.list(migrationsDir)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Matcher matcher = MIGRATION_FILE.matcher(file.getFileName().toString());
+				if (!matcher.matches()) {
+					continue;
+				}
+				int version = Integer.parseInt(matcher.group(1));
+				if (version <= 1) {
+					throw new IOException("Migration " + file + " uses version " + version + ", which is reserved for the baseline script.");
+				}
+				Path previous = migrations.put(version, file);
+				if (previous != null) {
+					throw new IOException("Duplicate migration version " + version + ": " + previous + " and " + file);
+				}
+			}
+		}
+		return migrations;
+	}
+
+	private Map<Integer, String> appliedMigrations() throws SQLException {
+		Map<Integer, String> applied = new TreeMap<>();
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM " + MIGRATIONS_TABLE)) {
+			while (rs.next()) {
+				applied.put(rs.getInt(1), rs.getString(2));
+			}
+		}
+		return applied;
+	}
+
+	private void record(int version, Path script) throws SQLException, IOException {
+		String sql = "INSERT INTO " + MIGRATIONS_TABLE + " (version, script, checksum, applied_at) VALUES (?, ?, ?, ?)";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setInt(1, version);
+			stmt.setString(2, script.getFileName().toString());
+			stmt.setString(3, checksum(script));
+			stmt.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+			stmt.executeUpdate();
+		}
+	}
+
+	private boolean tableExists(String tableName) throws SQLException {
+		DatabaseMetaData dbm = conn.getMetaData();
+		try (ResultSet tables = dbm.getTables(conn.getCatalog(), null, tableName, new String[]{"TABLE"})) {
+			return tables.next();
+		}
+	}
+
+	private static String checksum(Path script) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (InputStream in = new DigestInputStream(Files.newInputStream(script), digest)) {
+				in.transferTo(OutputStream.nullOutputStream());
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+}
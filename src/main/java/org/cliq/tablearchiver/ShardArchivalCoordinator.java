@@ -0,0 +1,357 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs {@link PartitionArchiver#archivePartition(String)} across many shards holding the same messages schema.
+ * <p>
+ * Every shard gets a virtual thread that archives the partitions chosen by the {@link PartitionSelector}, oldest
+ * first, one after another; a shard's partitions are never archived in parallel, as their DDL would queue on the
+ * same metadata lock. Before each archival the thread takes a permit of the shard's host and one of the global cap,
+ * so shards sharing a MySQL server (or several schemas on one instance used as shards) do not all run DDL on it at
+ * once. A failed archival stops its shard only; the other shards go on, and the failure is reported in the shard's
+ * {@link ShardResult}.
+ * <p>
+ * With a progress file, every archived and failed partition is appended to it as it happens. A later run skips the
+ * partitions recorded as archived, so a coordinator restarted after a crash or a failed shard only does what is left.
+ */
+public class ShardArchivalCoordinator {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(ShardArchivalCoordinator.class);
+
+	private final ArchiverConfig config;
+	private final List<Shard> shards;
+	private final PartitionSelector partitionSelector;
+	private final int maxConcurrent;
+	private final int maxConcurrentPerHost;
+	private final Path progressFile;
+
+	// Private constructor to enforce usage of the Builder
+	private ShardArchivalCoordinator(Builder builder) {
+		this.config = builder.config;
+		this.shards = List.copyOf(builder.shards);
+		ArchiverConfig retention = builder.config;
+		this.partitionSelector = builder.partitionSelector != null ? builder.partitionSelector
+			: shard -> new ArchivalScheduler(shard, List.of(), retention, null).eligiblePartitions();
+		this.maxConcurrent = builder.maxConcurrent;
+		this.maxConcurrentPerHost = builder.maxConcurrentPerHost;
+		this.progressFile = builder.progressFile;
+	}
+
+	/**
+	 * Archives the selected partitions of every shard and waits until all shards are done or have failed.
+	 *
+	 * @return The result of each shard, by shard name, in the order the shards were added.
+	 * @throws IOException If the progress file cannot be read.
+	 * @throws InterruptedException If interrupted while waiting. The shards are interrupted too: each finishes the
+	 *                              partition it is archiving, starts no further one, and this returns once all stopped.
+	 */
+	public Map<String, ShardResult> run() throws IOException, InterruptedException {
+		Set<String> archived = loadProgress();
+		Semaphore global = new Semaphore(maxConcurrent, true);
+		Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+		long started = System.nanoTime();
+		log.info("shards.started", "shards", shards.size(), "maxConcurrent", maxConcurrent,
+			"maxConcurrentPerHost", maxConcurrentPerHost, "alreadyArchived", archived.size());
+
+		Map<String, Future<ShardResult>> futures = new LinkedHashMap<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (Shard shard : shards) {
+				Semaphore host = hosts.computeIfAbsent(shard.host, h -> new Semaphore(maxConcurrentPerHost, true));
+				futures.put(shard.name, executor.submit(() -> archiveShard(shard, archived, host, global)));
+			}
+			Map<String, ShardResult> results = new LinkedHashMap<>();
+			for (Map.Entry<String, Future<ShardResult>> future : futures.entrySet()) {
+				try {
+					results.put(future.getKey(), future.getValue().get());
+				} catch (ExecutionException e) {
+					// archiveShard reports its own failures; anything else is a bug, reported like a failure
+					results.put(future.getKey(), new ShardResult(future.getKey(), List.of(), List.of(), null, e.getCause()));
+				} catch (InterruptedException e) {
+					// Before close() waits for the shards, or it would wait for every remaining partition
+					executor.shutdownNow();
+					log.warn("shards.interrupted", "shards", shards.size(), "completed", results.size());
+					throw e;
+				}
+			}
+			long failed = results.values().stream().filter(r -> !r.isSuccess()).count();
+			log.info("shards.completed", "shards", results.size(), "failed", failed,
+				"durationMs", (System.nanoTime() - started) / 1_000_000);
+			return results;
+		}
+	}
+
+	private ShardResult archiveShard(Shard shard, Set<String> alreadyArchived, Semaphore host, Semaphore global) {
+		List<String> archived = new ArrayList<>();
+		List<String> skipped = new ArrayList<>();
+		String current = null;
+		try {
+			List<String> partitions = partitionSelector.select(shard.dataSource);
+			PartitionArchiver archiver = new PartitionArchiver(shard.dataSource, config);
+			for (String partition : partitions) {
+				// Archivals do not react to interrupts once their DDL runs, so stop between partitions
+				if (Thread.interrupted()) {
+					throw new InterruptedException("Shard " + shard.name + " interrupted");
+				}
+				if (alreadyArchived.contains(progressKey(shard.name, partition))) {
+					skipped.add(partition);
+					continue;
+				}
+				current = partition;
+				host.acquire();
+				try {
+					global.acquire();
+					try {
+						log.info("shards.archiving", "shard", shard.name, "host", shard.host, "partition", partition);
+						archiver.archivePartition(partition);
+					} finally {
+						global.release();
+					}
+				} finally {
+					host.release();
+				}
+				archived.add(partition);
+				current = null;
+				recordProgress("ARCHIVED", shard.name, partition, null);
+			}
+			return new ShardResult(shard.name, archived, skipped, null, null);
+		} catch (SQLException | IOException | RuntimeException e) {
+			log.error("shards.shardFailed", e, "shard", shard.name, "host", shard.host, "partition", current, "archived", archived.size());
+			recordFailure(shard.name, current, e);
+			return new ShardResult(shard.name, archived, skipped, current, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ShardResult(shard.name, archived, skipped, current, e);
+		}
+	}
+
+	private static String progressKey(String shard, String partition) {
+		return shard + '\t' + partition;
+	}
+
+	// Progress lines: status, shard, partition, time and, for failures, the error message, separated by tabs
+	private Set<String> loadProgress() throws IOException {
+		Set<String> archived = new HashSet<>();
+		if (progressFile == null || !Files.exists(progressFile)) {
+			return archived;
+		}
+		for (String line : Files.readAllLines(progressFile, StandardCharsets.UTF_8)) {
+			String[] fields = line.split("\t");
+			if (fields.length >= 3 && fields[0].equals("ARCHIVED")) {
+				archived.add(progressKey(fields[1], fields[2]));
+			}
+		}
+		return archived;
+	}
+
+	private synchronized void recordProgress(String status, String shard, String partition, String message) throws IOException {
+		if (progressFile == null) {
+			return;
+		}
+		String line = status + '\t' + shard + '\t' + partition + '\t' + LocalDateTime.now() +
+			(message == null ? "" : '\t' + message.replace('\t', ' ').replace('\n', ' ')) + '\n';
+		Files.writeString(progressFile, line, StandardCharsets.UTF_8,
+			StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+	}
+
+	private void recordFailure(String shard, String partition, Exception error) {
+		try {
+			recordProgress("FAILED", shard, partition == null ? "-" : partition, error.getMessage());
+		} catch (IOException e) {
+			log.error("shards.progressWriteFailed", e, "shard", shard, "partition", partition);
+		}
+	}
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @param config The archiver configuration used on every shard.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder(ArchiverConfig config) {
+		return new Builder(config);
+	}
+
+	/**
+	 * Chooses the partitions to archive on one shard.
+	 */
+	@FunctionalInterface
+	public interface PartitionSelector {
+		/**
+		 * @param shard The shard's data source.
+		 * @return The partitions to archive, oldest first.
+		 * @throws SQLException If a database error occurs.
+		 */
+		List<String> select(DataSource shard) throws SQLException;
+	}
+
+	private static final class Shard {
+		private final String name;
+		private final String host;
+		private final DataSource dataSource;
+
+		Shard(String name, String host, DataSource dataSource) {
+			this.name = name;
+			this.host = host;
+			this.dataSource = dataSource;
+		}
+	}
+
+	/**
+	 * What one run did on one shard.
+	 */
+	public static class ShardResult {
+		private final String shard;
+		private final List<String> archived;
+		private final List<String> skipped;
+		private final String failedPartition;
+		private final Throwable error;
+
+		ShardResult(String shard, List<String> archived, List<String> skipped, String failedPartition, Throwable error) {
+			this.shard = shard;
+			this.archived = Collections.unmodifiableList(archived);
+			this.skipped = Collections.unmodifiableList(skipped);
+			this.failedPartition = failedPartition;
+			this.error = error;
+		}
+
+		public String getShard() { return shard; }
+
+		/**
+		 * @return The partitions archived by this run, in order.
+		 */
+		public List<String> getArchived() { return archived; }
+
+		/**
+		 * @return The selected partitions the progress file records as archived by an earlier run.
+		 */
+		public List<String> getSkipped() { return skipped; }
+
+		/**
+		 * @return The partition whose archival failed, or null if the shard succeeded or failed while selecting.
+		 */
+		public String getFailedPartition() { return failedPartition; }
+
+		/**
+		 * @return The error that stopped the shard, or null.
+		 */
+		public Throwable getError() { return error; }
+
+		public boolean isSuccess() { return error == null; }
+
+		@Override
+		public String toString() {
+			return "ShardResult{" +
+				"shard='" + shard + '\'' +
+				", archived=" + archived +
+				", skipped=" + skipped +
+				", failedPartition='" + failedPartition + '\'' +
+				", error=" + error +
+				'}';
+		}
+	}
+
+	/**
+	 * Builder class for ShardArchivalCoordinator.
+	 */
+	public static class Builder {
+		private final ArchiverConfig config;
+		private final List<Shard> shards = new ArrayList<>();
+		private PartitionSelector partitionSelector;
+		private int maxConcurrent = 8;
+		private int maxConcurrentPerHost = 1;
+		private Path progressFile;
+
+		private Builder(ArchiverConfig config) {
+			this.config = Objects.requireNonNull(config, "config cannot be null");
+		}
+
+		/**
+		 * Add a shard.
+		 * @param name A unique shard name, used in results and the progress file.
+		 * @param host The MySQL server the shard lives on, e.g. "db7:3306"; shards on one server share its limit.
+		 * @param dataSource The shard's data source.
+		 * @return The Builder instance.
+		 */
+		public Builder shard(String name, String host, DataSource dataSource) {
+			Objects.requireNonNull(name, "name cannot be null");
+			for (Shard shard : shards) {
+				if (shard.name.equals(name)) {
+					throw new IllegalArgumentException("Duplicate shard name: " + name);
+				}
+			}
+			shards.add(new Shard(name, Objects.requireNonNull(host, "host cannot be null"),
+				Objects.requireNonNull(dataSource, "dataSource cannot be null")));
+			return this;
+		}
+
+		/**
+		 * Set how the partitions to archive are chosen on each shard. By default, the partitions past the retention
+		 * period of the configuration, as {@link ArchivalScheduler#eligiblePartitions()} lists them.
+		 * @param partitionSelector The partition selector.
+		 * @return The Builder instance.
+		 */
+		public Builder partitionSelector(PartitionSelector partitionSelector) {
+			this.partitionSelector = partitionSelector;
+			return this;
+		}
+
+		/**
+		 * Set the concurrency limits. Defaults are 8 archivals in total and 1 per host.
+		 * @param maxConcurrent The maximum number of archivals running at once across all shards.
+		 * @param maxConcurrentPerHost The maximum number of archivals running at once on one host.
+		 * @return The Builder instance.
+		 */
+		public Builder concurrency(int maxConcurrent, int maxConcurrentPerHost) {
+			this.maxConcurrent = maxConcurrent;
+			this.maxConcurrentPerHost = maxConcurrentPerHost;
+			return this;
+		}
+
+		/**
+		 * Set a file to record progress in and resume from. Without one, every run starts from the selection.
+		 * @param progressFile The progress file; created if missing, appended to otherwise.
+		 * @return The Builder instance.
+		 */
+		public Builder progressFile(Path progressFile) {
+			this.progressFile = progressFile;
+			return this;
+		}
+
+		/**
+		 * Build the ShardArchivalCoordinator instance.
+		 * @return The built ShardArchivalCoordinator.
+		 * @throws IllegalArgumentException if no shard was added or a limit is not positive.
+		 */
+		public ShardArchivalCoordinator build() {
+			if (shards.isEmpty()) {
+				throw new IllegalArgumentException("At least one shard is required.");
+			}
+			if (maxConcurrent <= 0 || maxConcurrentPerHost <= 0) {
+				throw new IllegalArgumentException("Concurrency limits must be positive.");
+			}
+			return new ShardArchivalCoordinator(this);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.cliq.tablearchiver;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process {@link ArchiverMetrics}: per-step latency histograms, success and failure counters, and the time
+ * of the last successful archival. Read it from a health endpoint or dump {@link #toString()} to a log.
+ */
+public class SimpleArchiverMetrics implements ArchiverMetrics {
+
+	/**
+	 * Upper bounds of the histogram buckets, in milliseconds; a last bucket catches everything above.
+	 */
+	public static final long[] BUCKET_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1_000, 5_000, 10_000, 60_000, 300_000};
+
+	private final Map<String, Histogram> stepLatency = new ConcurrentHashMap<>();
+	private final Map<String, Histogram> lockWait = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> stepFailures = new ConcurrentHashMap<>();
+	private final LongAdder archivalsSucceeded = new LongAdder();
+	private final LongAdder archivalsFailed = new LongAdder();
+	private final LongAdder rowsArchived = new LongAdder();
+	private final AtomicReference<Instant> lastSuccess = new AtomicReference<>();
+
+	@Override
+	public void recordStep(String step, Duration duration, boolean success) {
+		stepLatency.computeIfAbsent(step, s -> new Histogram()).record(duration);
+		if (!success) {
+			stepFailures.computeIfAbsent(step, s -> new LongAdder()).increment();
+		}
+	}
+
+	@Override
+	public void recordLockWait(String step, Duration waited) {
+		lockWait.computeIfAbsent(step, s -> new Histogram()).record(waited);
+	}
+
+	@Override
+	public void archivalSucceeded(String partitionName, long rowCount, Duration duration) {
+		archivalsSucceeded.increment();
+		rowsArchived.add(rowCount);
+		lastSuccess.set(Instant.now());
+	}
+
+	@Override
+	public void archivalFailed(String partitionName, String step, Throwable error) {
+		archivalsFailed.increment();
+	}
+
+	/**
+	 * @return The latency histogram of each step seen so far, by step name.
+	 */
+	public Map<String, Histogram> getStepLatency() { return new TreeMap<>(stepLatency); }
+
+	/**
+	 * @return The metadata lock wait histogram of each step that had to wait, by step name.
+	 */
+	public Map<String, Histogram> getLockWait() { return new TreeMap<>(lockWait); }
+
+	public long getStepFailures(String step) {
+		LongAdder failures = stepFailures.get(step);
+		return failures == null ? 0 : failures.sum();
+	}
+
+	public long getArchivalsSucceeded() { return archivalsSucceeded.sum(); }
+	public long getArchivalsFailed() { return archivalsFailed.sum(); }
+	public long getRowsArchived() { return rowsArchived.sum(); }
+
+	/**
+	 * @return When the last archival committed, or null if none has yet.
+	 */
+	public Instant getLastSuccess() { return lastSuccess.get(); }
+
+	@Override
+	public String toString() {
+		return "SimpleArchiverMetrics{" +
+			"archivalsSucceeded=" + getArchivalsSucceeded() +
+			", archivalsFailed=" + getArchivalsFailed() +
+			", rowsArchived=" + getRowsArchived() +
+			", lastSuccess=" + getLastSuccess() +
+			", stepLatency=" + getStepLatency() +
+			", lockWait=" + getLockWait() +
+			'}';
+	}
+
+	/**
+	 * A fixed-bucket latency histogram, see {@link #BUCKET_BOUNDS_MILLIS}.
+	 */
+	public static class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+		void record(Duration duration) {
+			long millis = duration.toMillis();
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+				bucket++;
+			}
+			buckets.incrementAndGet(bucket);
+			count.increment();
+			totalNanos.add(duration.toNanos());
+		}
+
+		public long getCount() { return count.sum(); }
+		public Duration getTotal() { return Duration.ofNanos(totalNanos.sum()); }
+
+		/**
+		 * @return The number of samples per bucket; index i counts samples up to {@code BUCKET_BOUNDS_MILLIS[i]}
+		 *         and above the previous bound, the last index those above every bound.
+		 */
+		public long[] getBucketCounts() {
+			long[] counts = new long[buckets.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+			}
+			return counts;
+		}
+
+		@Override
+		public String toString() {
+			long count = getCount();
+			return "{count=" + count + ", meanMs=" + (count == 0 ? 0 : getTotal().toMillis() / count) + "}";
+		}
+	}
+}
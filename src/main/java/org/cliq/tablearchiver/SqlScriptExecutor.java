@@ -0,0 +1,185 @@
+package org.cliq.tablearchiver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes a SQL script in a single streaming pass.
+ * <p>
+ * Statements end with the current delimiter at the end of a line (outside quotes), optionally followed by a
+ * {@code -- } comment; DELIMITER directives and {@code --} comment lines are honoured like the mysql client does. Consecutive INSERT statements are sent as one JDBC
+ * batch, which the driver turns into a single round-trip when {@code rewriteBatchedStatements} is enabled. The first
+ * failing statement stops the script with its statement number and line.
+ */
+class SqlScriptExecutor {
+
+	private static final int MAX_BATCH_SIZE = 500;
+
+	private final Connection conn;
+	private final List<String> batch = new ArrayList<>();
+	private final List<int[]> batchPositions = new ArrayList<>(); // {statement number, line}
+	private String scriptName;
+	private int statementsExecuted;
+	private int commentStart; // where the trailing -- comment of the last scanned line starts, or its length
+
+	SqlScriptExecutor(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Executes every statement of a script.
+	 *
+	 * @param script The script file.
+	 * @return The number of statements executed.
+	 * @throws SQLException If a statement fails; the message names the statement number and its first line.
+	 * @throws IOException If the script cannot be read.
+	 */
+	int execute(Path script) throws SQLException, IOException {
+		scriptName = script.toString();
+		statementsExecuted = 0;
+		int statementNumber = 0;
+		try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8);
+			 Statement stmt = conn.createStatement()) {
+			StringBuilder sql = new StringBuilder();
+			String delimiter = ";";
+			char quote = 0; // the quote character of an unterminated literal, or 0
+			int lineNumber = 0;
+			int statementLine = 0;
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (quote == 0) {
+					int start = firstNonBlank(line);
+					if (start == line.length() || line.startsWith("--", start)) {
+						continue;
+					}
+					if (sql.length() == 0 && line.regionMatches(true, start, "DELIMITER ", 0, 10)) {
+						delimiter = line.substring(start + 10).strip();
+						continue;
+					}
+				}
+				if (sql.length() == 0) {
+					statementLine = lineNumber;
+				}
+				quote = scanQuotes(line, quote);
+				sql.append(line).append('\n');
+
+				int end = lastNonBlank(line.substring(0, commentStart));
+				if (quote == 0 && end >= delimiter.length() && line.startsWith(delimiter, end - delimiter.length())) {
+					// drop the trailing delimiter, comment and whitespace without materialising the whole buffer
+					sql.setLength(sql.length() - (line.length() - end) - 1 - delimiter.length());
+					statementNumber++;
+					submit(stmt, sql.toString(), statementNumber, statementLine);
+					sql.setLength(0);
+				}
+			}
+			if (quote != 0) {
+				throw new SQLException("Unterminated " + quote + " literal in statement #" + (statementNumber + 1) +
+					" starting at line " + statementLine + " of " + scriptName);
+			}
+			if (lastNonBlank(sql) > 0) {
+				statementNumber++;
+				submit(stmt, sql.toString(), statementNumber, statementLine);
+			}
+			flush(stmt);
+		}
+		return statementsExecuted;
+	}
+
+	private void submit(Statement stmt, String sql, int statementNumber, int line) throws SQLException {
+		if (sql.regionMatches(true, firstNonBlank(sql), "INSERT", 0, 6)) {
+			batch.add(sql);
+			batchPositions.add(new int[]{statementNumber, line});
+			stmt.addBatch(sql);
+			if (batch.size() >= MAX_BATCH_SIZE) {
+				flush(stmt);
+			}
+			return;
+		}
+		flush(stmt);
+		try {
+			stmt.execute(sql);
+			statementsExecuted++;
+		} catch (SQLException e) {
+			throw failure(e, statementNumber, line, sql);
+		}
+	}
+
+	private void flush(Statement stmt) throws SQLException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			stmt.executeBatch();
+			statementsExecuted += batch.size();
+		} catch (BatchUpdateException e) {
+			// With rewritten batches the driver may not report per-statement counts; fall back to the batch's first statement
+			int failed = Math.min(e.getUpdateCounts() == null ? 0 : e.getUpdateCounts().length, batch.size() - 1);
+			int[] position = batchPositions.get(failed);
+			throw failure(e, position[0], position[1], batch.get(failed));
+		} finally {
+			stmt.clearBatch();
+			batch.clear();
+			batchPositions.clear();
+		}
+	}
+
+	private SQLException failure(SQLException cause, int statementNumber, int line, String sql) {
+		String preview = sql.length() > 200 ? sql.substring(0, 200) + "..." : sql;
+		return new SQLException("Statement #" + statementNumber + " starting at line " + line + " of " + scriptName +
+			" failed: " + cause.getMessage() + "\n" + preview, cause.getSQLState(), cause.getErrorCode(), cause);
+	}
+
+	// Tracks ' " and ` literals (with backslash and doubled-quote escapes) so delimiters inside them are ignored, and
+	// records where a trailing comment starts so a delimiter before it still ends the statement.
+	private char scanQuotes(String line, char quote) {
+		commentStart = line.length();
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote == 0) {
+				if (c == '\'' || c == '"' || c == '`') {
+					quote = c;
+				} else if (c == '-' && line.startsWith("--", i) && (i + 2 == line.length() || Character.isWhitespace(line.charAt(i + 2)))) {
+					commentStart = i; // trailing comment
+					break;
+				}
+			} else if (c == '\\' && quote != '`') {
+				i++;
+			} else if (c == quote) {
+				if (i + 1 < line.length() && line.charAt(i + 1) == quote) {
+					i++;
+				} else {
+					quote = 0;
+				}
+			}
+		}
+		return quote;
+	}
+
+	private static int firstNonBlank(CharSequence s) {
+		int i = 0;
+		while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	// Length of the sequence without trailing whitespace.
+	private static int lastNonBlank(CharSequence s) {
+		int i = s.length();
+		while (i > 0 && Character.isWhitespace(s.charAt(i - 1))) {
+			i--;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,66 @@
+package org.cliq.tablearchiver;
+
+import java.lang.System.Logger.Level;
+
+/**
+ * Logs events as one line of {@code event=<name> key=value ...} through {@link System.Logger}, so log pipelines can
+ * parse the fields and the backend (java.util.logging by default, or whatever the application plugs in through
+ * {@link System.LoggerFinder}) decides where the lines go.
+ */
+final class StructuredLogger {
+
+	private final System.Logger logger;
+
+	private StructuredLogger(System.Logger logger) {
+		this.logger = logger;
+	}
+
+	static StructuredLogger getLogger(Class<?> type) {
+		return new StructuredLogger(System.getLogger(type.getName()));
+	}
+
+	void debug(String event, Object... keyValues) {
+		log(Level.DEBUG, null, event, keyValues);
+	}
+
+	void info(String event, Object... keyValues) {
+		log(Level.INFO, null, event, keyValues);
+	}
+
+	void warn(String event, Object... keyValues) {
+		log(Level.WARNING, null, event, keyValues);
+	}
+
+	void error(String event, Throwable error, Object... keyValues) {
+		log(Level.ERROR, error, event, keyValues);
+	}
+
+	private void log(Level level, Throwable error, String event, Object... keyValues) {
+		if (!logger.isLoggable(level)) {
+			return;
+		}
+		StringBuilder line = new StringBuilder("event=").append(event);
+		for (int i = 0; i + 1 < keyValues.length; i += 2) {
+			line.append(' ').append(keyValues[i]).append('=');
+			appendValue(line, keyValues[i + 1]);
+		}
+		if (error != null) {
+			line.append(" error=");
+			appendValue(line, error.getMessage());
+			logger.log(level, line.toString(), error);
+		} else {
+			logger.log(level, line.toString());
+		}
+	}
+
+	// Values with spaces, quotes or '=' are quoted so the line stays parseable
+	private static void appendValue(StringBuilder line, Object value) {
+		String text = String.valueOf(value);
+		boolean quote = text.isEmpty() || text.chars().anyMatch(c -> c == ' ' || c == '"' || c == '=' || c == '\n');
+		if (!quote) {
+			line.append(text);
+			return;
+		}
+		line.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+	}
+}
@@ -0,0 +1,739 @@
+package org.cliq.tablearchiver;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills the chat schema with synthetic data at production scale, for exercising partition exchange, partition drops and
+ * archive searches on realistic volumes.
+ * <p>
+ * Users, chats and their participants are planned in memory; messages are then streamed to the server with
+ * {@code LOAD DATA LOCAL INFILE} from an in-process pipe, one loader thread per partition, each statement scoped to its
+ * partition with {@code PARTITION (p)}. Message activity follows a Zipf distribution over chats, message ids rise with
+ * created_at like they do in production, and the chats' last-message columns and every participant's
+ * user_chat_metadata row are derived from the messages actually generated. The same seed and settings always produce
+ * the same rows.
+ * <p>
+ * The data source must allow local infile ({@code db.allowLocalInfile=true}) and the server must run with
+ * {@code local_infile=ON}. Messages are only generated for the bounded partitions overlapping the date range, so
+ * create the partitions first (see {@link PartitionManager}).
+ */
+public class SyntheticDataGenerator {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(SyntheticDataGenerator.class);
+
+	private static final String[] MESSAGE_TYPES = {"text", "image", "video", "file", "audio", "sticker", "location"};
+	// Cumulative percentages of MESSAGE_TYPES
+	private static final int[] MESSAGE_TYPE_CDF = {88, 93, 95, 97, 98, 99, 100};
+	private static final String[] WORDS = {
+		"hey", "hello", "ok", "sure", "thanks", "lunch", "meeting", "tomorrow", "today", "call", "me", "later",
+		"sounds", "good", "the", "build", "is", "green", "again", "can", "you", "review", "my", "change", "please",
+		"on", "my", "way", "see", "you", "soon", "deploy", "done", "what", "about", "this", "weekend", "running", "late",
+		"great", "idea", "let's", "do", "it", "nice", "photo", "where", "are", "we", "now"
+	};
+	private static final int PIPE_BUFFER_SIZE = 1 << 20;
+	private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+	private final DataSource dataSource;
+	private final String messagesTable;
+	private final int users;
+	private final int chats;
+	private final double groupChatRatio;
+	private final int maxGroupSize;
+	private final long messages;
+	private final LocalDate from;
+	private final LocalDate to;
+	private final double zipfExponent;
+	private final double neverReadRatio;
+	private final int loaderThreads;
+	private final long rowsPerStatement;
+	private final long seed;
+
+	// Private constructor to enforce usage of the Builder
+	private SyntheticDataGenerator(Builder builder) {
+		this.dataSource = builder.dataSource;
+		this.messagesTable = builder.messagesTable;
+		this.users = builder.users;
+		this.chats = builder.chats;
+		this.groupChatRatio = builder.groupChatRatio;
+		this.maxGroupSize = builder.maxGroupSize;
+		this.messages = builder.messages;
+		this.from = builder.from;
+		this.to = builder.to;
+		this.zipfExponent = builder.zipfExponent;
+		this.neverReadRatio = builder.neverReadRatio;
+		this.loaderThreads = builder.loaderThreads;
+		this.rowsPerStatement = builder.rowsPerStatement;
+		this.seed = builder.seed;
+	}
+
+	/**
+	 * Static method to get a new instance of the Builder.
+	 * @param dataSource The data source of the chat database; it must allow local infile.
+	 * @return A new Builder instance.
+	 */
+	public static Builder builder(DataSource dataSource) {
+		return new Builder(dataSource);
+	}
+
+	/**
+	 * Generates and loads users, chats, participants, messages and user chat metadata. New rows get ids above the
+	 * existing ones, so the generator can run against a database that already holds data.
+	 *
+	 * @return The number of messages loaded.
+	 * @throws SQLException If a load fails or the date range covers no bounded partition.
+	 * @throws InterruptedException If interrupted while waiting for the loaders.
+	 */
+	public long generate() throws SQLException, InterruptedException {
+		long started = System.nanoTime();
+		long firstUserId;
+		long firstChatId;
+		long firstMessageId;
+		List<PartitionSlice> slices;
+		try (Connection conn = dataSource.getConnection()) {
+			firstUserId = nextId(conn, "users", "user_id");
+			firstChatId = nextId(conn, "chats", "chat_id");
+			firstMessageId = nextId(conn, messagesTable, "message_id");
+			slices = planPartitions(conn, firstMessageId);
+		}
+
+		Plan plan = planChats(firstUserId, firstChatId);
+		log.info("generator.started", "users", users, "chats", chats, "participants", plan.participants.length,
+			"messages", messages, "partitions", slices.size());
+
+		try (Connection conn = dataSource.getConnection()) {
+			load(conn, "users", "(user_id, username, password_hash, email, full_name, is_active)", "", out -> writeUsers(out, firstUserId));
+		}
+		ChatActivity activity = loadMessages(plan, slices);
+		try (Connection conn = dataSource.getConnection()) {
+			load(conn, "chats", "(chat_id, chat_type, group_name, created_by_user_id, created_at, last_message_id, " +
+				"last_message_sender_id, last_message_content_preview, @last_message_created_at)",
+				" SET last_message_created_at = NULLIF(@last_message_created_at, '')",
+				out -> writeChats(out, plan, activity, firstChatId));
+			load(conn, "chat_participants", "(chat_id, user_id, role, joined_at, added_by_user_id)", "",
+				out -> writeParticipants(out, plan, firstChatId));
+			load(conn, "user_chat_metadata", "(user_id, chat_id, @last_read_at, unread_count)",
+				" SET last_read_at = NULLIF(@last_read_at, '')",
+				out -> writeChatMetadata(out, plan, activity, firstChatId));
+		}
+
+		log.info("generator.completed", "messages", activity.messages, "durationMs", (System.nanoTime() - started) / 1_000_000);
+		return activity.messages;
+	}
+
+	// Splits the message count across the bounded partitions overlapping [from, to), proportionally to the time
+	// covered, and gives each partition its own contiguous message id range.
+	private List<PartitionSlice> planPartitions(Connection conn, long firstMessageId) throws SQLException {
+		List<PartitionSlice> slices = new ArrayList<>();
+		LocalDate lowerBound = null;
+		long totalDays = 0;
+		for (DataSourceConfig.PartitionDetails partition : PartitionManager.readPartitions(conn, messagesTable)) {
+			LocalDate upperBound = PartitionManager.upperBound(partition);
+			if (upperBound == null) {
+				continue;
+			}
+			LocalDate start = lowerBound == null || lowerBound.isBefore(from) ? from : lowerBound;
+			LocalDate end = upperBound.isAfter(to) ? to : upperBound;
+			lowerBound = upperBound;
+			if (start.isBefore(end)) {
+				slices.add(new PartitionSlice(slices.size(), partition.getPartitionName(), start, end));
+				totalDays += end.toEpochDay() - start.toEpochDay();
+			}
+		}
+		if (slices.isEmpty()) {
+			throw new SQLException("No bounded partition of '" + messagesTable + "' overlaps [" + from + ", " + to + ").");
+		}
+		if (totalDays < to.toEpochDay() - from.toEpochDay()) {
+			log.warn("generator.partialPartitionCoverage", "table", messagesTable, "coveredDays", totalDays,
+				"requestedDays", to.toEpochDay() - from.toEpochDay());
+		}
+
+		long assigned = 0;
+		long coveredDays = 0;
+		for (PartitionSlice slice : slices) {
+			coveredDays += slice.end.toEpochDay() - slice.start.toEpochDay();
+			long upTo = Math.round((double) messages * coveredDays / totalDays);
+			slice.firstMessageId = firstMessageId + assigned;
+			slice.rows = upTo - assigned;
+			assigned = upTo;
+		}
+		return slices;
+	}
+
+	// Chats and their participants. Participants are stored flat: those of chat c are at [offsets[c], offsets[c + 1]).
+	private Plan planChats(long firstUserId, long firstChatId) {
+		Random random = new Random(seed);
+		boolean[] group = new boolean[chats];
+		int[] offsets = new int[chats + 1];
+		List<long[]> members = new ArrayList<>(chats);
+		int groupSizeLimit = Math.min(maxGroupSize, users);
+		for (int c = 0; c < chats; c++) {
+			group[c] = groupSizeLimit >= 3 && random.nextDouble() < groupChatRatio;
+			int size = group[c] ? 3 + random.nextInt(groupSizeLimit - 2) : 2;
+			long[] chatMembers = new long[size];
+			for (int i = 0; i < size; i++) {
+				long user;
+				do {
+					user = firstUserId + random.nextInt(users);
+				} while (contains(chatMembers, i, user));
+				chatMembers[i] = user;
+			}
+			members.add(chatMembers);
+			offsets[c + 1] = offsets[c] + size;
+		}
+		long[] participants = new long[offsets[chats]];
+		for (int c = 0; c < chats; c++) {
+			System.arraycopy(members.get(c), 0, participants, offsets[c], members.get(c).length);
+		}
+
+		// Zipf weights by rank, ranks shuffled over chats so the busy chats are spread over the id range
+		double[] cdf = new double[chats];
+		double sum = 0;
+		for (int rank = 0; rank < chats; rank++) {
+			sum += 1.0 / Math.pow(rank + 1, zipfExponent);
+			cdf[rank] = sum;
+		}
+		for (int rank = 0; rank < chats; rank++) {
+			cdf[rank] /= sum;
+		}
+		int[] chatByRank = new int[chats];
+		for (int c = 0; c < chats; c++) {
+			chatByRank[c] = c;
+		}
+		for (int i = chats - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = chatByRank[i];
+			chatByRank[i] = chatByRank[j];
+			chatByRank[j] = swap;
+		}
+
+		boolean[] neverRead = new boolean[participants.length];
+		for (int p = 0; p < neverRead.length; p++) {
+			neverRead[p] = random.nextDouble() < neverReadRatio;
+		}
+		return new Plan(firstChatId, group, offsets, participants, cdf, chatByRank, neverRead);
+	}
+
+	private static boolean contains(long[] values, int length, long value) {
+		for (int i = 0; i < length; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ChatActivity loadMessages(Plan plan, List<PartitionSlice> slices) throws SQLException, InterruptedException {
+		ChatActivity activity = new ChatActivity(chats, plan.participants.length);
+		ExecutorService loaders = Executors.newFixedThreadPool(loaderThreads, r -> {
+			Thread thread = new Thread(r, "message-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (PartitionSlice slice : slices) {
+				futures.add(loaders.submit(() -> {
+					loadPartition(plan, slice, activity);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					futures.forEach(f -> f.cancel(true));
+					if (e.getCause() instanceof SQLException sqlException) {
+						throw sqlException;
+					}
+					throw new SQLException("Loading messages failed: " + e.getCause(), e.getCause());
+				}
+			}
+		} finally {
+			loaders.shutdownNow();
+		}
+		return activity;
+	}
+
+	// Loads one partition in statements of at most rowsPerStatement rows, so no single load builds a huge transaction.
+	private void loadPartition(Plan plan, PartitionSlice slice, ChatActivity activity) throws SQLException {
+		long started = System.nanoTime();
+		PartitionActivity local = new PartitionActivity(chats, plan.participants.length);
+		// One stream per partition, so the rows do not depend on how partitions are scheduled over the loaders
+		SplittableRandom random = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (slice.index + 1)));
+		long startMicros = slice.start.toEpochDay() * 86_400_000_000L;
+		long spanMicros = (slice.end.toEpochDay() - slice.start.toEpochDay()) * 86_400_000_000L;
+		String columns = "(message_id, chat_id, sender_id, message_type, @content, created_at)";
+		String set = " SET content = NULLIF(@content, ''), updated_at = created_at";
+		try (Connection conn = dataSource.getConnection()) {
+			for (long offset = 0; offset < slice.rows; offset += rowsPerStatement) {
+				long first = offset;
+				long last = Math.min(slice.rows, offset + rowsPerStatement);
+				load(conn, messagesTable + " PARTITION (" + slice.partitionName + ")", columns, set, out -> {
+					TimestampWriter timestamps = new TimestampWriter();
+					StringBuilder row = new StringBuilder(WRITE_CHUNK_SIZE + 512);
+					for (long i = first; i < last; i++) {
+						long messageId = slice.firstMessageId + i;
+						// Evenly spread, non-decreasing timestamps keep message ids in created_at order
+						long createdMicros = startMicros + (long) ((i + random.nextDouble()) * spanMicros / slice.rows);
+						int chat = plan.sampleChat(random.nextDouble());
+						int participant = plan.offsets[chat] + random.nextInt(plan.offsets[chat + 1] - plan.offsets[chat]);
+						String type = sampleMessageType(random.nextInt(100));
+
+						row.append(messageId).append('\t')
+							.append(plan.firstChatId + chat).append('\t')
+							.append(plan.participants[participant]).append('\t')
+							.append(type).append('\t');
+						if (type.equals("text")) {
+							appendContent(row, messageId);
+						}
+						row.append('\t');
+						timestamps.append(row, createdMicros);
+						row.append('\n');
+						local.record(chat, participant, messageId, createdMicros);
+						if (row.length() >= WRITE_CHUNK_SIZE) {
+							write(out, row);
+						}
+					}
+					write(out, row);
+				});
+			}
+		}
+		activity.merge(local);
+		long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+		log.info("generator.partitionLoaded", "partition", slice.partitionName, "rows", slice.rows,
+			"durationMs", elapsedMillis, "rowsPerSecond", slice.rows * 1000 / elapsedMillis);
+	}
+
+	private void writeUsers(OutputStream out, long firstUserId) throws IOException {
+		StringBuilder row = new StringBuilder(WRITE_CHUNK_SIZE + 512);
+		for (int u = 0; u < users; u++) {
+			long userId = firstUserId + u;
+			row.append(userId).append('\t')
+				.append("synth_").append(userId).append('\t')
+				.append("hash").append(Long.toHexString(userId * 0x9E3779B97F4A7C15L)).append('\t')
+				.append("synth_").append(userId).append("@example.com").append('\t')
+				.append("Synthetic User ").append(userId).append('\t')
+				.append('1').append('\n');
+			if (row.length() >= WRITE_CHUNK_SIZE) {
+				write(out, row);
+			}
+		}
+		write(out, row);
+	}
+
+	private void writeChats(OutputStream out, Plan plan, ChatActivity activity, long firstChatId) throws IOException {
+		StringBuilder row = new StringBuilder(WRITE_CHUNK_SIZE + 512);
+		TimestampWriter timestamps = new TimestampWriter();
+		String createdAt = LocalDateTime.of(from, LocalTime.MIN).toString().replace('T', ' ');
+		for (int c = 0; c < chats; c++) {
+			long creator = plan.participants[plan.offsets[c]];
+			row.append(firstChatId + c).append('\t')
+				.append(plan.group[c] ? "group" : "direct").append('\t')
+				.append(plan.group[c] ? "Synthetic Group " + (firstChatId + c) : "\\N").append('\t')
+				.append(creator).append('\t')
+				.append(createdAt).append('\t');
+			long lastMessageId = activity.lastMessageId[c];
+			if (lastMessageId == 0) {
+				row.append("\\N\t\\N\t\\N\t");
+			} else {
+				row.append(lastMessageId).append('\t')
+					.append(plan.participants[activity.lastParticipant[c]]).append('\t');
+				appendContent(row, lastMessageId);
+				row.append('\t');
+				timestamps.append(row, activity.lastCreatedMicros[c]);
+			}
+			row.append('\n');
+			if (row.length() >= WRITE_CHUNK_SIZE) {
+				write(out, row);
+			}
+		}
+		write(out, row);
+	}
+
+	private void writeParticipants(OutputStream out, Plan plan, long firstChatId) throws IOException {
+		StringBuilder row = new StringBuilder(WRITE_CHUNK_SIZE + 512);
+		String joinedAt = LocalDateTime.of(from, LocalTime.MIN).toString().replace('T', ' ');
+		for (int c = 0; c < chats; c++) {
+			long creator = plan.participants[plan.offsets[c]];
+			for (int p = plan.offsets[c]; p < plan.offsets[c + 1]; p++) {
+				boolean owner = p == plan.offsets[c];
+				row.append(firstChatId + c).append('\t')
+					.append(plan.participants[p]).append('\t')
+					.append(plan.group[c] && owner ? "owner" : "member").append('\t')
+					.append(joinedAt).append('\t')
+					.append(plan.group[c] && !owner ? Long.toString(creator) : "\\N").append('\n');
+			}
+			if (row.length() >= WRITE_CHUNK_SIZE) {
+				write(out, row);
+			}
+		}
+		write(out, row);
+	}
+
+	// Participants either read up to the last message, or never opened the chat and have every message of the others unread.
+	private void writeChatMetadata(OutputStream out, Plan plan, ChatActivity activity, long firstChatId) throws IOException {
+		StringBuilder row = new StringBuilder(WRITE_CHUNK_SIZE + 512);
+		TimestampWriter timestamps = new TimestampWriter();
+		for (int c = 0; c < chats; c++) {
+			for (int p = plan.offsets[c]; p < plan.offsets[c + 1]; p++) {
+				row.append(plan.participants[p]).append('\t')
+					.append(firstChatId + c).append('\t');
+				if (plan.neverRead[p] || activity.lastMessageId[c] == 0) {
+					row.append('\t').append(activity.messagesPerChat[c] - activity.sentPerParticipant[p]);
+				} else {
+					timestamps.append(row, activity.lastCreatedMicros[c]);
+					row.append('\t').append('0');
+				}
+				row.append('\n');
+			}
+			if (row.length() >= WRITE_CHUNK_SIZE) {
+				write(out, row);
+			}
+		}
+		write(out, row);
+	}
+
+	/**
+	 * Runs one {@code LOAD DATA LOCAL INFILE} statement fed by a producer thread through a pipe. Rows are tab separated,
+	 * newline terminated, with \N for NULL.
+	 */
+	private static void load(Connection conn, String target, String columns, String set, RowWriter writer) throws SQLException {
+		String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + target +
+			" CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' LINES TERMINATED BY '\\n' " + columns + set;
+		PipedInputStream in = new PipedInputStream(PIPE_BUFFER_SIZE);
+		Exception[] producerFailure = new Exception[1];
+		Thread producer;
+		try {
+			PipedOutputStream out = new PipedOutputStream(in);
+			producer = Thread.ofPlatform().name("load-producer").daemon().start(() -> {
+				try (out) {
+					writer.write(out);
+				} catch (Exception e) {
+					producerFailure[0] = e;
+				}
+			});
+		} catch (IOException e) {
+			throw new SQLException("Unable to open the load pipe for " + target, e);
+		}
+
+		try (Statement stmt = conn.createStatement()) {
+			stmt.unwrap(JdbcStatement.class).setLocalInfileInputStream(in);
+			stmt.execute(sql);
+		} finally {
+			try {
+				in.close(); // unblocks the producer if the load stopped reading early
+			} catch (IOException ignored) {
+			}
+			try {
+				producer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (producerFailure[0] != null) {
+			throw new SQLException("Generating rows for " + target + " failed: " + producerFailure[0].getMessage(), producerFailure[0]);
+		}
+	}
+
+	private static void write(OutputStream out, StringBuilder row) throws IOException {
+		if (row.isEmpty()) {
+			return;
+		}
+		out.write(row.toString().getBytes(StandardCharsets.UTF_8));
+		row.setLength(0);
+	}
+
+	private static String sampleMessageType(int percentile) {
+		for (int i = 0; i < MESSAGE_TYPE_CDF.length; i++) {
+			if (percentile < MESSAGE_TYPE_CDF[i]) {
+				return MESSAGE_TYPES[i];
+			}
+		}
+		return MESSAGE_TYPES[0];
+	}
+
+	// Content is a function of the message id, so the chats' last-message previews can be rebuilt without storing it.
+	private static void appendContent(StringBuilder row, long messageId) {
+		long hash = messageId * 0x9E3779B97F4A7C15L;
+		int words = 3 + (int) ((hash >>> 60) & 7);
+		for (int w = 0; w < words; w++) {
+			if (w > 0) {
+				row.append(' ');
+			}
+			row.append(WORDS[(int) ((hash >>> (w * 6)) & 63) % WORDS.length]);
+		}
+	}
+
+	private static long nextId(Connection conn, String table, String column) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) + 1 FROM " + table)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	@FunctionalInterface
+	private interface RowWriter {
+		void write(OutputStream out) throws IOException;
+	}
+
+	// Formats epoch microseconds as 'yyyy-MM-dd HH:mm:ss.SSSSSS' (UTC wall clock), formatting each date only once.
+	private static class TimestampWriter {
+		private long cachedDay = Long.MIN_VALUE;
+		private String cachedDate;
+
+		void append(StringBuilder row, long epochMicros) {
+			long day = Math.floorDiv(epochMicros, 86_400_000_000L);
+			if (day != cachedDay) {
+				cachedDay = day;
+				cachedDate = LocalDate.ofEpochDay(day) + " ";
+			}
+			long micros = epochMicros - day * 86_400_000_000L;
+			long seconds = micros / 1_000_000;
+			row.append(cachedDate);
+			appendPadded(row, seconds / 3600, 2).append(':');
+			appendPadded(row, seconds / 60 % 60, 2).append(':');
+			appendPadded(row, seconds % 60, 2).append('.');
+			appendPadded(row, micros % 1_000_000, 6);
+		}
+
+		private static StringBuilder appendPadded(StringBuilder row, long value, int width) {
+			for (long limit = 10; width > 1; width--, limit *= 10) {
+				if (value < limit) {
+					row.append('0');
+				}
+			}
+			return row.append(value);
+		}
+	}
+
+	private static class PartitionSlice {
+		final int index;
+		final String partitionName;
+		final LocalDate start;
+		final LocalDate end;
+		long firstMessageId;
+		long rows;
+
+		PartitionSlice(int index, String partitionName, LocalDate start, LocalDate end) {
+			this.index = index;
+			this.partitionName = partitionName;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private static class Plan {
+		final long firstChatId;
+		final boolean[] group;
+		final int[] offsets;
+		final long[] participants;
+		final double[] cdf;
+		final int[] chatByRank;
+		final boolean[] neverRead;
+
+		Plan(long firstChatId, boolean[] group, int[] offsets, long[] participants, double[] cdf, int[] chatByRank, boolean[] neverRead) {
+			this.firstChatId = firstChatId;
+			this.group = group;
+			this.offsets = offsets;
+			this.participants = participants;
+			this.cdf = cdf;
+			this.chatByRank = chatByRank;
+			this.neverRead = neverRead;
+		}
+
+		int sampleChat(double u) {
+			int rank = Arrays.binarySearch(cdf, u);
+			rank = rank >= 0 ? rank : Math.min(-rank - 1, cdf.length - 1);
+			return chatByRank[rank];
+		}
+	}
+
+	// What one loader saw in its partition; kept per loader so recording needs no synchronisation.
+	private static class PartitionActivity {
+		final long[] lastMessageId;
+		final int[] lastParticipant;
+		final long[] lastCreatedMicros;
+		final long[] messagesPerChat;
+		final long[] sentPerParticipant;
+		long messages;
+
+		PartitionActivity(int chats, int participants) {
+			this.lastMessageId = new long[chats];
+			this.lastParticipant = new int[chats];
+			this.lastCreatedMicros = new long[chats];
+			this.messagesPerChat = new long[chats];
+			this.sentPerParticipant = new long[participants];
+		}
+
+		void record(int chat, int participant, long messageId, long createdMicros) {
+			lastMessageId[chat] = messageId;
+			lastParticipant[chat] = participant;
+			lastCreatedMicros[chat] = createdMicros;
+			messagesPerChat[chat]++;
+			sentPerParticipant[participant]++;
+			messages++;
+		}
+	}
+
+	// The totals over all partitions. Message ids rise with created_at, so a chat's last message has its highest id.
+	private static class ChatActivity extends PartitionActivity {
+
+		ChatActivity(int chats, int participants) {
+			super(chats, participants);
+		}
+
+		synchronized void merge(PartitionActivity partition) {
+			for (int c = 0; c < lastMessageId.length; c++) {
+				if (partition.lastMessageId[c] > lastMessageId[c]) {
+					lastMessageId[c] = partition.lastMessageId[c];
+					lastParticipant[c] = partition.lastParticipant[c];
+					lastCreatedMicros[c] = partition.lastCreatedMicros[c];
+				}
+				messagesPerChat[c] += partition.messagesPerChat[c];
+			}
+			for (int p = 0; p < sentPerParticipant.length; p++) {
+				sentPerParticipant[p] += partition.sentPerParticipant[p];
+			}
+			messages += partition.messages;
+		}
+	}
+
+	/**
+	 * Builder class for SyntheticDataGenerator.
+	 */
+	public static class Builder {
+		private final DataSource dataSource;
+		private String messagesTable = "messages";
+		private int users = 10_000;
+		private int chats = 5_000;
+		private double groupChatRatio = 0.2;
+		private int maxGroupSize = 50;
+		private long messages = 1_000_000;
+		private LocalDate from = LocalDate.of(2025, 1, 1);
+		private LocalDate to = LocalDate.of(2025, 6, 1);
+		private double zipfExponent = 1.1;
+		private double neverReadRatio = 0.1;
+		private int loaderThreads = 4;
+		private long rowsPerStatement = 1_000_000;
+		private long seed = 42;
+
+		private Builder(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		public Builder messagesTable(String messagesTable) {
+			this.messagesTable = messagesTable;
+			return this;
+		}
+
+		public Builder users(int users) {
+			this.users = users;
+			return this;
+		}
+
+		public Builder chats(int chats) {
+			this.chats = chats;
+			return this;
+		}
+
+		/**
+		 * @param groupChatRatio The share of chats that are groups; the others are direct chats between two users.
+		 * @param maxGroupSize The largest group; group sizes are uniform between 3 and this size.
+		 */
+		public Builder groupChats(double groupChatRatio, int maxGroupSize) {
+			this.groupChatRatio = groupChatRatio;
+			this.maxGroupSize = maxGroupSize;
+			return this;
+		}
+
+		public Builder messages(long messages) {
+			this.messages = messages;
+			return this;
+		}
+
+		/**
+		 * Spread messages evenly over [from, to).
+		 */
+		public Builder dateRange(LocalDate from, LocalDate to) {
+			this.from = from;
+			this.to = to;
+			return this;
+		}
+
+		/**
+		 * @param zipfExponent The skew of message activity over chats; 0 spreads messages evenly, larger values
+		 *                     concentrate them on fewer chats.
+		 */
+		public Builder zipfExponent(double zipfExponent) {
+			this.zipfExponent = zipfExponent;
+			return this;
+		}
+
+		/**
+		 * @param neverReadRatio The share of participants who never opened their chat and have all of its messages unread.
+		 */
+		public Builder neverReadRatio(double neverReadRatio) {
+			this.neverReadRatio = neverReadRatio;
+			return this;
+		}
+
+		/**
+		 * @param loaderThreads The number of partitions loaded concurrently, each over its own connection.
+		 */
+		public Builder loaderThreads(int loaderThreads) {
+			this.loaderThreads = loaderThreads;
+			return this;
+		}
+
+		/**
+		 * @param rowsPerStatement The most messages sent by one LOAD DATA statement, and so committed together.
+		 */
+		public Builder rowsPerStatement(long rowsPerStatement) {
+			this.rowsPerStatement = rowsPerStatement;
+			return this;
+		}
+
+		public Builder seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		public SyntheticDataGenerator build() {
+			if (dataSource == null) {
+				throw new IllegalStateException("A data source must be set.");
+			}
+			if (users < 2 || chats < 1 || messages < 0 || loaderThreads < 1 || rowsPerStatement < 1) {
+				throw new IllegalStateException("Users must be at least 2, chats and loader threads at least 1, messages not negative.");
+			}
+			if (!from.isBefore(to)) {
+				throw new IllegalStateException("The date range must not be empty.");
+			}
+			return new SyntheticDataGenerator(this);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves archive tables from the primary to an archive server as InnoDB transportable tablespaces.
+ * <p>
+ * The table is created on the archive server from the primary's {@code SHOW CREATE TABLE} and its empty tablespace
+ * discarded. On the primary, {@code FLUSH TABLES ... FOR EXPORT} quiesces the table and writes its .cfg file while
+ * reads go on; the .ibd and .cfg files are copied into the archive server's schema directory under temporary names,
+ * forced to disk and moved into place before {@code UNLOCK TABLES}. {@code IMPORT TABLESPACE} then adopts the files,
+ * so the table arrives with its pages and indexes as they were, without re-inserting a row. Once the message_id edges
+ * on the archive server match the primary, the registry row is set to {@code storage_tier = 'remote'} with the
+ * server's name, and only then is the table dropped from the primary. The read services open the archives registered
+ * under a server name on the data source configured for it with {@link ArchiverConfig.Builder#archiveServer}.
+ * <p>
+ * Both servers must run the same MySQL version with innodb_file_per_table, and this process needs read access to the
+ * primary's schema directory and write access to the archive server's, with the copies ending up readable by its
+ * mysqld, e.g. by running as the mysql user on a host that mounts both data directories. A second local mysqld with
+ * its own data directory works as an archive server for testing.
+ */
+public class TablespaceMover {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(TablespaceMover.class);
+
+	private static final String[] TABLESPACE_FILES = {".ibd", ".cfg"};
+
+	private final DataSource dataSource;
+	private final ArchiverConfig config;
+	private final ArchiveRegistry registry;
+	private final ArchiveRegistryCache registryCache;
+	private final String serverName;
+	private final DataSource archiveServer;
+	private final Path sourceDirectory;
+	private final Path targetDirectory;
+
+	/**
+	 * @param dataSource The data source of the primary, holding the archive and registry tables.
+	 * @param config The archiver configuration naming those tables and the archive server.
+	 * @param serverName The archive server to move tables to, as configured in {@code config}.
+	 * @param sourceDirectory The schema directory in the primary's data directory, e.g. /var/lib/mysql/chatdb.
+	 * @param targetDirectory The schema directory in the archive server's data directory.
+	 * @param registryCache A registry cache to publish each move to, or null.
+	 * @throws IllegalStateException If no archive server of that name is configured.
+	 */
+	public TablespaceMover(DataSource dataSource, ArchiverConfig config, String serverName, Path sourceDirectory, Path targetDirectory, ArchiveRegistryCache registryCache) {
+		this.dataSource = dataSource;
+		this.config = config;
+		this.registry = new ArchiveRegistry(config);
+		this.registryCache = registryCache;
+		this.serverName = serverName;
+		this.archiveServer = config.getArchiveServer(serverName);
+		this.sourceDirectory = sourceDirectory;
+		this.targetDirectory = targetDirectory;
+	}
+
+	/**
+	 * Lists the archives still on the primary whose newest message is older than the given age, oldest first.
+	 *
+	 * @param age How old an archive's newest message must be.
+	 * @return The archive table names.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public List<String> eligibleArchives(Period age) throws SQLException {
+		LocalDateTime cutoff = LocalDateTime.now().minus(age);
+		List<String> eligible = new ArrayList<>();
+		try (Connection conn = dataSource.getConnection()) {
+			for (ArchivedPartitionMetadata archive : registry.findAll(conn)) {
+				if (!archive.isOffloaded() && !archive.isRemote() && archive.getEndTimestamp().isBefore(cutoff)) {
+					eligible.add(0, archive.getArchiveTableName()); // findAll is newest first
+				}
+			}
+		}
+		return eligible;
+	}
+
+	/**
+	 * Moves one archive table to the archive server and drops it from the primary. A move interrupted before the
+	 * registry was updated can simply be run again: the half-built table on the archive server is replaced.
+	 *
+	 * @param archiveTableName The archive table.
+	 * @return The registry row, pointing at the archive server.
+	 * @throws SQLException If the archive is not registered, is not on the primary, does not arrive intact, or a
+	 *                      database error occurs.
+	 * @throws IOException If the tablespace files cannot be copied.
+	 */
+	public ArchivedPartitionMetadata move(String archiveTableName) throws SQLException, IOException {
+		long started = System.nanoTime();
+		try (Connection conn = dataSource.getConnection();
+			 Connection target = archiveServer.getConnection()) {
+			ArchivedPartitionMetadata metadata = registry.find(conn, archiveTableName);
+			if (metadata == null) {
+				throw new SQLException("Archive table '" + archiveTableName + "' is not registered in " + config.getArchivedMetadataTable());
+			}
+			if (metadata.isOffloaded()) {
+				throw new SQLException("Archive table '" + archiveTableName + "' is offloaded to " + metadata.getOffloadLocation());
+			}
+			if (metadata.isRemote()) {
+				throw new SQLException("Archive table '" + archiveTableName + "' was already moved to archive server " + metadata.getArchiveServer());
+			}
+			log.info("tablespaceMove.started", "archiveTable", archiveTableName, "archiveServer", serverName);
+
+			prepareTarget(target, archiveTableName, showCreateTable(conn, archiveTableName));
+			long bytes = exportTablespace(conn, archiveTableName);
+			try (Statement stmt = target.createStatement()) {
+				stmt.execute("ALTER TABLE " + archiveTableName + " IMPORT TABLESPACE");
+			}
+
+			Long[] expected = readEdges(conn, archiveTableName);
+			Long[] imported = readEdges(target, archiveTableName);
+			if (!Arrays.equals(expected, imported)) {
+				throw new SQLException("Archive table '" + archiveTableName + "' on " + serverName + " holds message_ids " +
+					Arrays.toString(imported) + ", expected " + Arrays.toString(expected));
+			}
+
+			// Point the registry at the archive server before the table goes away, so readers never find neither
+			String sql = "UPDATE " + config.getArchivedMetadataTable() +
+				" SET storage_tier = 'remote', archive_server = ? WHERE archive_table_name = ?";
+			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+				stmt.setString(1, serverName);
+				stmt.setString(2, archiveTableName);
+				stmt.executeUpdate();
+			}
+			ArchivedPartitionMetadata moved = metadata.withArchiveServer(serverName);
+			if (registryCache != null) {
+				registryCache.publish(moved);
+			}
+
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("DROP TABLE " + archiveTableName);
+			}
+			log.info("tablespaceMove.completed", "archiveTable", archiveTableName, "archiveServer", serverName,
+				"bytes", bytes, "durationMs", (System.nanoTime() - started) / 1_000_000);
+			return moved;
+		} catch (SQLException | IOException e) {
+			log.error("tablespaceMove.failed", e, "archiveTable", archiveTableName, "archiveServer", serverName);
+			throw e;
+		}
+	}
+
+	private static String showCreateTable(Connection conn, String table) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SHOW CREATE TABLE " + table)) {
+			if (!rs.next()) {
+				throw new SQLException("Archive table '" + table + "' does not exist");
+			}
+			return rs.getString(2);
+		}
+	}
+
+	// An empty table of the same definition whose tablespace is discarded, ready for the import. Whatever an earlier,
+	// interrupted move left behind is not registered yet, so no reader uses it and it can go.
+	private void prepareTarget(Connection target, String table, String createTable) throws SQLException, IOException {
+		try (Statement stmt = target.createStatement()) {
+			stmt.execute("DROP TABLE IF EXISTS " + table);
+			for (String extension : TABLESPACE_FILES) {
+				Files.deleteIfExists(targetDirectory.resolve(table + extension));
+				Files.deleteIfExists(targetDirectory.resolve(table + extension + ".tmp"));
+			}
+			stmt.execute(createTable);
+			stmt.execute("ALTER TABLE " + table + " DISCARD TABLESPACE");
+		}
+	}
+
+	// FLUSH TABLES ... FOR EXPORT holds a shared lock until UNLOCK TABLES: reads continue, the files stay consistent
+	private long exportTablespace(Connection conn, String table) throws SQLException, IOException {
+		long bytes = 0;
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("FLUSH TABLES " + table + " FOR EXPORT");
+			try {
+				for (String extension : TABLESPACE_FILES) {
+					bytes += copyFile(sourceDirectory.resolve(table + extension), targetDirectory.resolve(table + extension));
+				}
+			} finally {
+				stmt.execute("UNLOCK TABLES");
+			}
+		}
+		return bytes;
+	}
+
+	private static long copyFile(Path source, Path target) throws IOException {
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return Files.size(target);
+	}
+
+	private static Long[] readEdges(Connection conn, String table) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT MIN(message_id), MAX(message_id) FROM " + table)) {
+			rs.next();
+			return new Long[]{rs.getObject(1, Long.class), rs.getObject(2, Long.class)};
+		}
+	}
+}
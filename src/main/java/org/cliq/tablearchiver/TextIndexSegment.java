@@ -0,0 +1,269 @@
+package org.cliq.tablearchiver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * One memory-mapped segment of an archive's inverted index: for every term, the sorted message_ids whose content
+ * contains it.
+ * <pre>
+ * segment := header entry[termCount] termBytes postings
+ * header  := MAGIC version:int32 docCount:int32 minMessageId:int64 maxMessageId:int64 termCount:int32 reserved:int32
+ *            termBytesPosition:int64 postingsPosition:int64
+ * entry   := termOffset:int64 postingsOffset:int64 termLength:int32 docFreq:int32   (sorted by UTF-8 bytes of the term)
+ * postings := the message_ids of each term as delta-encoded varints, the first one absolute
+ * </pre>
+ * The fixed-width entries let a lookup binary search the mapped file without loading the dictionary.
+ */
+final class TextIndexSegment {
+
+	static final String FILE_EXTENSION = ".fts";
+
+	private static final byte[] MAGIC = "CLQFTS01".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 56;
+	private static final int ENTRY_SIZE = 24;
+
+	private final Path path;
+	private final MappedByteBuffer buffer;
+	private final int docCount;
+	private final long minMessageId;
+	private final long maxMessageId;
+	private final int termCount;
+	private final long termBytesPosition;
+	private final long postingsPosition;
+
+	private TextIndexSegment(Path path, MappedByteBuffer buffer) throws IOException {
+		this.path = path;
+		this.buffer = buffer;
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(0, magic);
+		if (!Arrays.equals(magic, MAGIC) || buffer.getInt(8) != VERSION) {
+			throw new IOException("Not a text index segment: " + path);
+		}
+		this.docCount = buffer.getInt(12);
+		this.minMessageId = buffer.getLong(16);
+		this.maxMessageId = buffer.getLong(24);
+		this.termCount = buffer.getInt(32);
+		this.termBytesPosition = buffer.getLong(40);
+		this.postingsPosition = buffer.getLong(48);
+	}
+
+	/**
+	 * Maps a segment file. The mapping outlives the file channel, so nothing needs closing.
+	 *
+	 * @param path The segment file.
+	 * @return The segment.
+	 * @throws IOException If the file cannot be mapped or is not a segment.
+	 */
+	static TextIndexSegment open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new TextIndexSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes a segment file.
+	 *
+	 * @param path The file to create.
+	 * @param postings The sorted message_ids of every term.
+	 * @param docCount The number of messages indexed into the segment.
+	 * @param minMessageId The lowest message_id indexed into the segment.
+	 * @param maxMessageId The highest message_id indexed into the segment.
+	 * @throws IOException If the file cannot be written.
+	 */
+	static void write(Path path, Map<String, PostingList> postings, int docCount, long minMessageId, long maxMessageId) throws IOException {
+		byte[][] terms = new byte[postings.size()][];
+		int n = 0;
+		for (String term : postings.keySet()) {
+			terms[n++] = term.getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(terms, Arrays::compareUnsigned);
+
+		long[] termOffsets = new long[terms.length];
+		long[] postingsOffsets = new long[terms.length];
+		int[] docFreqs = new int[terms.length];
+		long termBytesLength = 0;
+		ColdTierFormat.ByteSink encoded = new ColdTierFormat.ByteSink();
+		for (int i = 0; i < terms.length; i++) {
+			termOffsets[i] = termBytesLength;
+			termBytesLength += terms[i].length;
+			PostingList list = postings.get(new String(terms[i], StandardCharsets.UTF_8));
+			postingsOffsets[i] = encoded.size();
+			docFreqs[i] = list.size();
+			long previous = 0;
+			for (int j = 0; j < list.size(); j++) {
+				encoded.writeVarLong(list.get(j) - previous);
+				previous = list.get(j);
+			}
+		}
+
+		long termBytesPosition = HEADER_SIZE + (long) terms.length * ENTRY_SIZE;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 1 << 16))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(docCount);
+			out.writeLong(minMessageId);
+			out.writeLong(maxMessageId);
+			out.writeInt(terms.length);
+			out.writeInt(0);
+			out.writeLong(termBytesPosition);
+			out.writeLong(termBytesPosition + termBytesLength);
+			for (int i = 0; i < terms.length; i++) {
+				out.writeLong(termOffsets[i]);
+				out.writeLong(postingsOffsets[i]);
+				out.writeInt(terms[i].length);
+				out.writeInt(docFreqs[i]);
+			}
+			for (byte[] term : terms) {
+				out.write(term);
+			}
+			out.write(encoded.array(), 0, encoded.size());
+		}
+	}
+
+	Path getPath() { return path; }
+	int getDocCount() { return docCount; }
+	long getMinMessageId() { return minMessageId; }
+	long getMaxMessageId() { return maxMessageId; }
+	int getTermCount() { return termCount; }
+
+	/**
+	 * @param term A token as produced by {@link ArchiveTextIndexer#tokenize(String)}.
+	 * @return The number of messages of the segment containing the term, 0 if none.
+	 */
+	int docFreq(String term) {
+		int entry = find(term.getBytes(StandardCharsets.UTF_8));
+		return entry < 0 ? 0 : buffer.getInt(entryPosition(entry) + 20);
+	}
+
+	/**
+	 * @param term A token as produced by {@link ArchiveTextIndexer#tokenize(String)}.
+	 * @return The sorted message_ids of the messages containing the term; empty if none.
+	 */
+	long[] postings(String term) {
+		int entry = find(term.getBytes(StandardCharsets.UTF_8));
+		if (entry < 0) {
+			return new long[0];
+		}
+		int position = entryPosition(entry);
+		long postingsOffset = buffer.getLong(position + 8);
+		long[] ids = new long[buffer.getInt(position + 20)];
+		ByteBuffer in = buffer.slice((int) (postingsPosition + postingsOffset), (int) (buffer.capacity() - postingsPosition - postingsOffset));
+		long previous = 0;
+		for (int i = 0; i < ids.length; i++) {
+			previous += ColdTierFormat.readVarLong(in);
+			ids[i] = previous;
+		}
+		return ids;
+	}
+
+	/**
+	 * Intersects the postings of every term, rarest term first, so the work is bounded by the rarest one.
+	 *
+	 * @param terms The query terms.
+	 * @return The sorted message_ids of the messages containing all the terms.
+	 */
+	long[] intersect(String[] terms) {
+		int[] freqs = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			freqs[i] = docFreq(terms[i]);
+			if (freqs[i] == 0) {
+				return new long[0];
+			}
+		}
+		Integer[] order = new Integer[terms.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(freqs[a], freqs[b]));
+		long[] result = postings(terms[order[0]]);
+		for (int i = 1; i < order.length && result.length > 0; i++) {
+			result = intersect(result, postings(terms[order[i]]));
+		}
+		return result;
+	}
+
+	private static long[] intersect(long[] small, long[] large) {
+		long[] result = new long[small.length];
+		int n = 0;
+		int from = 0;
+		for (long id : small) {
+			int found = Arrays.binarySearch(large, from, large.length, id);
+			if (found >= 0) {
+				result[n++] = id;
+				from = found + 1;
+			} else {
+				from = -found - 1;
+			}
+			if (from >= large.length) {
+				break;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private int find(byte[] term) {
+		int low = 0;
+		int high = termCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareTerm(mid, term);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compareTerm(int entry, byte[] term) {
+		int position = entryPosition(entry);
+		int start = (int) (termBytesPosition + buffer.getLong(position));
+		int length = buffer.getInt(position + 16);
+		int common = Math.min(length, term.length);
+		for (int i = 0; i < common; i++) {
+			int cmp = Integer.compare(buffer.get(start + i) & 0xFF, term[i] & 0xFF);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return Integer.compare(length, term.length);
+	}
+
+	private static int entryPosition(int entry) {
+		return HEADER_SIZE + entry * ENTRY_SIZE;
+	}
+
+	/**
+	 * Growable list of the message_ids of one term, in the order they were indexed.
+	 */
+	static final class PostingList {
+		private long[] ids = new long[4];
+		private int size;
+
+		void add(long id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		long get(int i) { return ids[i]; }
+		int size() { return size; }
+	}
+}
@@ -0,0 +1,348 @@
+package org.cliq.tablearchiver;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind aggregation of {@code user_chat_metadata.unread_count}.
+ * <p>
+ * A message in a group chat bumps the unread count of every participant. Instead of one UPDATE per participant and
+ * message, increments and resets are coalesced in memory: one counter per (user_id, chat_id) in a ConcurrentHashMap,
+ * updated with a CAS, so concurrent writers of different keys never contend and writers of one key never block. After
+ * {@link #start()}, a background thread flushes the pending changes every {@code flushInterval}, or as soon as
+ * {@code maxPendingKeys} keys are pending, as multi-row {@code INSERT ... ON DUPLICATE KEY UPDATE} statements on uk_user_chat in one
+ * transaction; a hundred messages to a chat cost one row write per participant instead of a hundred.
+ * <p>
+ * {@link #unreadCount(long, long)} adds the pending changes to the stored value, so readers see every increment and
+ * reset the moment it is made. A flush that fails keeps its changes and retries them with the next flush, and
+ * {@link #close()} flushes what is left.
+ */
+public class UnreadCountAggregator implements AutoCloseable {
+
+	private static final StructuredLogger log = StructuredLogger.getLogger(UnreadCountAggregator.class);
+
+	private static final int ROWS_PER_STATEMENT = 500;
+
+	// Counter state: the reset flag, and the increments since the reset (or since the last flush) in the low bits
+	private static final long RESET = 1L << 62;
+	private static final long DELTA_MASK = RESET - 1;
+	// Set by a flush that took the counter; writers seeing it move on to a fresh counter
+	private static final long RETIRED = Long.MIN_VALUE;
+
+	private final DataSource dataSource;
+	private final String table;
+	private final Duration flushInterval;
+	private final int maxPendingKeys;
+	private final ConcurrentHashMap<Key, AtomicLong> pending = new ConcurrentHashMap<>();
+	// Changes taken from pending but not committed yet; guarded by drainLock
+	private final Map<Key, Long> inFlight = new HashMap<>();
+	// Readers hold the read lock while they look at pending and inFlight, so a drain never hides a change from them
+	private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+	// Odd while a flush is committing, so a reader can tell it read the table and the memory at different times
+	private final AtomicLong flushSequence = new AtomicLong();
+	private final AtomicBoolean flushQueued = new AtomicBoolean();
+	private final Object flushMonitor = new Object();
+	private final ScheduledExecutorService flusher;
+	private boolean started;
+	private volatile boolean closed;
+
+	/**
+	 * @param dataSource The data source holding the metadata table.
+	 * @param table The metadata table, e.g. user_chat_metadata.
+	 * @param flushInterval The longest time a change stays in memory.
+	 * @param maxPendingKeys The number of pending (user, chat) keys that triggers an early flush.
+	 */
+	public UnreadCountAggregator(DataSource dataSource, String table, Duration flushInterval, int maxPendingKeys) {
+		if (maxPendingKeys <= 0) {
+			throw new IllegalArgumentException("maxPendingKeys must be positive: " + maxPendingKeys);
+		}
+		this.dataSource = dataSource;
+		this.table = table;
+		this.flushInterval = flushInterval;
+		this.maxPendingKeys = maxPendingKeys;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "unread-count-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts flushing every flush interval. Until then, changes are written only by early or explicit flushes.
+	 */
+	public synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		long interval = flushInterval.toMillis();
+		flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Counts a new message for every recipient of a chat.
+	 *
+	 * @param chatId The chat.
+	 * @param userIds The participants to notify, usually all but the sender.
+	 */
+	public void messageReceived(long chatId, long[] userIds) {
+		for (long userId : userIds) {
+			increment(userId, chatId, 1);
+		}
+	}
+
+	/**
+	 * Adds to the unread count of a user in a chat.
+	 *
+	 * @param userId The user.
+	 * @param chatId The chat.
+	 * @param delta The number of new messages, positive.
+	 */
+	public void increment(long userId, long chatId, int delta) {
+		if (delta <= 0) {
+			throw new IllegalArgumentException("delta must be positive: " + delta);
+		}
+		update(new Key(userId, chatId), state -> state + delta);
+	}
+
+	/**
+	 * Resets the unread count of a user in a chat to zero, e.g. when the user opens the chat. Increments made after
+	 * the reset count from zero.
+	 *
+	 * @param userId The user.
+	 * @param chatId The chat.
+	 */
+	public void markRead(long userId, long chatId) {
+		update(new Key(userId, chatId), state -> RESET);
+	}
+
+	private void update(Key key, LongUnaryOperator change) {
+		if (closed) {
+			throw new IllegalStateException("UnreadCountAggregator is closed");
+		}
+		while (true) {
+			AtomicLong counter = pending.computeIfAbsent(key, k -> new AtomicLong());
+			long state = counter.get();
+			if (state == RETIRED) {
+				pending.remove(key, counter); // taken by a flush; start a new counter
+				continue;
+			}
+			if (counter.compareAndSet(state, change.applyAsLong(state))) {
+				break;
+			}
+		}
+		if (!closed && pending.size() >= maxPendingKeys && flushQueued.compareAndSet(false, true)) {
+			flusher.execute(() -> {
+				flushQueued.set(false);
+				flushQuietly();
+			});
+		}
+	}
+
+	/**
+	 * Reads the unread count of a user in a chat: the stored value with the pending changes applied.
+	 *
+	 * @param userId The user.
+	 * @param chatId The chat.
+	 * @return The unread count.
+	 * @throws SQLException If a database error occurs.
+	 */
+	public long unreadCount(long userId, long chatId) throws SQLException {
+		Key key = new Key(userId, chatId);
+		String sql = "SELECT unread_count FROM " + table + " WHERE user_id = ? AND chat_id = ?";
+		try (Connection conn = dataSource.getConnection();
+			 PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setLong(1, userId);
+			stmt.setLong(2, chatId);
+			while (true) {
+				long sequence = flushSequence.get();
+				if ((sequence & 1) != 0) {
+					LockSupport.parkNanos(100_000); // a flush is committing
+					continue;
+				}
+				long count = 0;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						count = rs.getLong(1);
+					}
+				}
+				drainLock.readLock().lock();
+				try {
+					Long taken = inFlight.get(key);
+					if (taken != null) {
+						count = apply(count, taken);
+					}
+					AtomicLong counter = pending.get(key);
+					long state = counter == null ? 0 : counter.get();
+					if (state != RETIRED) {
+						count = apply(count, state);
+					}
+				} finally {
+					drainLock.readLock().unlock();
+				}
+				if (flushSequence.get() == sequence) {
+					return count;
+				}
+			}
+		}
+	}
+
+	private static long apply(long count, long state) {
+		return (state & RESET) != 0 ? state & DELTA_MASK : count + (state & DELTA_MASK);
+	}
+
+	// A change followed by another, as one change
+	private static long combine(long first, long then) {
+		return (then & RESET) != 0 ? then : first + (then & DELTA_MASK);
+	}
+
+	/**
+	 * @return The number of (user, chat) keys with changes not yet written.
+	 */
+	public int getPendingKeys() {
+		return pending.size();
+	}
+
+	/**
+	 * Writes every pending change now.
+	 *
+	 * @return The number of (user, chat) rows written.
+	 * @throws SQLException If the write fails; the changes are kept for the next flush.
+	 */
+	public int flush() throws SQLException {
+		synchronized (flushMonitor) {
+			drainLock.writeLock().lock();
+			try {
+				for (Map.Entry<Key, AtomicLong> entry : pending.entrySet()) {
+					long state = entry.getValue().getAndSet(RETIRED);
+					pending.remove(entry.getKey(), entry.getValue());
+					if (state != 0) {
+						inFlight.merge(entry.getKey(), state, UnreadCountAggregator::combine);
+					}
+				}
+			} finally {
+				drainLock.writeLock().unlock();
+			}
+			if (inFlight.isEmpty()) {
+				return 0;
+			}
+
+			List<Map.Entry<Key, Long>> increments = new ArrayList<>();
+			List<Map.Entry<Key, Long>> resets = new ArrayList<>();
+			for (Map.Entry<Key, Long> entry : inFlight.entrySet()) {
+				((entry.getValue() & RESET) != 0 ? resets : increments).add(entry);
+			}
+			long started = System.nanoTime();
+			flushSequence.incrementAndGet();
+			try (Connection conn = dataSource.getConnection()) {
+				conn.setAutoCommit(false);
+				try {
+					write(conn, resets, "unread_count = VALUES(unread_count)");
+					write(conn, increments, "unread_count = unread_count + VALUES(unread_count)");
+					conn.commit();
+				} catch (SQLException e) {
+					conn.rollback();
+					throw e;
+				} finally {
+					conn.setAutoCommit(true);
+				}
+				int rows = inFlight.size();
+				drainLock.writeLock().lock();
+				try {
+					inFlight.clear();
+				} finally {
+					drainLock.writeLock().unlock();
+				}
+				log.info("unreadCounts.flushed", "rows", rows, "resets", resets.size(), "durationMs", (System.nanoTime() - started) / 1_000_000);
+				return rows;
+			} finally {
+				flushSequence.incrementAndGet();
+			}
+		}
+	}
+
+	private void write(Connection conn, List<Map.Entry<Key, Long>> rows, String onDuplicate) throws SQLException {
+		for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+			int to = Math.min(rows.size(), from + ROWS_PER_STATEMENT);
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (user_id, chat_id, unread_count) VALUES ");
+			for (int i = from; i < to; i++) {
+				sql.append(i == from ? "(?, ?, ?)" : ", (?, ?, ?)");
+			}
+			sql.append(" ON DUPLICATE KEY UPDATE ").append(onDuplicate);
+			try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+				int p = 1;
+				for (int i = from; i < to; i++) {
+					Map.Entry<Key, Long> row = rows.get(i);
+					stmt.setLong(p++, row.getKey().userId);
+					stmt.setLong(p++, row.getKey().chatId);
+					stmt.setLong(p++, row.getValue() & DELTA_MASK);
+				}
+				stmt.executeUpdate();
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (SQLException e) {
+			log.error("unreadCounts.flushFailed", e, "pendingKeys", pending.size());
+		}
+	}
+
+	/**
+	 * Stops the background flushes and writes what is still pending. Updates after close are rejected.
+	 *
+	 * @throws SQLException If the final flush fails; the changes not written are lost then.
+	 */
+	@Override
+	public void close() throws SQLException {
+		closed = true;
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	private static final class Key {
+		private final long userId;
+		private final long chatId;
+
+		Key(long userId, long chatId) {
+			this.userId = userId;
+			this.chatId = chatId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key other && userId == other.userId && chatId == other.chatId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(userId) * 31 + Long.hashCode(chatId);
+		}
+	}
+}
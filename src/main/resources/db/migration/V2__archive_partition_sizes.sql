@@ -0,0 +1,6 @@
+-- Size of each archived partition, captured from INFORMATION_SCHEMA before the exchange
+-- (see PartitionArchiver.capturePartitionMetadata); 0 for archives registered earlier.
+ALTER TABLE archived_message_partitions
+    ADD COLUMN row_count BIGINT UNSIGNED NOT NULL DEFAULT 0, -- Rows in the partition when it was archived
+    ADD COLUMN data_length BIGINT UNSIGNED NOT NULL DEFAULT 0, -- Clustered index bytes of the partition
+    ADD COLUMN index_length BIGINT UNSIGNED NOT NULL DEFAULT 0; -- Secondary index bytes of the partition
@@ -0,0 +1,5 @@
+-- Archives offloaded to a cold tier file (see ArchiveOffloader) no longer have a MySQL table;
+-- the registry row keeps their range and points at the file instead.
+ALTER TABLE archived_message_partitions
+    ADD COLUMN storage_tier ENUM('mysql', 'cold') NOT NULL DEFAULT 'mysql', -- Where the archive's rows live
+    ADD COLUMN offload_location VARCHAR(1024) NULL; -- Path of the cold tier file, NULL while the rows are in MySQL
@@ -0,0 +1,7 @@
+-- Bloom filters of the distinct chat_ids and sender_ids of each archive (see ArchivePresenceFilter),
+-- so chat- and sender-scoped lookups skip the archives that cannot hold the id.
+CREATE TABLE IF NOT EXISTS archive_presence_filters (
+    archive_table_name VARCHAR(255) NOT NULL PRIMARY KEY, -- Registry row the filters belong to
+    chat_filter MEDIUMBLOB NOT NULL, -- Serialized filter of the archive's chat_ids
+    sender_filter MEDIUMBLOB NOT NULL -- Serialized filter of the archive's sender_ids
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
@@ -0,0 +1,4 @@
+-- Name of the ArchiveIndexProfile each archive table's secondary indexes were rebuilt to,
+-- NULL while it keeps the indexes of the messages table (see IndexProfileBackfill).
+ALTER TABLE archived_message_partitions
+    ADD COLUMN index_profile VARCHAR(64) NULL; -- Applied index profile name
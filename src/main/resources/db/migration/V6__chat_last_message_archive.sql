@@ -0,0 +1,4 @@
+-- Registry name of the archive holding a chat's last message, set by ChatSummaryRepair once the
+-- message has left the messages table; NULL while the last message is live.
+ALTER TABLE chats
+    ADD COLUMN last_message_archive_table VARCHAR(255) NULL; -- archived_message_partitions.archive_table_name
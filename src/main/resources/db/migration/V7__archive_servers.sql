@@ -0,0 +1,5 @@
+-- Archives moved to an archive server as a transportable tablespace (see TablespaceMover) keep
+-- their table name; the registry row records which server now holds the table.
+ALTER TABLE archived_message_partitions
+    MODIFY COLUMN storage_tier ENUM('mysql', 'cold', 'remote') NOT NULL DEFAULT 'mysql', -- Where the archive's rows live
+    ADD COLUMN archive_server VARCHAR(64) NULL; -- ArchiverConfig archive server name, NULL while the table is on the primary